@@ -0,0 +1,281 @@
+/**
+ * Unlicensed code created by A Softer Space, 2019
+ * www.asofterspace.com/licenses/unlicense.txt
+ */
+package com.asofterspace.cdm;
+
+import com.asofterspace.cdm.index.CdmIndexer;
+import com.asofterspace.toolbox.cdm.CdmCtrl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * A cache of loaded CDMs, such that a longer running process (e.g. the cdm server) does not have
+ * to parse the same CDM over and over again for each command that is executed on it
+ *
+ * Entries are keyed by the canonical path of the CDM directory (or of the single CDM file that
+ * was loaded) and are only handed out again as long as none of the .cdm files they were loaded
+ * from have been added, removed or modified; if the cache gets too full, the least recently used
+ * CDMs are thrown out first
+ */
+public class CdmCache {
+
+	// we assume that a loaded CDM takes roughly this many times its file size on the heap
+	private final static long HEAP_BYTES_PER_FILE_BYTE = 10;
+
+	public final static int DEFAULT_MAX_ENTRIES = 8;
+
+	private int maxEntries;
+
+	private long heapBudget;
+
+	// access-ordered, so that the first entry is always the least recently used one
+	private LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+
+	/**
+	 * Create a cache that keeps the default amount of CDMs and lets them take up
+	 * to three quarters of the heap
+	 */
+	public CdmCache() {
+		this(DEFAULT_MAX_ENTRIES, getDefaultHeapBudget());
+	}
+
+	/**
+	 * Create a cache that keeps at most maxEntries CDMs and tries to stay within
+	 * heapBudget bytes of (estimated) heap usage
+	 */
+	public CdmCache(int maxEntries, long heapBudget) {
+		this.maxEntries = maxEntries;
+		this.heapBudget = heapBudget;
+	}
+
+	/**
+	 * Get the loaded CDM for the given path, loading (or re-loading) it if it is not in the cache
+	 * yet or if the files on disk have changed since it was loaded
+	 */
+	public synchronized CdmCtrl get(String cdmPath, boolean loadFullModel, boolean exitOnProblem) {
+
+		String key = getKey(cdmPath);
+
+		Entry entry = entries.get(key);
+
+		if (entry != null) {
+			boolean upToDate = !entry.modified && entry.fingerprint.equals(entry.getCurrentFingerprint(key));
+			if (upToDate && (entry.fullModel || !loadFullModel)) {
+				return entry.cdmCtrl;
+			}
+			// stale or not detailed enough - throw it out and load again
+			discard(entries.remove(key));
+		}
+
+		makeRoomFor(new Fingerprint(CdmIndexer.getCdmFiles(new File(key))).getTotalSize() * HEAP_BYTES_PER_FILE_BYTE);
+
+		CdmCtrl cdmCtrl = CommandCtrl.restoreCdmSnapshot(cdmPath, loadFullModel);
+
+		boolean loaded = true;
+
+		if (cdmCtrl == null) {
+			cdmCtrl = new CdmCtrl();
+			loaded = CommandCtrl.loadCdm(cdmPath, loadFullModel, cdmCtrl, exitOnProblem);
+		}
+
+		// only keep CDMs around that could be loaded without problems
+		if (loaded) {
+			Fingerprint fingerprint = new Fingerprint(CommandCtrl.getLoadedFiles(cdmCtrl, key));
+			entries.put(key, new Entry(cdmCtrl, fingerprint, loadFullModel));
+		}
+
+		return cdmCtrl;
+	}
+
+	/**
+	 * Note that the CDM at the given path has been modified in memory, so that it no longer
+	 * corresponds to what is on disk and will not be handed out again (unless it is saved)
+	 */
+	public synchronized void markModified(String cdmPath) {
+		Entry entry = entries.get(getKey(cdmPath));
+		if (entry != null) {
+			entry.modified = true;
+		}
+	}
+
+	/**
+	 * Note that the CDM at the given path has just been saved in-place, so that the files
+	 * on disk once more correspond to what is held in memory
+	 */
+	public synchronized void markSaved(String cdmPath) {
+		String key = getKey(cdmPath);
+		Entry entry = entries.get(key);
+		if (entry != null) {
+			entry.fingerprint = entry.getCurrentFingerprint(key);
+			entry.modified = false;
+		}
+	}
+
+	/**
+	 * Forget about the CDM at the given path
+	 */
+	public synchronized void invalidate(String cdmPath) {
+		discard(entries.remove(getKey(cdmPath)));
+	}
+
+	public synchronized void clear() {
+		for (Entry entry : entries.values()) {
+			discard(entry);
+		}
+		entries.clear();
+	}
+
+	/**
+	 * Whether the given loaded CDM is one of the ones kept in this cache
+	 */
+	public synchronized boolean holds(CdmCtrl cdmCtrl) {
+		for (Entry entry : entries.values()) {
+			if (entry.cdmCtrl == cdmCtrl) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public synchronized List<String> getCachedPaths() {
+		return new ArrayList<>(entries.keySet());
+	}
+
+	private void makeRoomFor(long estimatedHeapUsage) {
+
+		long usage = estimatedHeapUsage;
+		for (Entry entry : entries.values()) {
+			usage += entry.getEstimatedHeapUsage();
+		}
+
+		Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+
+		while (iterator.hasNext() && ((entries.size() >= maxEntries) || (usage > heapBudget))) {
+			Entry leastRecentlyUsed = iterator.next().getValue();
+			usage -= leastRecentlyUsed.getEstimatedHeapUsage();
+			iterator.remove();
+			discard(leastRecentlyUsed);
+		}
+	}
+
+	/**
+	 * A CDM that is thrown out of the cache no longer needs the temporary files it was loaded from
+	 * (if just a part of a CDM was loaded)
+	 */
+	private static void discard(Entry entry) {
+		if (entry != null) {
+			CommandCtrl.discardLoadedFiles(entry.cdmCtrl);
+		}
+	}
+
+	public static long getDefaultHeapBudget() {
+		return (Runtime.getRuntime().maxMemory() / 4) * 3;
+	}
+
+	private static String getKey(String cdmPath) {
+		File cdmFile = new File(cdmPath);
+		try {
+			return cdmFile.getCanonicalPath();
+		} catch (IOException e) {
+			return cdmFile.getAbsolutePath();
+		}
+	}
+
+
+	private static class Entry {
+
+		private CdmCtrl cdmCtrl;
+
+		private Fingerprint fingerprint;
+
+		private boolean fullModel;
+
+		private boolean modified = false;
+
+
+		public Entry(CdmCtrl cdmCtrl, Fingerprint fingerprint, boolean fullModel) {
+			this.cdmCtrl = cdmCtrl;
+			this.fingerprint = fingerprint;
+			this.fullModel = fullModel;
+		}
+
+		public long getEstimatedHeapUsage() {
+			return fingerprint.getTotalSize() * HEAP_BYTES_PER_FILE_BYTE;
+		}
+
+		/**
+		 * Get the fingerprint of the files on disk that this entry was loaded from - which are all files
+		 * within the CDM directory, or, if a single file was loaded, that file and the ones it links to
+		 */
+		public Fingerprint getCurrentFingerprint(String key) {
+			File cdmFile = new File(key);
+			if (cdmFile.isFile()) {
+				return new Fingerprint(fingerprint.getFiles());
+			}
+			return new Fingerprint(CdmIndexer.getCdmFiles(cdmFile));
+		}
+	}
+
+
+	/**
+	 * The names, sizes and modification times of the files of a CDM
+	 */
+	private static class Fingerprint {
+
+		private List<File> files;
+
+		private Map<String, Long> modifiedTimes = new LinkedHashMap<>();
+
+		private Map<String, Long> sizes = new LinkedHashMap<>();
+
+		private long totalSize = 0;
+
+
+		public Fingerprint(List<File> files) {
+
+			this.files = files;
+
+			for (File file : files) {
+				String path = file.getAbsolutePath();
+				long size = file.length();
+				modifiedTimes.put(path, file.lastModified());
+				sizes.put(path, size);
+				totalSize += size;
+			}
+		}
+
+		public List<File> getFiles() {
+			return files;
+		}
+
+		public long getTotalSize() {
+			return totalSize;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+
+			if (!(other instanceof Fingerprint)) {
+				return false;
+			}
+
+			Fingerprint otherFingerprint = (Fingerprint) other;
+
+			return modifiedTimes.equals(otherFingerprint.modifiedTimes) && sizes.equals(otherFingerprint.sizes);
+		}
+
+		@Override
+		public int hashCode() {
+			return modifiedTimes.hashCode();
+		}
+	}
+}
@@ -0,0 +1,186 @@
+/**
+ * Unlicensed code created by A Softer Space, 2019
+ * www.asofterspace.com/licenses/unlicense.txt
+ */
+package com.asofterspace.cdm;
+
+import com.asofterspace.cdm.exceptions.CdmScanningException;
+import com.asofterspace.cdm.index.CdmFileIndex;
+import com.asofterspace.cdm.index.CdmIndexer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * A view onto a part of a CDM: a temporary directory which contains just one CDM file together
+ * with all the files that it (directly or indirectly) links to, so that loading this directory
+ * only loads what is needed for that one file
+ *
+ * The files are hard-linked into the view where possible (and copied otherwise), and keep their
+ * relative locations, so that all links between them still work
+ */
+public class CdmFileView {
+
+	private final static List<CdmFileView> allViews = new ArrayList<>();
+
+	private Path viewDir;
+
+	// the directory within which the original files keep the same relative locations as in the view
+	private Path baseDir;
+
+	// the original files, mapped to their counterparts in the view
+	private Map<Path, Path> files = new LinkedHashMap<>();
+
+
+	static {
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				List<CdmFileView> views;
+				synchronized (allViews) {
+					views = new ArrayList<>(allViews);
+				}
+				for (CdmFileView view : views) {
+					view.delete();
+				}
+			}
+		});
+	}
+
+	private CdmFileView() {
+	}
+
+	/**
+	 * Create a view containing the given CDM file and all files it depends on
+	 */
+	public static CdmFileView create(File cdmFile) throws CdmScanningException {
+		return create(Collections.singletonList(cdmFile));
+	}
+
+	/**
+	 * Create a view containing the given CDM files and all files they depend on
+	 */
+	public static CdmFileView create(List<File> cdmFiles) throws CdmScanningException {
+
+		List<CdmFileIndex> closure = CdmIndexer.indexWithDependencies(cdmFiles);
+
+		List<Path> originals = new ArrayList<>();
+		for (CdmFileIndex fileIndex : closure) {
+			originals.add(new File(fileIndex.getPath()).toPath());
+		}
+
+		Path baseDir = getCommonParent(originals);
+
+		CdmFileView result = new CdmFileView();
+		result.baseDir = baseDir;
+
+		try {
+			result.viewDir = Files.createTempDirectory("cdm_view");
+
+			synchronized (allViews) {
+				allViews.add(result);
+			}
+
+			for (Path original : originals) {
+				Path inView = result.viewDir.resolve(baseDir.relativize(original).toString());
+				Files.createDirectories(inView.getParent());
+				try {
+					Files.createLink(inView, original);
+				} catch (IOException | UnsupportedOperationException e) {
+					// e.g. the temporary directory is on a different file system - so just copy
+					Files.copy(original, inView, StandardCopyOption.COPY_ATTRIBUTES);
+				}
+				result.files.put(original, inView);
+			}
+
+		} catch (IOException e) {
+			throw new CdmScanningException("The view onto " + cdmFiles + " could not be created: " + e.getMessage(), e);
+		}
+
+		return result;
+	}
+
+	private static Path getCommonParent(List<Path> paths) {
+
+		Path result = paths.get(0).getParent();
+
+		for (Path path : paths) {
+			while (!path.startsWith(result)) {
+				result = result.getParent();
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * The temporary directory that can be loaded instead of the entire CDM
+	 */
+	public File getDirectory() {
+		return viewDir.toFile();
+	}
+
+	/**
+	 * The original files that are contained in this view
+	 */
+	public List<File> getOriginalFiles() {
+		List<File> result = new ArrayList<>();
+		for (Path original : files.keySet()) {
+			result.add(original.toFile());
+		}
+		return Collections.unmodifiableList(result);
+	}
+
+	/**
+	 * The directory that corresponds to the directory of the view in the original CDM, such that
+	 * a file saved into the view belongs at the same relative location within this directory
+	 */
+	public File getBaseDirectory() {
+		return baseDir.toFile();
+	}
+
+	/**
+	 * Remove the temporary directory of this view (the original files are not touched)
+	 */
+	public void delete() {
+
+		synchronized (allViews) {
+			allViews.remove(this);
+		}
+
+		if (viewDir == null) {
+			return;
+		}
+
+		try {
+			Files.walkFileTree(viewDir, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+					Files.delete(file);
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+					Files.delete(dir);
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		} catch (IOException e) {
+			// it is just a temporary directory, so if it cannot be removed right now, let it be
+		}
+
+		viewDir = null;
+	}
+}
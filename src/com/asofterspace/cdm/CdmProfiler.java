@@ -0,0 +1,346 @@
+/**
+ * Unlicensed code created by A Softer Space, 2019
+ * www.asofterspace.com/licenses/unlicense.txt
+ */
+package com.asofterspace.cdm;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+
+/**
+ * Records how long the phases of a command (scanning, loading, executing, saving, ...) take, as
+ * enabled by the global --profile option, and reports them once the command is done
+ *
+ * For each phase, the wall time, the CPU time of the whole process, the bytes allocated by all
+ * threads that are still alive at the end of the phase and the peak heap usage (sampled every
+ * few milliseconds) are recorded - phases can be nested, e.g. loading within a command
+ *
+ * Phases are nested per thread: a phase started on a worker thread is nested in the phases that
+ * were open on the thread that started the worker, but not in the phases of other workers that
+ * run at the same time (e.g. the groups of validate --sharded)
+ */
+public class CdmProfiler {
+
+	private final static long HEAP_SAMPLE_MILLIS = 10;
+
+	private final static double MEGABYTE = 1024 * 1024;
+
+	private static volatile boolean enabled = false;
+
+	// where to write the report as JSON, or null to print it
+	private static String jsonPath = null;
+
+	private static List<Phase> finishedPhases = new CopyOnWriteArrayList<>();
+
+	private static List<Phase> openPhases = new CopyOnWriteArrayList<>();
+
+	// the phases that are open on the current thread, innermost last - new threads start out with
+	// the ones of the thread that created them
+	private final static ThreadLocal<List<Phase>> OPEN_ON_THREAD = new InheritableThreadLocal<List<Phase>>() {
+		@Override
+		protected List<Phase> initialValue() {
+			return new ArrayList<>();
+		}
+
+		@Override
+		protected List<Phase> childValue(List<Phase> parentValue) {
+			return new ArrayList<>(parentValue);
+		}
+	};
+
+	private static Thread heapSampler = null;
+
+	private final static Phase NO_PHASE = new Phase(null, 0, null);
+
+
+	/**
+	 * Start profiling, reporting on System.err in the end, or writing to the given JSON file
+	 * (if it is not null)
+	 */
+	public static synchronized void enable(String newJsonPath) {
+
+		enabled = true;
+		jsonPath = newJsonPath;
+
+		if (heapSampler == null) {
+			heapSampler = new Thread(new Runnable() {
+				public void run() {
+					while (true) {
+						sampleHeap();
+						try {
+							Thread.sleep(HEAP_SAMPLE_MILLIS);
+						} catch (InterruptedException e) {
+							return;
+						}
+					}
+				}
+			}, "cdm profiler");
+			heapSampler.setDaemon(true);
+			heapSampler.start();
+		}
+	}
+
+	public static synchronized void disable() {
+
+		enabled = false;
+		finishedPhases.clear();
+		openPhases.clear();
+		OPEN_ON_THREAD.remove();
+
+		if (heapSampler != null) {
+			heapSampler.interrupt();
+			heapSampler = null;
+		}
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Start a phase, which is then ended by calling end() on it (ideally in a finally block) -
+	 * when profiling is not enabled, this does nothing at all
+	 */
+	public static Phase start(String name) {
+
+		if (!enabled) {
+			return NO_PHASE;
+		}
+
+		List<Phase> openOnThread = OPEN_ON_THREAD.get();
+
+		Phase parent = openOnThread.isEmpty() ? null : openOnThread.get(openOnThread.size() - 1);
+
+		Phase result = new Phase(name, openOnThread.size(), parent);
+		openOnThread.add(result);
+		openPhases.add(result);
+		result.begin();
+
+		return result;
+	}
+
+	private static void sampleHeap() {
+
+		long used = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+
+		for (Phase phase : openPhases) {
+			phase.peakHeap = Math.max(phase.peakHeap, used);
+		}
+	}
+
+	/**
+	 * Report all phases that have ended so far, and forget about them
+	 */
+	public static synchronized void report() {
+
+		if (!enabled) {
+			return;
+		}
+
+		// when exiting in the middle of a phase (e.g. due to a problem), the phase ends right there
+		for (Phase phase : openPhases) {
+			phase.end();
+		}
+
+		if (finishedPhases.isEmpty()) {
+			return;
+		}
+
+		// report the phases in the order in which they started, but with nested ones right after
+		// their parents (phases running at the same time on different threads would mix otherwise)
+		List<Phase> finished = new ArrayList<>(finishedPhases);
+		finishedPhases.clear();
+		sortByStart(finished);
+
+		List<Phase> phases = new ArrayList<>();
+		for (Phase phase : finished) {
+			if ((phase.parent == null) || !finished.contains(phase.parent)) {
+				addWithNested(phase, finished, phases);
+			}
+		}
+
+		if (jsonPath == null) {
+			System.err.println("Profile:");
+			for (Phase phase : phases) {
+				System.err.println(phase.toString());
+			}
+			return;
+		}
+
+		try (Writer out = new OutputStreamWriter(new FileOutputStream(CommandCtrl.resolvePath(jsonPath)), StandardCharsets.UTF_8)) {
+
+			out.write("{\n");
+			out.write("  \"version\": \"" + Main.VERSION_NUMBER.replace("\"", "\\\"") + "\",\n");
+			out.write("  \"phases\": [");
+
+			for (int i = 0; i < phases.size(); i++) {
+				out.write((i == 0) ? "\n" : ",\n");
+				out.write("    " + phases.get(i).toJson());
+			}
+
+			out.write("\n  ]\n");
+			out.write("}\n");
+
+		} catch (IOException e) {
+			System.err.println("The profile could not be written to " + jsonPath + ": " + e.getMessage());
+		}
+	}
+
+	private static void addWithNested(Phase phase, List<Phase> finished, List<Phase> result) {
+		result.add(phase);
+		for (Phase other : finished) {
+			if (other.parent == phase) {
+				addWithNested(other, finished, result);
+			}
+		}
+	}
+
+	private static void sortByStart(List<Phase> phases) {
+		Collections.sort(phases, new Comparator<Phase>() {
+			public int compare(Phase a, Phase b) {
+				return Long.compare(a.startWall, b.startWall);
+			}
+		});
+	}
+
+	private static long getProcessCpuTime() {
+
+		OperatingSystemMXBean osBean = ManagementFactory.getOperatingSystemMXBean();
+
+		if (osBean instanceof com.sun.management.OperatingSystemMXBean) {
+			return ((com.sun.management.OperatingSystemMXBean) osBean).getProcessCpuTime();
+		}
+
+		return -1;
+	}
+
+	private static long getAllocatedBytes() {
+
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+		if (!(threadBean instanceof com.sun.management.ThreadMXBean)) {
+			return -1;
+		}
+
+		com.sun.management.ThreadMXBean sunThreadBean = (com.sun.management.ThreadMXBean) threadBean;
+
+		if (!sunThreadBean.isThreadAllocatedMemorySupported() || !sunThreadBean.isThreadAllocatedMemoryEnabled()) {
+			return -1;
+		}
+
+		long result = 0;
+
+		for (long allocated : sunThreadBean.getThreadAllocatedBytes(threadBean.getAllThreadIds())) {
+			if (allocated > 0) {
+				result += allocated;
+			}
+		}
+
+		return result;
+	}
+
+
+	public static class Phase {
+
+		private String name;
+
+		private int depth;
+
+		// the phase that was innermost on the same thread when this one started (if any)
+		private Phase parent;
+
+		private long startWall;
+		private long startCpu;
+		private long startAllocated;
+
+		private long wallNanos;
+		private long cpuNanos = -1;
+		private long allocatedBytes = -1;
+		private volatile long peakHeap;
+
+
+		private Phase(String name, int depth, Phase parent) {
+			this.name = name;
+			this.depth = depth;
+			this.parent = parent;
+		}
+
+		private void begin() {
+			MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+			peakHeap = memoryBean.getHeapMemoryUsage().getUsed();
+			startCpu = getProcessCpuTime();
+			startAllocated = getAllocatedBytes();
+			startWall = System.nanoTime();
+		}
+
+		public void end() {
+
+			if (name == null) {
+				return;
+			}
+
+			wallNanos = System.nanoTime() - startWall;
+
+			long endCpu = getProcessCpuTime();
+			if ((startCpu >= 0) && (endCpu >= 0)) {
+				cpuNanos = endCpu - startCpu;
+			}
+
+			long endAllocated = getAllocatedBytes();
+			if ((startAllocated >= 0) && (endAllocated >= 0)) {
+				// threads that ended during the phase take what they allocated with them
+				allocatedBytes = Math.max(0, endAllocated - startAllocated);
+			}
+
+			sampleHeap();
+
+			OPEN_ON_THREAD.get().remove(this);
+			openPhases.remove(this);
+			finishedPhases.add(this);
+		}
+
+		@Override
+		public String toString() {
+
+			StringBuilder result = new StringBuilder();
+
+			for (int i = 0; i <= depth; i++) {
+				result.append("  ");
+			}
+
+			result.append(name);
+			result.append(": ");
+			result.append(String.format(Locale.ENGLISH, "%.1f ms wall", wallNanos / 1000000.0));
+			if (cpuNanos >= 0) {
+				result.append(String.format(Locale.ENGLISH, ", %.1f ms cpu", cpuNanos / 1000000.0));
+			}
+			if (allocatedBytes >= 0) {
+				result.append(String.format(Locale.ENGLISH, ", %.1f MB allocated", allocatedBytes / MEGABYTE));
+			}
+			result.append(String.format(Locale.ENGLISH, ", %.1f MB peak heap", peakHeap / MEGABYTE));
+
+			return result.toString();
+		}
+
+		public String toJson() {
+			return String.format(Locale.ENGLISH,
+				"{\"phase\": \"%s\", \"depth\": %d, \"wallMs\": %.3f, \"cpuMs\": %.3f, \"allocatedBytes\": %d, \"peakHeapBytes\": %d}",
+				name.replace("\\", "\\\\").replace("\"", "\\\""), depth, wallNanos / 1000000.0,
+				(cpuNanos < 0) ? -1.0 : cpuNanos / 1000000.0, allocatedBytes, peakHeap);
+		}
+	}
+}
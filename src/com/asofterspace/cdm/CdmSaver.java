@@ -0,0 +1,450 @@
+/**
+ * Unlicensed code created by A Softer Space, 2019
+ * www.asofterspace.com/licenses/unlicense.txt
+ */
+package com.asofterspace.cdm;
+
+import com.asofterspace.cdm.events.CdmEvents;
+import com.asofterspace.cdm.events.CdmEventType;
+import com.asofterspace.cdm.exceptions.CdmScanningException;
+import com.asofterspace.cdm.index.CdmXmlScanner;
+import com.asofterspace.toolbox.cdm.CdmCtrl;
+import com.asofterspace.toolbox.cdm.exceptions.CdmSavingException;
+import com.asofterspace.toolbox.io.Directory;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+/**
+ * Saves a loaded CDM such that only the files that were actually modified are written
+ *
+ * If it is known which files were modified (see CommandCtrl.markModified), just these are written
+ * out of the model into a temporary staging directory; otherwise, the whole model is. Each staged
+ * file is then compared to the file it was loaded from - files that are the same (byte by byte, or
+ * at least in all their tags, attributes and text) count as unmodified and are left alone (or, when
+ * saving to a different directory, are copied over byte for byte), while modified files replace
+ * their targets by being written next to them and then renamed in one go; all files are handled in
+ * parallel
+ */
+public class CdmSaver {
+
+	private final static int IO_BUFFER_SIZE = 64 * 1024;
+
+
+	/**
+	 * Save the given controller, which was loaded from the given files within the given directory,
+	 * either back into that directory (if the destination directory is null) or into the destination
+	 * directory, returning how many files were actually modified
+	 *
+	 * Only the given modified files are written out of the model - unless these are null, which
+	 * means that it is not known which files were modified, so that the whole model is written
+	 */
+	public static int save(CdmCtrl cdmCtrl, List<File> modifiedFiles, List<File> loadedFiles, File originalDir,
+		File destinationDir, int threads) throws IOException {
+
+		final Path stagingDir = Files.createTempDirectory("cdm_save");
+
+		try {
+			// the staged files, each with the original file it was loaded from
+			List<File> stagedFiles = new ArrayList<>();
+			List<File> originals = new ArrayList<>();
+
+			CdmProfiler.Phase writePhase = CdmProfiler.start("write model");
+			try {
+				if (modifiedFiles == null) {
+					cdmCtrl.saveTo(new Directory(stagingDir.toFile().getPath()));
+					for (File stagedFile : getAllFiles(stagingDir)) {
+						stagedFiles.add(stagedFile);
+						originals.add(new File(originalDir, stagingDir.relativize(stagedFile.toPath()).toString()));
+					}
+				} else {
+					for (File modifiedFile : modifiedFiles) {
+						stagedFiles.add(extractFile(cdmCtrl, modifiedFile, originalDir, stagingDir, stagedFiles.size()));
+						originals.add(modifiedFile);
+					}
+				}
+			} finally {
+				writePhase.end();
+			}
+
+			// when saving somewhere else, the files that were not written at all are copied over as well
+			if ((modifiedFiles != null) && (destinationDir != null)) {
+				for (File loadedFile : loadedFiles) {
+					if (!modifiedFiles.contains(loadedFile)) {
+						stagedFiles.add(null);
+						originals.add(loadedFile);
+					}
+				}
+			}
+
+			if (stagedFiles.isEmpty()) {
+				return 0;
+			}
+
+			ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, stagedFiles.size())));
+
+			CdmProfiler.Phase replacePhase = CdmProfiler.start("compare and replace files");
+
+			try {
+				List<Future<Boolean>> futures = new ArrayList<>();
+
+				for (int i = 0; i < stagedFiles.size(); i++) {
+					final File stagedFile = stagedFiles.get(i);
+					final File original = originals.get(i);
+					final File target = (destinationDir == null) ? original :
+						new File(destinationDir, relativize(originalDir, original));
+					futures.add(pool.submit(new Callable<Boolean>() {
+						public Boolean call() throws IOException {
+							return saveFile(stagedFile, original, target);
+						}
+					}));
+				}
+
+				int modifiedAmount = 0;
+
+				for (Future<Boolean> future : futures) {
+					if (future.get()) {
+						modifiedAmount++;
+					}
+				}
+
+				return modifiedAmount;
+
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw new IOException(e.getCause());
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			} finally {
+				pool.shutdown();
+				replacePhase.end();
+			}
+
+		} finally {
+			deleteRecursively(stagingDir);
+		}
+	}
+
+	/**
+	 * Write just the given file out of the model into a directory of its own within the staging
+	 * directory, returning the staged file
+	 */
+	private static File extractFile(CdmCtrl cdmCtrl, File modifiedFile, File originalDir, Path stagingDir, int number)
+		throws IOException {
+
+		String relativePath = relativize(originalDir, modifiedFile);
+
+		Path fileStagingDir = stagingDir.resolve(Integer.toString(number));
+		Files.createDirectories(fileStagingDir);
+
+		try {
+			cdmCtrl.extractFileTo(relativePath, fileStagingDir.toFile().getPath());
+		} catch (CdmSavingException e) {
+			throw new IOException("The file " + relativePath + " could not be written: " + e.getMessage(), e);
+		}
+
+		List<File> extracted = getAllFiles(fileStagingDir);
+
+		if (extracted.size() != 1) {
+			throw new IOException("The file " + relativePath + " could not be written on its own.");
+		}
+
+		return extracted.get(0);
+	}
+
+	/**
+	 * Put one staged file into place, returning true if it was modified - where no staged file
+	 * is given, the original was not written again, so it is unmodified
+	 */
+	private static boolean saveFile(File stagedFile, File original, File target) throws IOException {
+
+		CdmEventType.Event event = CdmEvents.FILE_SAVED.begin();
+
+		boolean modified = (stagedFile != null) && (!original.isFile() || !isUnmodified(stagedFile, original));
+
+		if (modified) {
+			replace(stagedFile, target);
+		} else if (!target.equals(original)) {
+			replace(original, target);
+		}
+
+		if (event != null) {
+			event.commit(target.getPath(), target.length(), modified);
+		}
+
+		return modified;
+	}
+
+	private static boolean isUnmodified(File stagedFile, File original) throws IOException {
+
+		if (haveSameBytes(stagedFile, original)) {
+			return true;
+		}
+
+		// the model may well write a file a little differently from how it was written originally,
+		// so only count a file as modified if its tags, attributes or text are different
+		try {
+			return haveSameStructure(stagedFile, original);
+		} catch (CdmScanningException e) {
+			return false;
+		}
+	}
+
+	private static boolean haveSameBytes(File a, File b) throws IOException {
+
+		if (a.length() != b.length()) {
+			return false;
+		}
+
+		try (InputStream inA = new BufferedInputStream(new FileInputStream(a), IO_BUFFER_SIZE);
+			 InputStream inB = new BufferedInputStream(new FileInputStream(b), IO_BUFFER_SIZE)) {
+
+			byte[] bufA = new byte[IO_BUFFER_SIZE];
+			byte[] bufB = new byte[IO_BUFFER_SIZE];
+
+			while (true) {
+				int lenA = readFully(inA, bufA);
+				int lenB = readFully(inB, bufB);
+
+				if (lenA != lenB) {
+					return false;
+				}
+				if (lenA == 0) {
+					return true;
+				}
+				for (int i = 0; i < lenA; i++) {
+					if (bufA[i] != bufB[i]) {
+						return false;
+					}
+				}
+			}
+		}
+	}
+
+	private static int readFully(InputStream in, byte[] buf) throws IOException {
+
+		int total = 0;
+
+		while (total < buf.length) {
+			int len = in.read(buf, total, buf.length - total);
+			if (len < 0) {
+				break;
+			}
+			total += len;
+		}
+
+		return total;
+	}
+
+	/**
+	 * Compare the tags, attributes and text of two files, going through both of them side by side,
+	 * ignoring the whitespace between tags and within tags, and whether empty elements are
+	 * self-closing or not
+	 */
+	private static boolean haveSameStructure(File a, File b) throws IOException, CdmScanningException {
+
+		// the files are read rather than mapped, as the original may be replaced right afterwards,
+		// which some platforms (e.g. Windows) do not allow while a mapping of it is still around
+		ByteBuffer bufferA = read(a);
+		ByteBuffer bufferB = read(b);
+
+		CdmXmlScanner scannerA = new CdmXmlScanner(bufferA);
+		CdmXmlScanner scannerB = new CdmXmlScanner(bufferB);
+
+		// what comes before the root element (such as the XML declaration) is not part of the CDM
+		int lastTagEndA = -1;
+		int lastTagEndB = -1;
+
+		while (true) {
+
+			int eventA = scannerA.next();
+			int eventB = scannerB.next();
+
+			if (eventA != eventB) {
+				return false;
+			}
+
+			if (eventA == CdmXmlScanner.END_DOCUMENT) {
+				return true;
+			}
+
+			if (!haveSameText(bufferA, lastTagEndA, scannerA.getTagOffset(), bufferB, lastTagEndB, scannerB.getTagOffset())) {
+				return false;
+			}
+
+			if (eventA == CdmXmlScanner.START_ELEMENT) {
+
+				if (!haveSameBytes(bufferA, scannerA.getTagNameStart(), scannerA.getTagNameEnd(),
+					bufferB, scannerB.getTagNameStart(), scannerB.getTagNameEnd())) {
+					return false;
+				}
+
+				if (scannerA.getAttributeCount() != scannerB.getAttributeCount()) {
+					return false;
+				}
+
+				for (int i = 0; i < scannerA.getAttributeCount(); i++) {
+					if (!haveSameBytes(bufferA, scannerA.getAttributeNameStart(i), scannerA.getAttributeNameEnd(i),
+						bufferB, scannerB.getAttributeNameStart(i), scannerB.getAttributeNameEnd(i))) {
+						return false;
+					}
+					if (!haveSameBytes(bufferA, scannerA.getAttributeValueStart(i), scannerA.getAttributeValueEnd(i),
+						bufferB, scannerB.getAttributeValueStart(i), scannerB.getAttributeValueEnd(i))) {
+						return false;
+					}
+				}
+			}
+
+			lastTagEndA = scannerA.getTagEndOffset();
+			lastTagEndB = scannerB.getTagEndOffset();
+		}
+	}
+
+	private static ByteBuffer read(File cdmFile) throws IOException, CdmScanningException {
+
+		try (FileChannel channel = FileChannel.open(cdmFile.toPath(), StandardOpenOption.READ)) {
+
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new CdmScanningException("The file " + cdmFile + " is too large to be compared.");
+			}
+
+			ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer) < 0) {
+					// the file got shorter while we were reading it
+					break;
+				}
+			}
+
+			buffer.flip();
+
+			return buffer;
+		}
+	}
+
+	/**
+	 * Compare the text between two tags in two files, counting text that is just whitespace as none
+	 */
+	private static boolean haveSameText(ByteBuffer bufferA, int startA, int endA, ByteBuffer bufferB, int startB, int endB) {
+
+		boolean noTextA = (startA < 0) || isWhitespace(bufferA, startA, endA);
+		boolean noTextB = (startB < 0) || isWhitespace(bufferB, startB, endB);
+
+		if (noTextA || noTextB) {
+			return noTextA == noTextB;
+		}
+
+		return haveSameBytes(bufferA, startA, endA, bufferB, startB, endB);
+	}
+
+	private static boolean haveSameBytes(ByteBuffer bufferA, int startA, int endA, ByteBuffer bufferB, int startB, int endB) {
+
+		if (endA - startA != endB - startB) {
+			return false;
+		}
+
+		for (int i = 0; i < endA - startA; i++) {
+			if (bufferA.get(startA + i) != bufferB.get(startB + i)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private static boolean isWhitespace(ByteBuffer buffer, int start, int end) {
+		for (int i = start; i < end; i++) {
+			byte b = buffer.get(i);
+			if ((b != ' ') && (b != '\t') && (b != '\n') && (b != '\r')) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Replace the target with a copy of the source, such that the target is never half-written
+	 */
+	private static void replace(File source, File target) throws IOException {
+
+		File targetDir = target.getAbsoluteFile().getParentFile();
+		targetDir.mkdirs();
+
+		Path tempFile = new File(targetDir, "." + target.getName() + ".saving").toPath();
+
+		try {
+			Files.copy(source.toPath(), tempFile, StandardCopyOption.REPLACE_EXISTING);
+			try {
+				Files.move(tempFile, target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tempFile, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(tempFile);
+		}
+	}
+
+	private static String relativize(File dir, File file) {
+		return dir.getAbsoluteFile().toPath().relativize(file.getAbsoluteFile().toPath()).toString();
+	}
+
+	private static List<File> getAllFiles(Path dir) throws IOException {
+
+		final List<File> result = new ArrayList<>();
+
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+				result.add(file.toFile());
+				return FileVisitResult.CONTINUE;
+			}
+		});
+
+		return result;
+	}
+
+	private static void deleteRecursively(Path dir) {
+
+		try {
+			Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+					Files.delete(file);
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+					Files.delete(dir);
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		} catch (IOException e) {
+			// it is just a temporary directory, so if it cannot be removed right now, let it be
+		}
+	}
+}
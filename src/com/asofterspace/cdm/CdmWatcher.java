@@ -0,0 +1,140 @@
+/**
+ * Unlicensed code created by A Softer Space, 2019
+ * www.asofterspace.com/licenses/unlicense.txt
+ */
+package com.asofterspace.cdm;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Watches a CDM directory (including its subdirectories) for changes to its .cdm files, as used
+ * by the global --watch option
+ *
+ * Editors tend to save several files in a row (or one file in several steps), so once something
+ * changed, we wait until nothing has changed for a little while, and report all changes at once
+ */
+public class CdmWatcher implements AutoCloseable {
+
+	private final static String CDM_EXTENSION = ".cdm";
+
+	private final static long DEBOUNCE_MILLIS = 300;
+
+	private WatchService watchService;
+
+	// the directories that are being watched, by the key under which their events come in
+	private Map<WatchKey, Path> watchedDirs = new HashMap<>();
+
+
+	/**
+	 * Start watching the given directory and all directories within it
+	 */
+	public CdmWatcher(Path dir) throws IOException {
+
+		watchService = dir.getFileSystem().newWatchService();
+
+		register(dir);
+	}
+
+	private void register(Path dir) throws IOException {
+
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path subDir, BasicFileAttributes attributes) throws IOException {
+				WatchKey key = subDir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+				watchedDirs.put(key, subDir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * Wait until .cdm files have been changed, created or deleted, and return their paths
+	 * (once no more changes have come in for a little while)
+	 */
+	public Set<Path> waitForChanges() throws IOException, InterruptedException {
+
+		Set<Path> result = new TreeSet<>();
+
+		// block until the first change, and afterwards just until things have calmed down
+		WatchKey key = watchService.take();
+
+		while (true) {
+
+			collectChanges(key, result);
+
+			key = watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+
+			if (key == null) {
+				if (!result.isEmpty()) {
+					return result;
+				}
+				// only other files changed (e.g. the index that the command itself wrote)
+				key = watchService.take();
+			}
+		}
+	}
+
+	private void collectChanges(WatchKey key, Set<Path> changes) throws IOException {
+
+		Path dir = watchedDirs.get(key);
+
+		for (WatchEvent<?> event : key.pollEvents()) {
+
+			// too much happened at once for the watch service to tell us what - so look at everything
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				if (dir != null) {
+					changes.add(dir);
+				}
+				continue;
+			}
+
+			if (dir == null) {
+				continue;
+			}
+
+			Path changed = dir.resolve((Path) event.context());
+
+			if ((event.kind() == StandardWatchEventKinds.ENTRY_CREATE) && Files.isDirectory(changed)) {
+				register(changed);
+				changes.add(changed);
+				continue;
+			}
+
+			// a whole directory of files might have been deleted
+			if ((event.kind() == StandardWatchEventKinds.ENTRY_DELETE) && watchedDirs.containsValue(changed)) {
+				changes.add(changed);
+				continue;
+			}
+
+			if (changed.getFileName().toString().toLowerCase().endsWith(CDM_EXTENSION)) {
+				changes.add(changed);
+			}
+		}
+
+		// directories that are gone cannot be watched anymore
+		if (!key.reset()) {
+			watchedDirs.remove(key);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		watchService.close();
+	}
+}
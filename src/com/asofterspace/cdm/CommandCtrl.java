@@ -5,7 +5,16 @@
 package com.asofterspace.cdm;
 
 import com.asofterspace.cdm.commands.Help;
+import com.asofterspace.cdm.events.CdmEvents;
+import com.asofterspace.cdm.events.CdmEventType;
+import com.asofterspace.cdm.exceptions.CdmScanningException;
+import com.asofterspace.cdm.exceptions.CommandExitException;
+import com.asofterspace.cdm.index.CdmElement;
+import com.asofterspace.cdm.index.CdmIndex;
+import com.asofterspace.cdm.index.CdmIndexer;
+import com.asofterspace.cdm.index.CdmIndexStore;
 import com.asofterspace.cdm.interfaces.Command;
+import com.asofterspace.cdm.snapshot.CdmSnapshotStore;
 import com.asofterspace.toolbox.cdm.CdmCtrl;
 import com.asofterspace.toolbox.cdm.CdmNode;
 import com.asofterspace.toolbox.cdm.exceptions.AttemptingEmfException;
@@ -15,12 +24,22 @@ import com.asofterspace.toolbox.Utils;
 import com.asofterspace.toolbox.utils.ProgressIndicator;
 import com.asofterspace.toolbox.utils.NoOpProgressIndicator;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
 
 
 public class CommandCtrl {
@@ -39,6 +58,43 @@ public class CommandCtrl {
 	// the default controller (however, commands can also use their own)
 	private static CdmCtrl cdmCtrl;
 
+	// if this is set, we are running inside a longer session (e.g. in the cdm server) and must not end the JVM
+	private static boolean keepRunning = false;
+
+	// the directory relative to which paths are resolved (null to just use the one of the JVM)
+	private static String workingDirectory = null;
+
+	// the loaded CDMs that are kept around between commands (null to load CDMs fresh every time)
+	private static CdmCache cdmCache = null;
+
+	// where snapshots of loaded CDMs are kept, so that unchanged CDMs do not have to be parsed again
+	// (null if snapshots cannot be used, e.g. as the model of the toolbox cannot be serialized)
+	private static CdmSnapshotStore snapshotStore = createSnapshotStore();
+
+	// the amount of threads to use for work that can be done in parallel, as set by the global -j option
+	// (this is only our own work on the files - the toolbox always loads a CDM model on one thread)
+	private static int threadCount;
+
+	// whether to show the progress of loading CDMs, as set by the global --progress option
+	private static boolean showProgress;
+
+	// whether to run the command again whenever the CDM changes, as set by the global --watch option
+	private static boolean watch;
+
+	// the commands that can be used with --watch
+	private final static List<String> WATCH_COMMANDS = Arrays.asList("find", "tree", "validate");
+
+	// if this is set, saves in-place are only noted down here (with the path of the CDM to be saved)
+	// instead of being done right away, so that they can all be done at once later (e.g. in cdm batch)
+	private static Map<CdmCtrl, String> deferredSaves = null;
+
+	// for controllers into which just a part of a CDM has been loaded, the views they have been loaded from
+	private static Map<CdmCtrl, CdmFileView> fileViews = Collections.synchronizedMap(new WeakHashMap<CdmCtrl, CdmFileView>());
+
+	// for controllers in which commands modified nodes, the UUIDs of these nodes (or null if it is not
+	// known which nodes were modified), so that saving only needs to write the files containing them
+	private static Map<CdmCtrl, Set<String>> modifiedNodes = Collections.synchronizedMap(new WeakHashMap<CdmCtrl, Set<String>>());
+
 
 	public static void register(Command command) {
 		commandList.add(command);
@@ -46,7 +102,12 @@ public class CommandCtrl {
 
 	public static void executeCommand(String[] args) {
 	
-		mainArgs = args;
+		mainArgs = extractGlobalOptions(args);
+		firstarg = null;
+		argumentMap = null;
+		argumentList = null;
+		pathArg = null;
+		otherPathArg = null;
 
 		// create one default CDM controller - we might create more later (e.g. when comparing two CDMs),
 		// but one will be plenty for now, thank you very much ;)
@@ -57,7 +118,7 @@ public class CommandCtrl {
 			// ... tell everyone that this is basically nonsense!
 			Help help = new Help();
 			help.execute();
-			System.exit(1);
+			exit(1);
 		}
 		
 		// get the first arg...
@@ -73,15 +134,274 @@ public class CommandCtrl {
 
 		if (calledCommand == null) {
 			System.err.println("Sorry, I did not understand the argument '" + args[0] + "' - call  cdm help  to get a list of possible commands.");
-			System.exit(2);
+			exit(2);
 		}
 
-		calledCommand.execute();
+		if (watch) {
+			executeAndWatch(calledCommand, args);
+		}
+
+		CdmProfiler.Phase commandPhase = CdmProfiler.start("command " + calledCommand.getName());
+		try {
+			calledCommand.execute();
+		} finally {
+			commandPhase.end();
+		}
 
 		// Utils.debuglog("Done!");
 
 		// all is shiny! all is good! exit code 0!
-		System.exit(0);
+		exit(0);
+	}
+
+	/**
+	 * Take the options that apply to all commands (such as -j <threads>) out of the arguments,
+	 * so that the individual commands do not have to care about them
+	 */
+	private static String[] extractGlobalOptions(String[] args) {
+
+		threadCount = Runtime.getRuntime().availableProcessors();
+		showProgress = false;
+		watch = false;
+
+		List<String> remainingArgs = new ArrayList<>();
+
+		for (int i = 0; i < args.length; i++) {
+
+			if ((i > 0) && "--progress".equals(args[i])) {
+				showProgress = true;
+				continue;
+			}
+
+			if ((i > 0) && "--watch".equals(args[i])) {
+				watch = true;
+				continue;
+			}
+
+			// profile the phases of the command, printing the result in the end or writing it as JSON
+			if ((i > 0) && ("--profile".equals(args[i]) || args[i].startsWith("--profile="))) {
+				String jsonPath = args[i].startsWith("--profile=") ? args[i].substring("--profile=".length()) : null;
+				CdmProfiler.enable(((jsonPath == null) || jsonPath.isEmpty()) ? null : jsonPath);
+				continue;
+			}
+
+			// the command itself always stays where it is
+			if ((i > 0) && "-j".equals(args[i]) && (i + 1 < args.length)) {
+				try {
+					threadCount = Math.max(1, Integer.parseInt(args[i + 1]));
+					i++;
+					continue;
+				} catch (NumberFormatException e) {
+					System.err.println("The amount of threads '" + args[i + 1] + "' given to -j is not a number.");
+					exit(4);
+				}
+			}
+
+			remainingArgs.add(args[i]);
+		}
+
+		return remainingArgs.toArray(new String[remainingArgs.size()]);
+	}
+
+	/**
+	 * Execute the given command, and then execute it again whenever .cdm files in the CDM directory
+	 * change (until we are stopped) - this keeps running in one JVM, so the command is executed in
+	 * a session each time, with the same arguments (except for --watch itself)
+	 *
+	 * The toolbox cannot re-parse just some files of a loaded CDM, so each run loads what it needs
+	 * afresh - but find only re-scans the changed files into its index, and validate (especially
+	 * with --sharded) only checks the files whose contents are not in its validation cache yet
+	 */
+	private static void executeAndWatch(Command command, String[] args) {
+
+		if (keepRunning) {
+			System.err.println("The option --watch can only be used when calling cdm directly, not within a session.");
+			exit(4);
+		}
+
+		if (!WATCH_COMMANDS.contains(command.getName())) {
+			System.err.println("The option --watch can only be used for the commands " + WATCH_COMMANDS + ".");
+			exit(4);
+		}
+
+		// the CDM path always comes last for the commands that can be watched
+		File cdmPath = (mainArgs.length < 2) ? null : new File(resolvePath(mainArgs[mainArgs.length - 1]));
+
+		if ((cdmPath == null) || !cdmPath.exists()) {
+			System.err.println("You called  cdm " + command.getName() + " --watch  but did not specify an existing CDM path to watch - please do.");
+			exit(4);
+		}
+
+		// for a single .cdm file, the files it links to are somewhere in its directory
+		Path watchedDir = (cdmPath.isFile() ? cdmPath.getAbsoluteFile().getParentFile() : cdmPath).toPath();
+
+		List<String> commandArgs = new ArrayList<>(Arrays.asList(args));
+		commandArgs.remove("--watch");
+		String[] commandArgArray = commandArgs.toArray(new String[commandArgs.size()]);
+
+		try (CdmWatcher watcher = new CdmWatcher(watchedDir)) {
+
+			while (true) {
+
+				int exitCode = executeCommandInSession(commandArgArray);
+
+				CdmProfiler.report();
+
+				System.out.flush();
+
+				if (exitCode != 0) {
+					System.err.println("(exit code " + exitCode + ")");
+				}
+
+				System.out.println("");
+				System.out.println("Watching " + watchedDir + " for changes - press Ctrl+C to stop.");
+
+				Set<Path> changes = watcher.waitForChanges();
+
+				Path firstChange = changes.iterator().next();
+				String changeStr = watchedDir.relativize(firstChange).toString();
+				if (changes.size() > 1) {
+					changeStr += " and " + (changes.size() - 1) + " more";
+				}
+
+				System.out.println("");
+				System.out.println("[" + new SimpleDateFormat("HH:mm:ss").format(new Date()) + "] " + changeStr +
+					" changed - executing  cdm " + command.getName() + "  again:");
+				System.out.println("");
+			}
+
+		} catch (IOException e) {
+			System.err.println("The CDM directory " + watchedDir + " could not be watched: " + e.getMessage());
+			exit(13);
+		} catch (InterruptedException e) {
+			exit(0);
+		}
+	}
+
+	/**
+	 * Execute a command without ending the JVM afterwards, and return its exit code instead
+	 * (this is used when running several commands within one session, e.g. in the cdm server)
+	 */
+	public static int executeCommandInSession(final String[] args) {
+
+		boolean wasProfiling = CdmProfiler.isEnabled();
+
+		Set<CdmCtrl> viewedBefore = getControllersWithViews();
+
+		int result = executeInSession(new Runnable() {
+			public void run() {
+				executeCommand(args);
+			}
+		});
+
+		// in a session, the JVM keeps running, so the temporary files that the command loaded parts of
+		// CDMs from must go now - unless the session keeps these CDMs around for later commands
+		for (CdmCtrl viewed : getControllersWithViews()) {
+			if (viewedBefore.contains(viewed) || ((cdmCache != null) && cdmCache.holds(viewed)) ||
+				((deferredSaves != null) && deferredSaves.containsKey(viewed))) {
+				continue;
+			}
+			discardLoadedFiles(viewed);
+		}
+
+		// if the command asked for a profile by itself, it gets its own report - otherwise, e.g. in
+		// a batch that is profiled as a whole, its phases go into the report in the end
+		if (!wasProfiling && CdmProfiler.isEnabled()) {
+			CdmProfiler.report();
+			CdmProfiler.disable();
+		}
+
+		return result;
+	}
+
+	/**
+	 * Run something that might want to exit (e.g. due to a problem) without ending the JVM,
+	 * and return the exit code that it wanted to exit with - or 1 if it failed unexpectedly
+	 */
+	public static int executeInSession(Runnable runnable) {
+
+		boolean wasKeepingRunning = keepRunning;
+		keepRunning = true;
+
+		try {
+			runnable.run();
+		} catch (CommandExitException e) {
+			return e.getExitCode();
+		} catch (RuntimeException e) {
+			// a command that crashed must not count as a success (e.g. in cdm batch, which would
+			// then go on to save what the crashed command left behind)
+			e.printStackTrace(System.err);
+			return 1;
+		} finally {
+			keepRunning = wasKeepingRunning;
+		}
+
+		return 0;
+	}
+
+	/**
+	 * Split a line entered by the user into arguments, just like a shell would do it
+	 * (so arguments are separated by whitespace, unless they are wrapped in quotes)
+	 */
+	public static List<String> splitCommandLine(String line) {
+
+		List<String> result = new ArrayList<>();
+
+		StringBuilder current = new StringBuilder();
+		boolean inArgument = false;
+		char quote = 0;
+
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+
+			if (quote != 0) {
+				if (c == quote) {
+					quote = 0;
+				} else {
+					current.append(c);
+				}
+				continue;
+			}
+
+			if ((c == '"') || (c == '\'')) {
+				quote = c;
+				inArgument = true;
+				continue;
+			}
+
+			if (Character.isWhitespace(c)) {
+				if (inArgument) {
+					result.add(current.toString());
+					current.setLength(0);
+					inArgument = false;
+				}
+				continue;
+			}
+
+			current.append(c);
+			inArgument = true;
+		}
+
+		if (inArgument) {
+			result.add(current.toString());
+		}
+
+		return result;
+	}
+
+	/**
+	 * End the current command with the given exit code - when running standalone, this ends the JVM,
+	 * while in a session, only the current command is stopped
+	 */
+	public static void exit(int exitCode) {
+
+		if (keepRunning) {
+			throw new CommandExitException(exitCode);
+		}
+
+		CdmProfiler.report();
+
+		System.exit(exitCode);
 	}
 	
 	// use a map of arguments, e.g. -u uuid -n name ..., together with at most one path in the end
@@ -99,7 +419,7 @@ public class CommandCtrl {
 				i++;
 			} else {
 				System.err.println("The argument '" + mainArgs[i] + "' was not understood - please check  cdm help " + firstarg);
-				System.exit(4);
+				exit(4);
 			}
 		}
 		
@@ -127,7 +447,7 @@ public class CommandCtrl {
 				i++;
 			} else {
 				System.err.println("The argument '" + mainArgs[i] + "' was not understood - please check  cdm help " + firstarg);
-				System.exit(4);
+				exit(4);
 			}
 		}
 		
@@ -137,6 +457,38 @@ public class CommandCtrl {
 		}
 	}
 
+	// use the arguments just as they are given, e.g. -t type -and -not -n name ..., together with
+	// exactly one path in the end
+	public static void useArgTokensWithOnePath() {
+
+		argumentList = new ArrayList<String>();
+
+		for (int i = 1; i < mainArgs.length - 1; i++) {
+			argumentList.add(mainArgs[i]);
+		}
+
+		if (mainArgs.length > 1) {
+			pathArg = mainArgs[mainArgs.length - 1];
+		}
+	}
+
+	// use the arguments just as they are given, together with exactly two paths in the end
+	public static void useArgTokensWithTwoPaths() {
+
+		argumentList = new ArrayList<String>();
+
+		for (int i = 1; i < mainArgs.length - 2; i++) {
+			argumentList.add(mainArgs[i]);
+		}
+
+		if (mainArgs.length > 1) {
+			pathArg = mainArgs[mainArgs.length - 1];
+		}
+		if (mainArgs.length > 2) {
+			otherPathArg = mainArgs[mainArgs.length - 2];
+		}
+	}
+
 	// use a list of arguments, e.g. -u -n ..., together with at most two paths in the end
 	public static void useArgListWithTwoPaths() {
 		
@@ -152,7 +504,7 @@ public class CommandCtrl {
 				i++;
 			} else {
 				System.err.println("The argument '" + mainArgs[i] + "' was not understood - please check  cdm help " + firstarg);
-				System.exit(4);
+				exit(4);
 			}
 		}
 		
@@ -170,60 +522,491 @@ public class CommandCtrl {
 	}
 
 	public static void loadCdm(boolean loadFullModel) {
-		loadCdm(pathArg, loadFullModel, cdmCtrl, true);
+		loadCdm(loadFullModel, true);
+	}
+
+	public static void loadCdm(boolean loadFullModel, boolean exitOnProblem) {
+		cdmCtrl = loadCdm(pathArg, loadFullModel, exitOnProblem);
+	}
+
+	/**
+	 * Get a loaded CDM controller for the given path - when CDMs are cached, this one might
+	 * already have been loaded earlier, so it must not be modified without saving it afterwards
+	 */
+	public static CdmCtrl loadCdm(String cdmPath, boolean loadFullModel, boolean exitOnProblem) {
+
+		if (cdmCache != null) {
+			return cdmCache.get(resolvePath(cdmPath), loadFullModel, exitOnProblem);
+		}
+
+		CdmCtrl result = restoreCdmSnapshot(cdmPath, loadFullModel);
+
+		if (result == null) {
+			result = new CdmCtrl();
+			loadCdm(cdmPath, loadFullModel, result, exitOnProblem);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Load the CDM at the given path into the given controller, returning true if that worked
+	 * and false if there were problems (or exiting, if exitOnProblem is set)
+	 */
+	public static boolean loadCdm(String cdmPath, boolean loadFullModel, CdmCtrl cdmCtrlToLoadInto, boolean exitOnProblem) {
+
+		String cdmDirPath = resolvePath(cdmPath);
+
+		CdmSnapshotStore.Manifest manifest = null;
+
+		try {
+			// if just one file is given, only load that file and the files it links to
+			File cdmFile = new File(cdmDirPath);
+			if (cdmFile.isFile()) {
+				CdmProfiler.Phase linkPhase = CdmProfiler.start("resolve linked files");
+				try {
+					CdmFileView view = CdmFileView.create(cdmFile);
+					fileViews.put(cdmCtrlToLoadInto, view);
+					cdmDirPath = view.getDirectory().getPath();
+				} finally {
+					linkPhase.end();
+				}
+			} else if (snapshotStore != null) {
+				// note down the files as they are before loading, so that we notice if they change meanwhile
+				manifest = snapshotStore.createManifest(cdmFile);
+			}
+
+			loadCdmDirectory(cdmDirPath, loadFullModel, cdmCtrlToLoadInto);
+
+		} catch (AttemptingEmfException | CdmLoadingException | CdmScanningException e) {
+			System.err.println(e.getMessage());
+			if (exitOnProblem) {
+				exit(3);
+			}
+			return false;
+		}
+
+		if (manifest != null) {
+			CdmProfiler.Phase snapshotPhase = CdmProfiler.start("store snapshot");
+			try {
+				snapshotStore.store(manifest, loadFullModel, cdmCtrlToLoadInto);
+			} finally {
+				snapshotPhase.end();
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Get the CDM at the given path from its snapshot in a new controller, or null if there is no
+	 * snapshot that fits the files on disk (then the CDM has to be loaded as usual)
+	 */
+	public static CdmCtrl restoreCdmSnapshot(String cdmPath, boolean loadFullModel) {
+
+		File cdmDir = new File(resolvePath(cdmPath));
+
+		// single files are loaded via a view of just some files of the CDM, which we do not snapshot
+		if ((snapshotStore == null) || !cdmDir.isDirectory()) {
+			return null;
+		}
+
+		CdmProfiler.Phase snapshotPhase = CdmProfiler.start("restore snapshot");
+		try {
+			return snapshotStore.restore(cdmDir, loadFullModel);
+		} finally {
+			snapshotPhase.end();
+		}
 	}
 
-	public static void loadCdm(String cdmPath, boolean loadFullModel, CdmCtrl cdmCtrlToLoadInto, boolean exitOnProblem) {
+	private static CdmSnapshotStore createSnapshotStore() {
 
-		Directory cdmDir = new Directory(cdmPath);
-		ProgressIndicator noProgress = new NoOpProgressIndicator();
+		if (!CdmSnapshotStore.isSupported() || (System.getenv("CDM_NO_SNAPSHOTS") != null)) {
+			return null;
+		}
+
+		return new CdmSnapshotStore(CdmSnapshotStore.getDefaultDirectory(), Main.VERSION_NUMBER,
+			CdmSnapshotStore.DEFAULT_MAX_TOTAL_SIZE);
+	}
+
+	/**
+	 * Load just the given CDM files (and the files they link to) into a new controller, returning
+	 * null if there were problems (or exiting, if exitOnProblem is set)
+	 */
+	public static CdmCtrl loadCdmFiles(List<File> cdmFiles, boolean loadFullModel, boolean exitOnProblem) {
+
+		CdmCtrl result = new CdmCtrl();
 
+		try {
+			CdmProfiler.Phase linkPhase = CdmProfiler.start("resolve linked files");
+			CdmFileView view;
+			try {
+				view = CdmFileView.create(cdmFiles);
+				fileViews.put(result, view);
+			} finally {
+				linkPhase.end();
+			}
+
+			loadCdmDirectory(view.getDirectory().getPath(), loadFullModel, result);
+
+		} catch (AttemptingEmfException | CdmLoadingException | CdmScanningException e) {
+			System.err.println(e.getMessage());
+			if (exitOnProblem) {
+				exit(3);
+			}
+			return null;
+		}
+
+		return result;
+	}
+
+	/**
+	 * Load all CDM files in the given directory into the given controller, profiling and showing
+	 * the progress if that was asked for
+	 */
+	private static void loadCdmDirectory(String cdmDirPath, boolean loadFullModel, CdmCtrl cdmCtrlToLoadInto)
+		throws AttemptingEmfException, CdmLoadingException {
+
+		ProgressIndicator progress = new NoOpProgressIndicator();
+
+		CdmEventType.Event event = CdmEvents.CDM_LOADED.begin();
+		int fileAmount = 0;
+		long byteAmount = 0;
+
+		// the toolbox does not tell us how many files there are, so we have to look ourselves
+		if (showProgress || CdmProfiler.isEnabled() || (event != null)) {
+			CdmProfiler.Phase scanPhase = CdmProfiler.start("scan directory");
+			List<File> cdmFiles = CdmIndexer.getCdmFiles(new File(cdmDirPath));
+			fileAmount = cdmFiles.size();
+			for (File cdmFile : cdmFiles) {
+				byteAmount += cdmFile.length();
+			}
+			scanPhase.end();
+
+			if (showProgress) {
+				progress = new ConsoleProgressIndicator("Loading", fileAmount, byteAmount);
+			}
+		}
+
+		Directory cdmDir = new Directory(cdmDirPath);
+
+		// the toolbox parses the files and links the elements across files all in one go, on this
+		// thread - the loaded models of separate parts of a CDM cannot be merged, so -j does not help here
+		CdmProfiler.Phase loadPhase = CdmProfiler.start(loadFullModel ? "parse and link" : "parse and link (faster)");
 		try {
 			if (loadFullModel) {
-				cdmCtrlToLoadInto.loadCdmDirectory(cdmDir, noProgress);
+				cdmCtrlToLoadInto.loadCdmDirectory(cdmDir, progress);
 			} else {
-				cdmCtrlToLoadInto.loadCdmDirectoryFaster(cdmDir, noProgress);
+				cdmCtrlToLoadInto.loadCdmDirectoryFaster(cdmDir, progress);
+			}
+		} finally {
+			loadPhase.end();
+		}
+
+		progress.setDone();
+
+		if (event != null) {
+			event.commit(cdmDirPath, fileAmount, byteAmount, loadFullModel);
+		}
+	}
+
+	/**
+	 * Remove the temporary files that the given controller was loaded from (if it was loaded from
+	 * just a part of a CDM), once it is no longer needed
+	 */
+	public static void discardLoadedFiles(CdmCtrl loadedCdmCtrl) {
+
+		CdmFileView view = fileViews.remove(loadedCdmCtrl);
+
+		if (view != null) {
+			view.delete();
+		}
+	}
+
+	private static Set<CdmCtrl> getControllersWithViews() {
+		Set<CdmCtrl> result = Collections.newSetFromMap(new IdentityHashMap<CdmCtrl, Boolean>());
+		synchronized (fileViews) {
+			result.addAll(fileViews.keySet());
+		}
+		return result;
+	}
+
+	/**
+	 * Whether just a part of a CDM (e.g. a single file and the files it links to) has been loaded
+	 * into the given controller, rather than a whole CDM directory
+	 */
+	public static boolean isPartiallyLoaded(CdmCtrl loadedCdmCtrl) {
+		return fileViews.containsKey(loadedCdmCtrl);
+	}
+
+	/**
+	 * Get the CDM files that the given controller has been loaded from
+	 */
+	public static List<File> getLoadedFiles(CdmCtrl loadedCdmCtrl, String cdmPath) {
+
+		CdmFileView view = fileViews.get(loadedCdmCtrl);
+
+		if (view != null) {
+			return view.getOriginalFiles();
+		}
+
+		return CdmIndexer.getCdmFiles(new File(resolvePath(cdmPath)));
+	}
+
+	/**
+	 * Scan the CDM at the given path (a directory, or just one .cdm file) into a lightweight index,
+	 * using as many threads as were requested with -j (by default, one per core)
+	 *
+	 * For directories, the index is kept in an index file within the CDM directory, so that next
+	 * time only the files that changed in the meantime have to be scanned again
+	 */
+	public static CdmIndex indexCdm(String cdmPath, boolean exitOnProblem) {
+
+		File cdmDir = new File(resolvePath(cdmPath));
+
+		CdmProfiler.Phase indexPhase = CdmProfiler.start("index");
+
+		try {
+			if (cdmDir.isDirectory()) {
+				return CdmIndexStore.loadOrBuild(cdmDir, threadCount);
 			}
-		} catch (AttemptingEmfException | CdmLoadingException e) {
+			return CdmIndexer.indexDirectory(cdmDir, threadCount);
+		} catch (CdmScanningException e) {
 			System.err.println(e.getMessage());
 			if (exitOnProblem) {
-				System.exit(3);
+				exit(3);
+			}
+			return null;
+		} finally {
+			indexPhase.end();
+		}
+	}
+
+	/**
+	 * Note down that the given node of the given loaded CDM has been modified, so that saving the
+	 * CDM only writes the files containing the nodes noted down (so commands must call this for
+	 * every node they change - as long as none has been noted down, saving writes the whole CDM)
+	 */
+	public static void markModified(CdmCtrl modifiedCdmCtrl, CdmNode node) {
+
+		synchronized (modifiedNodes) {
+
+			if (node.getId() == null) {
+				// without a UUID, we cannot tell which file the node is in
+				markAllModified(modifiedCdmCtrl);
+				return;
+			}
+
+			Set<String> uuids = modifiedNodes.get(modifiedCdmCtrl);
+
+			if (uuids == null) {
+				if (modifiedNodes.containsKey(modifiedCdmCtrl)) {
+					// everything has been modified already anyway
+					return;
+				}
+				uuids = new HashSet<>();
+				modifiedNodes.put(modifiedCdmCtrl, uuids);
+			}
+
+			uuids.add(node.getId());
+		}
+	}
+
+	/**
+	 * Note down that the given loaded CDM has been modified as a whole (or in some way that cannot
+	 * be narrowed down to particular nodes), so that saving the CDM writes all of it
+	 */
+	public static void markAllModified(CdmCtrl modifiedCdmCtrl) {
+		modifiedNodes.put(modifiedCdmCtrl, null);
+	}
+
+	/**
+	 * Get the files containing the nodes that have been modified in the given loaded CDM, or null
+	 * if that cannot be narrowed down - which includes the case that no modifications were noted
+	 * down at all, as a command might have modified the CDM without telling us
+	 */
+	private static List<File> getModifiedFiles(CdmCtrl modifiedCdmCtrl, File originalDir, List<File> loadedFiles) {
+
+		Set<String> uuids;
+
+		synchronized (modifiedNodes) {
+			uuids = modifiedNodes.get(modifiedCdmCtrl);
+			if (uuids == null) {
+				return null;
+			}
+			uuids = new HashSet<>(uuids);
+		}
+
+		CdmIndex index;
+
+		// for a whole CDM directory, the index kept in it only has to be updated for the files that
+		// changed since it was written - just some files of a CDM are few enough to be scanned as they are
+		try {
+			if (isPartiallyLoaded(modifiedCdmCtrl) || !originalDir.isDirectory()) {
+				index = new CdmIndex(CdmIndexer.indexFiles(loadedFiles, threadCount));
+			} else {
+				index = CdmIndexStore.loadOrBuild(originalDir, threadCount);
+			}
+		} catch (CdmScanningException e) {
+			return null;
+		}
+
+		Set<String> modifiedPaths = new HashSet<>();
+
+		for (String uuid : uuids) {
+			List<CdmElement> elements = index.findByUuid(uuid);
+			if (elements.isEmpty()) {
+				// e.g. a node that was added in memory and has not been saved yet
+				return null;
+			}
+			for (CdmElement element : elements) {
+				modifiedPaths.add(new File(element.getFile().getPath()).getAbsolutePath());
 			}
 		}
+
+		List<File> result = new ArrayList<>();
+
+		for (File loadedFile : loadedFiles) {
+			if (modifiedPaths.contains(loadedFile.getAbsolutePath())) {
+				result.add(loadedFile);
+			}
+		}
+
+		return result;
 	}
 
 	public static void saveToDestinationPath(String destinationPath) {
-	
-		// now actually save the result
+		saveToDestinationPath(cdmCtrl, pathArg, destinationPath);
+	}
+
+	public static void saveToDestinationPath(CdmCtrl cdmCtrlToSave, String sourcePath, String destinationPath) {
+
+		// if saving is deferred, the modified CDM is kept as it is in memory until it is actually saved
+		if ((deferredSaves != null) && ((destinationPath == null) || ("-".equals(destinationPath)))) {
+			deferredSaves.put(cdmCtrlToSave, sourcePath);
+			return;
+		}
+
+		// the loaded CDM is about to be saved (or is at least modified in memory), so if we keep it
+		// around, it must not be handed out again until it is in sync with the disk - unless saves
+		// are deferred, in which case the CDM in memory is the one that counts until it is saved
+		if ((cdmCache != null) && (deferredSaves == null)) {
+			cdmCache.markModified(resolvePath(sourcePath));
+		}
+
+		// the files that the controller was loaded from (if only a part of the CDM was loaded, these
+		// are in the view, but belong into the original CDM)
+		CdmFileView view = fileViews.get(cdmCtrlToSave);
+		File originalDir = (view == null) ? new File(resolvePath(sourcePath)) : view.getBaseDirectory();
+
+		// only the files containing nodes that were modified need to be written again
+		List<File> loadedFiles = getLoadedFiles(cdmCtrlToSave, sourcePath);
+		List<File> modifiedFiles = getModifiedFiles(cdmCtrlToSave, originalDir, loadedFiles);
+
+		// now actually save the result - only the files that were modified are written again
+		// TODO :: do not ignore the target format once we have more than XML available!
 		if ((destinationPath == null) || ("-".equals(destinationPath))) {
 
 			// overwrite the original with the new result
-			// TODO :: do not ignore the target format once we have more than XML available!
-			cdmCtrl.save();
+			CdmProfiler.Phase savePhase = CdmProfiler.start("save");
+			try {
+				CdmSaver.save(cdmCtrlToSave, modifiedFiles, loadedFiles, originalDir, null, threadCount);
+			} catch (IOException e) {
+				System.err.println("The CDM could not be saved: " + e.getMessage());
+				exit(8);
+			} finally {
+				savePhase.end();
+			}
+
+			// the files on disk now contain all the modifications
+			modifiedNodes.remove(cdmCtrlToSave);
+
+			if (cdmCache != null) {
+				cdmCache.markSaved(resolvePath(sourcePath));
+			}
 
 		} else {
 
-			Directory destDir = new Directory(destinationPath);
+			File destDir = new File(resolvePath(destinationPath));
 
 			// complain if the directory is not empty, unless the source and destination are the same
-			if (!pathArg.equals(destinationPath)) {
-				Boolean isEmpty = destDir.isEmpty();
-				if ((isEmpty == null) || !isEmpty) {
+			if (!sourcePath.equals(destinationPath)) {
+				String[] contents = destDir.list();
+				if ((contents != null) && (contents.length > 0)) {
 					System.err.println("The specified destination directory is not empty - please save the conversion result into an empty directory!");
-					System.exit(9);
+					exit(9);
 				}
 			}
 
-			// save the result to the new destination path
-			// TODO :: do not ignore the target format once we have more than XML available!
-			cdmCtrl.saveTo(destDir);
+			// save the result to the new destination path, copying over the files that were not modified
+			CdmProfiler.Phase savePhase = CdmProfiler.start("save");
+			try {
+				CdmSaver.save(cdmCtrlToSave, modifiedFiles, loadedFiles, originalDir, destDir, threadCount);
+			} catch (IOException e) {
+				System.err.println("The CDM could not be saved to " + destinationPath + ": " + e.getMessage());
+				exit(8);
+			} finally {
+				savePhase.end();
+			}
 		}
 	}
 
+	/**
+	 * From now on, only note down which CDMs should be saved in-place instead of saving them right away
+	 */
+	public static void deferSaves() {
+		deferredSaves = new LinkedHashMap<>();
+	}
+
+	/**
+	 * Stop deferring saves, and get the CDMs that should have been saved in the meantime (together
+	 * with their paths) - it is up to the caller to save them
+	 */
+	public static Map<CdmCtrl, String> stopDeferringSaves() {
+		Map<CdmCtrl, String> result = deferredSaves;
+		deferredSaves = null;
+		return result;
+	}
+
+	/**
+	 * Resolve a path given on the commandline against the current working directory
+	 * (which is not necessarily the one of the JVM, e.g. when running in the cdm server)
+	 */
+	public static String resolvePath(String path) {
+
+		if ((path == null) || "-".equals(path) || (workingDirectory == null)) {
+			return path;
+		}
+
+		File file = new File(path);
+
+		if (file.isAbsolute()) {
+			return path;
+		}
+
+		return new File(workingDirectory, path).getPath();
+	}
+
+	public static void setWorkingDirectory(String newWorkingDirectory) {
+		workingDirectory = newWorkingDirectory;
+	}
+
+	public static void setCdmCache(CdmCache newCdmCache) {
+		cdmCache = newCdmCache;
+	}
+
+	public static CdmCache getCdmCache() {
+		return cdmCache;
+	}
+
 	public static CdmCtrl getCdmCtrl() {
 		return cdmCtrl;
 	}
 
+	public static int getThreadCount() {
+		return threadCount;
+	}
+
 	public static Map<String, String> getArgumentMap() {
 		return argumentMap;
 	}
@@ -0,0 +1,126 @@
+/**
+ * Unlicensed code created by A Softer Space, 2019
+ * www.asofterspace.com/licenses/unlicense.txt
+ */
+package com.asofterspace.cdm;
+
+import com.asofterspace.toolbox.utils.NoOpProgressIndicator;
+
+import java.util.Locale;
+
+
+/**
+ * Shows the progress of loading a CDM on System.err, as enabled by the global --progress option,
+ * with the files and megabytes per second and an estimate of the time that is left
+ *
+ * Quick loads stay silent, as the progress is only shown once loading takes longer than a second
+ */
+public class ConsoleProgressIndicator extends NoOpProgressIndicator {
+
+	private final static long QUIET_NANOS = 1000000000L;
+
+	private final static long UPDATE_NANOS = 500000000L;
+
+	private final static double MEGABYTE = 1024 * 1024;
+
+	private String task;
+
+	private int fileAmount;
+
+	private long byteAmount;
+
+	private long startTime;
+
+	private long lastUpdate;
+
+	private boolean shown = false;
+
+
+	/**
+	 * Create a progress indicator for the given task (e.g. loading), which works through the
+	 * given amount of files with the given amount of bytes in total
+	 */
+	public ConsoleProgressIndicator(String task, int fileAmount, long byteAmount) {
+		this.task = task;
+		this.fileAmount = fileAmount;
+		this.byteAmount = byteAmount;
+		this.startTime = System.nanoTime();
+		this.lastUpdate = startTime;
+	}
+
+	@Override
+	public void setNotStarted() {
+		startTime = System.nanoTime();
+		lastUpdate = startTime;
+	}
+
+	@Override
+	public void setProgress(double progress) {
+
+		long now = System.nanoTime();
+
+		if ((now - startTime < QUIET_NANOS) || (now - lastUpdate < UPDATE_NANOS)) {
+			return;
+		}
+
+		lastUpdate = now;
+
+		show(Math.max(0, Math.min(1, progress)), now, false);
+	}
+
+	@Override
+	public void setDone() {
+
+		// if we never said anything, there is no need to say that we are done
+		if (shown) {
+			show(1, System.nanoTime(), true);
+		}
+	}
+
+	private synchronized void show(double progress, long now, boolean done) {
+
+		double seconds = Math.max(0.001, (now - startTime) / 1000000000.0);
+
+		StringBuilder line = new StringBuilder();
+
+		line.append(String.format(Locale.ENGLISH, "\r%s: %3d%% (%d of %d files, %.1f files/s, %.1f MB/s",
+			task, (int) (progress * 100), (int) (progress * fileAmount), fileAmount,
+			(progress * fileAmount) / seconds, (progress * byteAmount) / MEGABYTE / seconds));
+
+		if (done) {
+			line.append(String.format(Locale.ENGLISH, ", took %s)", formatDuration(seconds)));
+		} else if (progress > 0) {
+			line.append(String.format(Locale.ENGLISH, ", %s left)", formatDuration(seconds * (1 - progress) / progress)));
+		} else {
+			line.append(")");
+		}
+
+		// overwrite the previous line, clearing whatever is left of it if it was longer
+		line.append("    ");
+
+		System.err.print(line.toString());
+
+		if (done) {
+			System.err.println();
+		}
+
+		System.err.flush();
+
+		shown = true;
+	}
+
+	private static String formatDuration(double seconds) {
+
+		long total = Math.round(seconds);
+
+		if (total < 60) {
+			return total + " s";
+		}
+
+		if (total < 3600) {
+			return String.format(Locale.ENGLISH, "%d:%02d min", total / 60, total % 60);
+		}
+
+		return String.format(Locale.ENGLISH, "%d:%02d:%02d h", total / 3600, (total / 60) % 60, total % 60);
+	}
+}
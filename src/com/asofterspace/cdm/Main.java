@@ -4,6 +4,8 @@
  */
 package com.asofterspace.cdm;
 
+import com.asofterspace.cdm.commands.Batch;
+import com.asofterspace.cdm.commands.Cache;
 import com.asofterspace.cdm.commands.Compare;
 import com.asofterspace.cdm.commands.Convert;
 import com.asofterspace.cdm.commands.Create;
@@ -11,13 +13,16 @@ import com.asofterspace.cdm.commands.Extract;
 import com.asofterspace.cdm.commands.Find;
 import com.asofterspace.cdm.commands.Help;
 import com.asofterspace.cdm.commands.Info;
+import com.asofterspace.cdm.commands.Interactive;
 import com.asofterspace.cdm.commands.Print;
 import com.asofterspace.cdm.commands.Root;
+import com.asofterspace.cdm.commands.Serve;
 import com.asofterspace.cdm.commands.Tree;
 import com.asofterspace.cdm.commands.Uuid;
 import com.asofterspace.cdm.commands.Validate;
 import com.asofterspace.cdm.commands.Version;
 import com.asofterspace.cdm.commands.VersionForZip;
+import com.asofterspace.cdm.server.CdmClient;
 import com.asofterspace.toolbox.Utils;
 
 
@@ -37,6 +42,12 @@ public class Main {
 
 		// Utils.debuglog("Starting up...");
 
+		// if a cdm server is running, let it do the work, as it might already have our CDM loaded
+		Integer serverExitCode = CdmClient.forward(args);
+		if (serverExitCode != null) {
+			System.exit(serverExitCode);
+		}
+
 		CommandCtrl.register(new Create());
 		CommandCtrl.register(new Convert());
 		CommandCtrl.register(new Compare());
@@ -50,10 +61,12 @@ public class Main {
 		CommandCtrl.register(new Uuid());
 		CommandCtrl.register(new Version());
 		CommandCtrl.register(new VersionForZip());
+		CommandCtrl.register(new Serve());
+		CommandCtrl.register(new Interactive());
+		CommandCtrl.register(new Batch());
+		CommandCtrl.register(new Cache());
 		CommandCtrl.register(new Help());
 
-		// TODO :: add interactive command to have an interactive session...
-
 		// TODO :: add list commands, e.g. list parameters, list activities, list scripts, ...
 
 		// TODO :: add command to automagically fix problems, e.g. when there is a link to a UUID that is in a
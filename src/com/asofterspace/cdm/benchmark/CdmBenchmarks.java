@@ -0,0 +1,528 @@
+/**
+ * Unlicensed code created by A Softer Space, 2019
+ * www.asofterspace.com/licenses/unlicense.txt
+ */
+package com.asofterspace.cdm.benchmark;
+
+import com.asofterspace.cdm.CommandCtrl;
+import com.asofterspace.cdm.Main;
+import com.asofterspace.cdm.generate.CdmGenerator;
+import com.asofterspace.cdm.index.CdmIndex;
+import com.asofterspace.cdm.index.CdmIndexer;
+import com.asofterspace.toolbox.cdm.CdmCtrl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+
+/**
+ * Measures how long the main operations on a CDM take (loading, finding, validating, comparing,
+ * converting and saving), on a generated CDM of a configurable size, and writes the results
+ * to a JSON file, so that they can be compared between versions of the tool
+ *
+ * Run it e.g. as  java -classpath bin com.asofterspace.cdm.benchmark.CdmBenchmarks [-elements <n>] [-files <n>]
+ * [-warmup <n>] [-iterations <n>] [-only <name>,<name>,..] [-o <results.json>]
+ *
+ * Each benchmark is first run a few times without being measured, so that the JIT can do its work,
+ * and then measured several times; what a benchmark needs (e.g. a loaded CDM) is prepared
+ * before each run and does not count towards its time
+ */
+public class CdmBenchmarks {
+
+	private final static long SEED = 20191122;
+
+	private final static int THREADS = Runtime.getRuntime().availableProcessors();
+
+	private int elementAmount = 10000;
+
+	private int fileAmount = 10;
+
+	private int warmupIterations = 2;
+
+	private int iterations = 5;
+
+	private List<String> only = null;
+
+	private String resultPath = "benchmark_results.json";
+
+	private CdmGenerator generator;
+
+	private File cdmDir;
+
+	private File changedCdmDir;
+
+	private File scratchDir;
+
+	// results of the benchmarked calls end up in here, so that the JIT cannot skip the calls
+	private static volatile long sink = 0;
+
+
+	public static void main(String[] args) throws Exception {
+
+		CdmBenchmarks benchmarks = new CdmBenchmarks();
+
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			switch (args[i]) {
+				case "-elements":
+					benchmarks.elementAmount = Integer.parseInt(args[i + 1]);
+					break;
+				case "-files":
+					benchmarks.fileAmount = Integer.parseInt(args[i + 1]);
+					break;
+				case "-warmup":
+					benchmarks.warmupIterations = Integer.parseInt(args[i + 1]);
+					break;
+				case "-iterations":
+					benchmarks.iterations = Math.max(1, Integer.parseInt(args[i + 1]));
+					break;
+				case "-only":
+					benchmarks.only = Arrays.asList(args[i + 1].split(","));
+					break;
+				case "-o":
+					benchmarks.resultPath = args[i + 1];
+					break;
+				default:
+					System.err.println("The argument '" + args[i] + "' was not understood.");
+					System.exit(4);
+			}
+		}
+
+		benchmarks.run();
+	}
+
+	private void run() throws Exception {
+
+		Path tempDir = Files.createTempDirectory("cdm_benchmark");
+
+		try {
+			prepareCdms(tempDir.toFile());
+
+			List<Result> results = new ArrayList<>();
+
+			for (Benchmark benchmark : getBenchmarks()) {
+
+				if ((only != null) && !only.contains(benchmark.name)) {
+					continue;
+				}
+
+				System.out.print(benchmark.name + " .. ");
+				System.out.flush();
+
+				Result result = measure(benchmark);
+				results.add(result);
+
+				System.out.println(String.format(Locale.ENGLISH, "%.2f ms (min %.2f ms, max %.2f ms)",
+					result.getMean(), result.getMin(), result.getMax()));
+			}
+
+			writeResults(results);
+
+			System.out.println("The results have been written to " + resultPath);
+
+		} finally {
+			deleteRecursively(tempDir);
+		}
+	}
+
+	/**
+	 * Generate the CDM to measure with, as well as a slightly changed copy of it to compare it to
+	 */
+	private void prepareCdms(File tempDir) throws Exception {
+
+		String version = CdmCtrl.getHighestKnownCdmVersion();
+		String prefix = CdmCtrl.getPrefixForVersion(version);
+
+		cdmDir = new File(tempDir, "cdm");
+		changedCdmDir = new File(tempDir, "changed");
+		scratchDir = new File(tempDir, "scratch");
+
+		generator = new CdmGenerator(elementAmount, fileAmount, SEED);
+
+		System.out.println("Generating a CDM with " + elementAmount + " elements in " + fileAmount + " files...");
+
+		// the generated files are added to a fresh CDM, so that everything else a CDM needs is there
+		new CdmCtrl().createNewCdm(cdmDir.getAbsolutePath(), version, prefix, CdmCtrl.getTemplates().get(0));
+		generator.generate(cdmDir, version, prefix);
+
+		// the changed copy has the same elements, but one of them has been renamed
+		copyDirectory(cdmDir, changedCdmDir);
+		for (File changedFile : changedCdmDir.listFiles()) {
+			String content = new String(Files.readAllBytes(changedFile.toPath()), StandardCharsets.UTF_8);
+			String changed = content.replace("name=\"" + generator.getSampleName() + "\"", "name=\"Renamed\"");
+			if (!changed.equals(content)) {
+				Files.write(changedFile.toPath(), changed.getBytes(StandardCharsets.UTF_8));
+			}
+		}
+	}
+
+	private List<Benchmark> getBenchmarks() {
+
+		List<Benchmark> result = new ArrayList<>();
+
+		result.add(new Benchmark("loadFull") {
+			void run() {
+				CdmCtrl cdmCtrl = load(cdmDir, true);
+				sink += cdmCtrl.hashCode();
+			}
+		});
+
+		result.add(new Benchmark("loadFaster") {
+			void run() {
+				CdmCtrl cdmCtrl = load(cdmDir, false);
+				sink += cdmCtrl.hashCode();
+			}
+		});
+
+		// the index that the find and query commands use where they can, instead of the full model
+		result.add(new Benchmark("indexDirectory") {
+			void run() throws Exception {
+				sink += CdmIndexer.indexDirectory(cdmDir, THREADS).getElementAmount();
+			}
+		});
+
+		result.add(new Benchmark("indexFindByUuid") {
+			private CdmIndex index;
+
+			void setUp() throws Exception {
+				if (index == null) {
+					index = CdmIndexer.indexDirectory(cdmDir, THREADS);
+				}
+			}
+
+			void run() {
+				sink += index.findByUuid(generator.getSampleUuid()).size();
+			}
+		});
+
+		result.add(new LoadedBenchmark("findByUuid") {
+			void run() {
+				sink += cdmCtrl.findByUuid(generator.getSampleUuid()).size();
+			}
+		});
+
+		result.add(new LoadedBenchmark("findByName") {
+			void run() {
+				sink += cdmCtrl.findByName(generator.getSampleName()).size();
+			}
+		});
+
+		result.add(new LoadedBenchmark("findByPath") {
+			void run() {
+				sink += cdmCtrl.findByPath(generator.getSamplePath()).size();
+			}
+		});
+
+		result.add(new LoadedBenchmark("findByType") {
+			void run() {
+				sink += cdmCtrl.findByType(CdmGenerator.MCE_TYPE).size();
+			}
+		});
+
+		result.add(new LoadedBenchmark("findByXmlTag") {
+			void run() {
+				sink += cdmCtrl.findByXmlTag(CdmGenerator.MCE_TAG).size();
+			}
+		});
+
+		result.add(new LoadedBenchmark("checkValidity") {
+			void run() {
+				sink += cdmCtrl.checkValidity(new ArrayList<String>());
+			}
+		});
+
+		result.add(new LoadedBenchmark("findDifferencesFrom") {
+			private CdmCtrl changedCdmCtrl;
+
+			void setUp() throws Exception {
+				super.setUp();
+				if (changedCdmCtrl == null) {
+					changedCdmCtrl = load(changedCdmDir, true);
+				}
+			}
+
+			void run() {
+				sink += changedCdmCtrl.findDifferencesFrom(cdmCtrl).size();
+			}
+		});
+
+		result.add(new Benchmark("convertTo") {
+			private CdmCtrl cdmCtrl;
+
+			// converting changes the CDM, so each run gets a freshly loaded one
+			void setUp() {
+				cdmCtrl = load(cdmDir, true);
+			}
+
+			void run() {
+				String toVersion = getOtherVersion(cdmCtrl.getCdmVersion());
+				cdmCtrl.convertTo(toVersion, CdmCtrl.getPrefixForVersion(toVersion));
+				sink += cdmCtrl.hashCode();
+			}
+		});
+
+		result.add(new Benchmark("save") {
+			private CdmCtrl cdmCtrl;
+
+			// saving overwrites the files, so each run works on a fresh copy of the CDM
+			void setUp() throws Exception {
+				deleteRecursively(scratchDir.toPath());
+				copyDirectory(cdmDir, scratchDir);
+				cdmCtrl = load(scratchDir, true);
+			}
+
+			void run() {
+				cdmCtrl.save();
+			}
+		});
+
+		return result;
+	}
+
+	/**
+	 * Load the CDM in the given directory, stopping the benchmarks if that does not work
+	 * (as they would otherwise measure nothing at all)
+	 */
+	private static CdmCtrl load(File dir, boolean loadFullModel) {
+
+		CdmCtrl result = new CdmCtrl();
+
+		if (!CommandCtrl.loadCdm(dir.getAbsolutePath(), loadFullModel, result, false)) {
+			throw new IllegalStateException("The CDM in " + dir + " could not be loaded!");
+		}
+
+		return result;
+	}
+
+	private static String getOtherVersion(String version) {
+		for (String knownVersion : CdmCtrl.getKnownCdmVersions()) {
+			if (!knownVersion.equals(version)) {
+				return knownVersion;
+			}
+		}
+		return version;
+	}
+
+	private Result measure(Benchmark benchmark) throws Exception {
+
+		for (int i = 0; i < warmupIterations; i++) {
+			benchmark.setUp();
+			benchmark.run();
+		}
+
+		Result result = new Result(benchmark.name);
+
+		for (int i = 0; i < iterations; i++) {
+			benchmark.setUp();
+			long start = System.nanoTime();
+			benchmark.run();
+			result.add(System.nanoTime() - start);
+		}
+
+		return result;
+	}
+
+	private void writeResults(List<Result> results) throws IOException {
+
+		try (Writer out = new OutputStreamWriter(new FileOutputStream(resultPath), StandardCharsets.UTF_8)) {
+
+			out.write("{\n");
+			out.write("  \"version\": " + quote(Main.VERSION_NUMBER) + ",\n");
+			out.write("  \"java\": " + quote(System.getProperty("java.version")) + ",\n");
+			out.write("  \"elements\": " + elementAmount + ",\n");
+			out.write("  \"files\": " + fileAmount + ",\n");
+			out.write("  \"warmupIterations\": " + warmupIterations + ",\n");
+			out.write("  \"iterations\": " + iterations + ",\n");
+			out.write("  \"results\": [");
+
+			for (int i = 0; i < results.size(); i++) {
+				Result result = results.get(i);
+				out.write((i == 0) ? "\n" : ",\n");
+				out.write("    {\"benchmark\": " + quote(result.name));
+				out.write(String.format(Locale.ENGLISH, ", \"meanMs\": %.3f, \"medianMs\": %.3f, \"minMs\": %.3f, \"maxMs\": %.3f, \"stdDevMs\": %.3f",
+					result.getMean(), result.getMedian(), result.getMin(), result.getMax(), result.getStdDev()));
+				out.write(", \"samplesMs\": [");
+				for (int s = 0; s < result.samples.size(); s++) {
+					if (s > 0) {
+						out.write(", ");
+					}
+					out.write(String.format(Locale.ENGLISH, "%.3f", result.samples.get(s)));
+				}
+				out.write("]}");
+			}
+
+			out.write("\n  ]\n");
+			out.write("}\n");
+		}
+	}
+
+	private static String quote(String str) {
+
+		if (str == null) {
+			return "null";
+		}
+
+		StringBuilder result = new StringBuilder("\"");
+
+		for (char c : str.toCharArray()) {
+			if ((c == '"') || (c == '\\')) {
+				result.append('\\');
+				result.append(c);
+			} else if (c < ' ') {
+				result.append(String.format("\\u%04x", (int) c));
+			} else {
+				result.append(c);
+			}
+		}
+
+		result.append('"');
+
+		return result.toString();
+	}
+
+	private static void copyDirectory(File from, final File to) throws IOException {
+
+		final Path fromPath = from.toPath();
+
+		Files.walkFileTree(fromPath, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				Files.createDirectories(to.toPath().resolve(fromPath.relativize(dir).toString()));
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.copy(file, to.toPath().resolve(fromPath.relativize(file).toString()));
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	private static void deleteRecursively(Path dir) throws IOException {
+
+		if (!Files.exists(dir)) {
+			return;
+		}
+
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+
+	private abstract static class Benchmark {
+
+		protected String name;
+
+
+		public Benchmark(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * Prepare the next run (which does not count towards the time of the benchmark)
+		 */
+		void setUp() throws Exception {
+		}
+
+		abstract void run() throws Exception;
+	}
+
+
+	/**
+	 * A benchmark that works on the loaded CDM without changing it, so it is only loaded once
+	 */
+	private abstract class LoadedBenchmark extends Benchmark {
+
+		protected CdmCtrl cdmCtrl;
+
+
+		public LoadedBenchmark(String name) {
+			super(name);
+		}
+
+		@Override
+		void setUp() throws Exception {
+			if (cdmCtrl == null) {
+				cdmCtrl = load(cdmDir, true);
+			}
+		}
+	}
+
+
+	private static class Result {
+
+		private String name;
+
+		// the duration of each measured run, in milliseconds
+		private List<Double> samples = new ArrayList<>();
+
+
+		public Result(String name) {
+			this.name = name;
+		}
+
+		public void add(long nanos) {
+			samples.add(nanos / 1000000.0);
+		}
+
+		public double getMean() {
+			double sum = 0;
+			for (double sample : samples) {
+				sum += sample;
+			}
+			return sum / samples.size();
+		}
+
+		public double getMedian() {
+			List<Double> sorted = new ArrayList<>(samples);
+			Collections.sort(sorted);
+			int middle = sorted.size() / 2;
+			if (sorted.size() % 2 == 0) {
+				return (sorted.get(middle - 1) + sorted.get(middle)) / 2;
+			}
+			return sorted.get(middle);
+		}
+
+		public double getMin() {
+			return Collections.min(samples);
+		}
+
+		public double getMax() {
+			return Collections.max(samples);
+		}
+
+		public double getStdDev() {
+			double mean = getMean();
+			double sum = 0;
+			for (double sample : samples) {
+				sum += (sample - mean) * (sample - mean);
+			}
+			return Math.sqrt(sum / samples.size());
+		}
+	}
+}
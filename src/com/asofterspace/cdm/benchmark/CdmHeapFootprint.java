@@ -0,0 +1,140 @@
+/**
+ * Unlicensed code created by A Softer Space, 2019
+ * www.asofterspace.com/licenses/unlicense.txt
+ */
+package com.asofterspace.cdm.benchmark;
+
+import com.asofterspace.cdm.exceptions.CdmScanningException;
+import com.asofterspace.cdm.index.CdmElement;
+import com.asofterspace.cdm.index.CdmFileIndex;
+import com.asofterspace.cdm.index.CdmIndex;
+import com.asofterspace.cdm.index.CdmIndexer;
+import com.asofterspace.cdm.index.CdmSymbols;
+import com.asofterspace.toolbox.cdm.CdmCtrl;
+import com.asofterspace.toolbox.cdm.exceptions.AttemptingEmfException;
+import com.asofterspace.toolbox.cdm.exceptions.CdmLoadingException;
+import com.asofterspace.toolbox.io.Directory;
+import com.asofterspace.toolbox.utils.NoOpProgressIndicator;
+
+import java.io.File;
+import java.util.List;
+
+
+/**
+ * Measures how much heap a loaded CDM takes up, compared to the size of its files - for the
+ * CDM index, and optionally also for the full CDM model
+ *
+ * Run it e.g. as  java -classpath bin com.asofterspace.cdm.benchmark.CdmHeapFootprint [-j <threads>] [--model] <cdmPath>
+ * (ideally with the same -Xmx as the cdm command itself, and with nothing else running in the JVM)
+ */
+public class CdmHeapFootprint {
+
+	private final static double MEGABYTE = 1024 * 1024;
+
+
+	public static void main(String[] args) throws CdmScanningException, AttemptingEmfException, CdmLoadingException {
+
+		int threads = Runtime.getRuntime().availableProcessors();
+		boolean measureModel = false;
+		String cdmPath = null;
+
+		for (int i = 0; i < args.length; i++) {
+			if ("-j".equals(args[i]) && (i + 1 < args.length)) {
+				threads = Integer.parseInt(args[++i]);
+			} else if ("--model".equals(args[i])) {
+				measureModel = true;
+			} else {
+				cdmPath = args[i];
+			}
+		}
+
+		if (cdmPath == null) {
+			System.err.println("Please specify the directory of the CDM that should be measured.");
+			System.exit(4);
+		}
+
+		File cdmDir = new File(cdmPath);
+
+		List<File> cdmFiles = CdmIndexer.getCdmFiles(cdmDir);
+		long fileSize = 0;
+		for (File cdmFile : cdmFiles) {
+			fileSize += cdmFile.length();
+		}
+
+		System.out.println("CDM: " + cdmFiles.size() + " files with " + format(fileSize) + " MB");
+
+		long before = getUsedHeap();
+		CdmIndex index = CdmIndexer.indexDirectory(cdmDir, threads);
+		long indexHeap = getUsedHeap() - before;
+
+		int elementAmount = 0;
+		int uuidAmount = 0;
+		int packedAmount = 0;
+
+		for (CdmFileIndex file : index.getFiles()) {
+			for (CdmElement element : file.getElements()) {
+				elementAmount++;
+				if (element.getPackedUuid() != null) {
+					uuidAmount++;
+					if (element.getPackedUuid().isPacked()) {
+						packedAmount++;
+					}
+				}
+			}
+		}
+
+		System.out.println("Index: " + format(indexHeap) + " MB of heap, which is " + ratio(indexHeap, fileSize) +
+			" times the file size, or " + (indexHeap / Math.max(1, elementAmount)) + " bytes per element");
+		System.out.println("  " + elementAmount + " elements, " + uuidAmount + " UUIDs of which " + packedAmount +
+			" are packed into two longs, " + CdmSymbols.size() + " shared tags and types");
+
+		if (!measureModel) {
+			return;
+		}
+
+		// drop the index, so that it does not count towards the model
+		index = null;
+
+		before = getUsedHeap();
+		CdmCtrl cdmCtrl = new CdmCtrl();
+		cdmCtrl.loadCdmDirectory(new Directory(cdmDir.getPath()), new NoOpProgressIndicator());
+		long modelHeap = getUsedHeap() - before;
+
+		System.out.println("Model: " + format(modelHeap) + " MB of heap, which is " + ratio(modelHeap, fileSize) +
+			" times the file size (CDM version " + cdmCtrl.getCdmVersion() + ")");
+	}
+
+	/**
+	 * Get the amount of heap that is in use after collecting as much garbage as we can
+	 */
+	private static long getUsedHeap() {
+
+		Runtime runtime = Runtime.getRuntime();
+		long result = Long.MAX_VALUE;
+
+		// one call to gc is just a suggestion, so keep asking until the used heap no longer shrinks
+		for (int i = 0; i < 10; i++) {
+			System.gc();
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+				break;
+			}
+			long used = runtime.totalMemory() - runtime.freeMemory();
+			if (used >= result) {
+				break;
+			}
+			result = used;
+		}
+
+		return result;
+	}
+
+	private static String format(long bytes) {
+		return String.format("%.1f", bytes / MEGABYTE);
+	}
+
+	private static String ratio(long heapBytes, long fileBytes) {
+		return String.format("%.1f", heapBytes / (double) Math.max(1, fileBytes));
+	}
+}
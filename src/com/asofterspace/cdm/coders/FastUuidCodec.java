@@ -0,0 +1,260 @@
+/**
+ * Unlicensed code created by A Softer Space, 2019
+ * www.asofterspace.com/licenses/unlicense.txt
+ */
+package com.asofterspace.cdm.coders;
+
+import com.asofterspace.toolbox.coders.ConversionException;
+import com.asofterspace.toolbox.coders.UuidEncoderDecoder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+
+/**
+ * Converts UUIDs between their Java form (e.g. 0c2d4a5e-...) and their Ecore form (e.g. _DC1KXl...)
+ * directly on bytes, without creating any objects, so that millions of UUIDs can be converted
+ * per second
+ *
+ * The results are the same as the ones of the UuidEncoderDecoder - which is checked once by
+ * isCompatible(), and if that ever fails (e.g. because the toolbox changes its encoding), the
+ * UuidEncoderDecoder should be used instead
+ *
+ * A codec holds the UUID that was decoded (or generated) last, so each thread needs its own one
+ */
+public class FastUuidCodec {
+
+	public final static int JAVA_LENGTH = 36;
+
+	public final static int ECORE_LENGTH = 23;
+
+	private final static byte ECORE_START = '_';
+
+	private final static byte[] BASE64 =
+		"ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".getBytes(StandardCharsets.US_ASCII);
+
+	private final static byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+	// the value of each character in the alphabets above, or -1 for characters that are not in there
+	private final static int[] BASE64_VALUES = new int[128];
+	private final static int[] HEX_VALUES = new int[128];
+
+	static {
+		for (int i = 0; i < 128; i++) {
+			BASE64_VALUES[i] = -1;
+			HEX_VALUES[i] = -1;
+		}
+		for (int i = 0; i < BASE64.length; i++) {
+			BASE64_VALUES[BASE64[i]] = i;
+		}
+		for (int i = 0; i < HEX.length; i++) {
+			HEX_VALUES[HEX[i]] = i;
+			HEX_VALUES[Character.toUpperCase(HEX[i])] = i;
+		}
+	}
+
+	private long high;
+
+	private long low;
+
+
+	/**
+	 * Check (with a few random UUIDs) that this codec gives exactly the same results as the
+	 * UuidEncoderDecoder
+	 */
+	public static boolean isCompatible() {
+
+		FastUuidCodec codec = new FastUuidCodec();
+		byte[] buffer = new byte[JAVA_LENGTH];
+
+		try {
+			for (int i = 0; i < 32; i++) {
+
+				UUID uuid = UUID.randomUUID();
+				String javaUuid = uuid.toString();
+				String ecoreUuid = UuidEncoderDecoder.ensureUUIDisEcore(javaUuid);
+
+				if ((ecoreUuid == null) || !codec.decodeJava(javaUuid.getBytes(StandardCharsets.US_ASCII), 0, javaUuid.length())) {
+					return false;
+				}
+				if (!ecoreUuid.equals(new String(buffer, 0, codec.encodeEcore(buffer, 0), StandardCharsets.US_ASCII))) {
+					return false;
+				}
+
+				if (!codec.decodeEcore(ecoreUuid.getBytes(StandardCharsets.US_ASCII), 0, ecoreUuid.length())) {
+					return false;
+				}
+				if (!javaUuid.equals(UuidEncoderDecoder.convertEcoreUUIDtoJava(ecoreUuid))) {
+					return false;
+				}
+				if (!javaUuid.equals(new String(buffer, 0, codec.encodeJava(buffer, 0), StandardCharsets.US_ASCII))) {
+					return false;
+				}
+			}
+		} catch (ConversionException e) {
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Decode a Java UUID from the given bytes, returning false if they are not one
+	 */
+	public boolean decodeJava(byte[] in, int offset, int length) {
+
+		if (length != JAVA_LENGTH) {
+			return false;
+		}
+
+		long newHigh = 0;
+		long newLow = 0;
+		int digits = 0;
+
+		for (int i = offset; i < offset + length; i++) {
+
+			int c = in[i];
+
+			if ((i - offset == 8) || (i - offset == 13) || (i - offset == 18) || (i - offset == 23)) {
+				if (c != '-') {
+					return false;
+				}
+				continue;
+			}
+
+			int value = ((c & 0x80) == 0) ? HEX_VALUES[c] : -1;
+
+			if (value < 0) {
+				return false;
+			}
+
+			if (digits < 16) {
+				newHigh = (newHigh << 4) | value;
+			} else {
+				newLow = (newLow << 4) | value;
+			}
+			digits++;
+		}
+
+		high = newHigh;
+		low = newLow;
+
+		return true;
+	}
+
+	/**
+	 * Decode an Ecore UUID from the given bytes, returning false if they are not one
+	 */
+	public boolean decodeEcore(byte[] in, int offset, int length) {
+
+		if ((length != ECORE_LENGTH) || (in[offset] != ECORE_START)) {
+			return false;
+		}
+
+		// 22 characters of 6 bits each are 132 bits, the last 4 of which are just padding
+		long newHigh = 0;
+		long newLow = 0;
+
+		for (int i = 0; i < ECORE_LENGTH - 1; i++) {
+
+			int c = in[offset + 1 + i];
+			int value = ((c & 0x80) == 0) ? BASE64_VALUES[c] : -1;
+
+			if (value < 0) {
+				return false;
+			}
+
+			for (int bit = 5; bit >= 0; bit--) {
+				int bitPos = (i * 6) + (5 - bit);
+				long bitValue = (value >> bit) & 1;
+				if (bitPos < 64) {
+					newHigh |= bitValue << (63 - bitPos);
+				} else if (bitPos < 128) {
+					newLow |= bitValue << (127 - bitPos);
+				} else if (bitValue != 0) {
+					// the padding must be empty, or encoding would not give the same UUID back
+					return false;
+				}
+			}
+		}
+
+		high = newHigh;
+		low = newLow;
+
+		return true;
+	}
+
+	/**
+	 * Write the current UUID in its Java form into the given buffer at the given offset,
+	 * returning the offset right behind it
+	 */
+	public int encodeJava(byte[] out, int offset) {
+
+		int pos = offset;
+
+		for (int digit = 0; digit < 32; digit++) {
+
+			if ((digit == 8) || (digit == 12) || (digit == 16) || (digit == 20)) {
+				out[pos++] = '-';
+			}
+
+			long half = (digit < 16) ? high : low;
+			int shift = 60 - ((digit % 16) * 4);
+			out[pos++] = HEX[(int) ((half >>> shift) & 0xF)];
+		}
+
+		return pos;
+	}
+
+	/**
+	 * Write the current UUID in its Ecore form into the given buffer at the given offset,
+	 * returning the offset right behind it
+	 */
+	public int encodeEcore(byte[] out, int offset) {
+
+		int pos = offset;
+
+		out[pos++] = ECORE_START;
+
+		for (int i = 0; i < ECORE_LENGTH - 1; i++) {
+
+			int value = 0;
+
+			for (int bit = 0; bit < 6; bit++) {
+				int bitPos = (i * 6) + bit;
+				long bitValue;
+				if (bitPos < 64) {
+					bitValue = (high >>> (63 - bitPos)) & 1;
+				} else if (bitPos < 128) {
+					bitValue = (low >>> (127 - bitPos)) & 1;
+				} else {
+					bitValue = 0;
+				}
+				value = (value << 1) | (int) bitValue;
+			}
+
+			out[pos++] = BASE64[value];
+		}
+
+		return pos;
+	}
+
+	/**
+	 * Make the current UUID a new random (version 4) one, taking the randomness from the 16
+	 * bytes at the given offset
+	 */
+	public void setRandom(byte[] randomBytes, int offset) {
+
+		long newHigh = 0;
+		long newLow = 0;
+
+		for (int i = 0; i < 8; i++) {
+			newHigh = (newHigh << 8) | (randomBytes[offset + i] & 0xFF);
+			newLow = (newLow << 8) | (randomBytes[offset + 8 + i] & 0xFF);
+		}
+
+		// set the version to 4 (random) and the variant to the one of RFC 4122, just like UUID.randomUUID()
+		high = (newHigh & 0xFFFFFFFFFFFF0FFFL) | 0x0000000000004000L;
+		low = (newLow & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+	}
+}
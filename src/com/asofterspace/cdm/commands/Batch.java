@@ -0,0 +1,221 @@
+/**
+ * Unlicensed code created by A Softer Space, 2019
+ * www.asofterspace.com/licenses/unlicense.txt
+ */
+package com.asofterspace.cdm.commands;
+
+import com.asofterspace.cdm.CdmCache;
+import com.asofterspace.cdm.CommandCtrl;
+import com.asofterspace.cdm.interfaces.Command;
+import com.asofterspace.toolbox.cdm.CdmCtrl;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+
+public class Batch implements Command {
+
+	private final String HELP_BATCH = "batch [-k] <scriptFile|-> .. runs the commands in the script (one per line) one after the other";
+
+	private final static String OPTION_KEEP_GOING = "-k";
+
+	// commands that would need a session of their own, so they cannot be part of a batch
+	private final static List<String> UNBATCHABLE_COMMANDS = Arrays.asList("batch", "interactive", "serve");
+
+
+	@Override
+	public String getName() {
+		return "batch";
+	}
+
+	@Override
+	public void execute() {
+
+		CommandCtrl.useArgTokensWithOnePath();
+
+		if (CommandCtrl.getPathArg() == null) {
+			System.err.println("You called  cdm batch  but did not specify a script file (or - to read the script from the input) - please do.");
+			CommandCtrl.exit(4);
+		}
+
+		boolean keepGoing = false;
+
+		for (String argument : CommandCtrl.getArgumentList()) {
+			if (OPTION_KEEP_GOING.equalsIgnoreCase(argument)) {
+				keepGoing = true;
+			} else {
+				System.err.println("The argument '" + argument + "' was not understood - please check  cdm help batch");
+				CommandCtrl.exit(4);
+			}
+		}
+
+		List<String> script = readScript(CommandCtrl.getPathArg());
+
+		// all CDMs used in the batch stay loaded until it is done, as they may have been modified
+		// in memory and are only saved in the end
+		CdmCache previousCdmCache = CommandCtrl.getCdmCache();
+		CommandCtrl.setCdmCache(new CdmCache(Integer.MAX_VALUE, Long.MAX_VALUE));
+		CommandCtrl.deferSaves();
+
+		List<String> timings = new ArrayList<>();
+		long startTime = System.nanoTime();
+		int failedExitCode = 0;
+
+		// whether all steps were run (or skipped after a failure) without anything escaping from them
+		boolean stepsEnded = false;
+
+		try {
+			for (int i = 0; i < script.size(); i++) {
+
+				String line = script.get(i);
+				List<String> args = CommandCtrl.splitCommandLine(line);
+
+				long stepStart = System.nanoTime();
+				int exitCode;
+
+				if (UNBATCHABLE_COMMANDS.contains(args.get(0).toLowerCase())) {
+					System.err.println("The command  " + args.get(0) + "  cannot be used within  cdm batch.");
+					exitCode = 4;
+				} else {
+					exitCode = CommandCtrl.executeCommandInSession(args.toArray(new String[args.size()]));
+				}
+
+				System.out.flush();
+
+				String timing = "step " + (i + 1) + ": " + millisSince(stepStart) + " ms .. " + line;
+
+				if (exitCode != 0) {
+					timing += " (exit code " + exitCode + ")";
+					if (failedExitCode == 0) {
+						failedExitCode = exitCode;
+					}
+				}
+
+				timings.add(timing);
+
+				if ((exitCode != 0) && !keepGoing) {
+					System.err.println("Step " + (i + 1) + " of the batch failed, so the remaining steps are skipped and nothing is saved.");
+					break;
+				}
+			}
+
+			stepsEnded = true;
+
+		} finally {
+			Map<CdmCtrl, String> toSave = CommandCtrl.stopDeferringSaves();
+
+			// only save the CDMs that were modified if the batch was a success (or we were told to keep going)
+			if (stepsEnded && ((failedExitCode == 0) || keepGoing)) {
+				for (final Map.Entry<CdmCtrl, String> cdm : toSave.entrySet()) {
+
+					long saveStart = System.nanoTime();
+
+					int exitCode = CommandCtrl.executeInSession(new Runnable() {
+						public void run() {
+							CommandCtrl.saveToDestinationPath(cdm.getKey(), cdm.getValue(), "-");
+						}
+					});
+
+					String timing = "saving " + cdm.getValue() + ": " + millisSince(saveStart) + " ms";
+
+					if (exitCode != 0) {
+						timing += " (exit code " + exitCode + ")";
+						if (failedExitCode == 0) {
+							failedExitCode = exitCode;
+						}
+					}
+
+					timings.add(timing);
+				}
+			}
+
+			CommandCtrl.setCdmCache(previousCdmCache);
+		}
+
+		timings.add("total: " + millisSince(startTime) + " ms");
+
+		System.out.println("Timings:");
+		for (String timing : timings) {
+			System.out.println("  " + timing);
+		}
+
+		if (failedExitCode != 0) {
+			CommandCtrl.exit(failedExitCode);
+		}
+	}
+
+	/**
+	 * Read the lines of the script that contain commands, leaving out empty lines and comments
+	 */
+	private List<String> readScript(String scriptPath) {
+
+		List<String> result = new ArrayList<>();
+
+		try {
+			InputStream in = "-".equals(scriptPath) ? System.in : new FileInputStream(new File(CommandCtrl.resolvePath(scriptPath)));
+
+			BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.startsWith("#") || CommandCtrl.splitCommandLine(line).isEmpty()) {
+					continue;
+				}
+				result.add(line);
+			}
+
+			if (in != System.in) {
+				reader.close();
+			}
+
+		} catch (IOException e) {
+			System.err.println("The script " + scriptPath + " could not be read: " + e.getMessage());
+			CommandCtrl.exit(3);
+		}
+
+		return result;
+	}
+
+	private static long millisSince(long startTime) {
+		return (System.nanoTime() - startTime) / 1000000;
+	}
+
+	@Override
+	public String getShortHelp() {
+		return HELP_BATCH;
+	}
+
+	@Override
+	public List<String> getLongHelp() {
+
+		List<String> result = new ArrayList<>();
+
+		result.add(HELP_BATCH);
+		result.add("");
+		result.add("  Each line of the script is one command, just as it would be given to cdm, e.g.:");
+		result.add("    info ./myCdm");
+		result.add("    root -n NewName ./myCdm");
+		result.add("    find -t MonitoringControlElement ./myCdm");
+		result.add("  Empty lines and lines starting with # are ignored.");
+		result.add("");
+		result.add("  All commands run in the same process, and each CDM is only parsed once and then shared between them.");
+		result.add("  CDMs that are modified by the commands are only saved once, after the last command.");
+		result.add("  In the end, the time that each command (and the saving) took is reported.");
+		result.add("");
+		result.add("  If a command fails, the remaining commands are skipped and nothing is saved, unless -k is given,");
+		result.add("  in which case all commands are run and the modified CDMs are saved anyway; the exit code is the one");
+		result.add("  of the first command that failed.");
+
+		return result;
+	}
+}
@@ -0,0 +1,164 @@
+/**
+ * Unlicensed code created by A Softer Space, 2019
+ * www.asofterspace.com/licenses/unlicense.txt
+ */
+package com.asofterspace.cdm.commands;
+
+import com.asofterspace.cdm.CommandCtrl;
+import com.asofterspace.cdm.Main;
+import com.asofterspace.cdm.interfaces.Command;
+import com.asofterspace.cdm.snapshot.CdmSnapshotStore;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+
+public class Cache implements Command {
+
+	private final String HELP_CACHE = "cache clear|status [<cdmPath>] .. manages the snapshots that let unchanged CDMs be loaded without parsing them";
+
+	private final static double MEGABYTE = 1024 * 1024;
+
+
+	@Override
+	public String getName() {
+		return "cache";
+	}
+
+	@Override
+	public void execute() {
+
+		CommandCtrl.useArgTokensWithOnePath();
+
+		List<String> tokens = CommandCtrl.getArgumentList();
+
+		String action;
+		String cdmPath = null;
+
+		if (tokens.isEmpty()) {
+			action = CommandCtrl.getPathArg();
+		} else {
+			action = tokens.get(0);
+			cdmPath = CommandCtrl.getPathArg();
+		}
+
+		if ((tokens.size() > 1) || !("clear".equals(action) || "status".equals(action))) {
+			System.err.println("You called  cdm cache  but did not say whether to clear it or to show its status - please call  cdm cache clear  or  cdm cache status");
+			CommandCtrl.exit(4);
+		}
+
+		File cdmDir = null;
+
+		if (cdmPath != null) {
+			cdmDir = new File(CommandCtrl.resolvePath(cdmPath));
+			if (!cdmDir.isDirectory()) {
+				System.err.println("The CDM directory " + cdmPath + " does not exist - snapshots are only taken of CDM directories.");
+				CommandCtrl.exit(4);
+			}
+		}
+
+		CdmSnapshotStore store = new CdmSnapshotStore(CdmSnapshotStore.getDefaultDirectory(), Main.VERSION_NUMBER,
+			CdmSnapshotStore.DEFAULT_MAX_TOTAL_SIZE);
+
+		if ("clear".equals(action)) {
+			clear(store, cdmDir, cdmPath);
+		} else {
+			showStatus(store, cdmDir, cdmPath);
+		}
+	}
+
+	private void clear(CdmSnapshotStore store, File cdmDir, String cdmPath) {
+
+		int deleted = store.clear(cdmDir);
+
+		// when running in the cdm server, the CDMs it keeps loaded are forgotten as well
+		if (CommandCtrl.getCdmCache() != null) {
+			if (cdmPath == null) {
+				CommandCtrl.getCdmCache().clear();
+			} else {
+				CommandCtrl.getCdmCache().invalidate(CommandCtrl.resolvePath(cdmPath));
+			}
+		}
+
+		System.out.println("Deleted " + deleted + " snapshot" + ((deleted == 1) ? "" : "s") + ".");
+	}
+
+	private void showStatus(CdmSnapshotStore store, File cdmDir, String cdmPath) {
+
+		System.out.println("Snapshot directory: " + store.getDirectory());
+
+		if (!CdmSnapshotStore.isSupported()) {
+			System.out.println("The CDM model of this toolbox version cannot be serialized, so no snapshots are taken - CDMs are always parsed.");
+		} else if (System.getenv("CDM_NO_SNAPSHOTS") != null) {
+			System.out.println("Snapshots are disabled, as the environment variable CDM_NO_SNAPSHOTS is set.");
+		}
+
+		List<CdmSnapshotStore.Status> statuses = store.getStatus(cdmDir);
+
+		if (statuses.isEmpty()) {
+			if (cdmPath == null) {
+				System.out.println("There are no snapshots.");
+			} else {
+				System.out.println("There is no snapshot of the CDM " + cdmPath + ".");
+			}
+			return;
+		}
+
+		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.ENGLISH);
+
+		long totalSize = 0;
+
+		System.out.println("");
+
+		for (CdmSnapshotStore.Status status : statuses) {
+
+			totalSize += status.getSize();
+
+			if (status.getCdmDir() == null) {
+				System.out.println("* " + status.getSnapshotFile().getName() + " .. taken by another version of the cdm tool, will not be used");
+				continue;
+			}
+
+			System.out.println("* " + status.getCdmDir());
+			System.out.println("  " + (status.isUpToDate() ? "up to date" : "outdated, as the CDM files have changed") + ", " +
+				(status.isFullModel() ? "full model" : "faster model") + ", " + status.getFileAmount() + " files, " +
+				String.format(Locale.ENGLISH, "%.1f MB", status.getSize() / MEGABYTE) + ", taken " +
+				dateFormat.format(new Date(status.getCreatedAt())));
+		}
+
+		System.out.println("");
+		System.out.println(statuses.size() + " snapshot" + ((statuses.size() == 1) ? "" : "s") + ", " +
+			String.format(Locale.ENGLISH, "%.1f MB", totalSize / MEGABYTE) + " in total");
+	}
+
+	@Override
+	public String getShortHelp() {
+		return HELP_CACHE;
+	}
+
+	@Override
+	public List<String> getLongHelp() {
+
+		List<String> result = new ArrayList<>();
+
+		result.add(HELP_CACHE);
+		result.add("");
+		result.add("  Whenever a CDM directory has been loaded, a binary snapshot of the loaded model is kept, together");
+		result.add("  with the paths, sizes and hashes of its files. As long as none of the files change, the next load");
+		result.add("  restores the model from the snapshot instead of parsing the XML again.");
+		result.add("");
+		result.add("  clear .. deletes all snapshots, or just the one of the given CDM");
+		result.add("  status .. shows which CDMs have snapshots, whether they are up to date and how large they are");
+		result.add("");
+		result.add("  The snapshots are kept in .cdm/snapshots in the home directory, or in the directory given by the");
+		result.add("  environment variable CDM_SNAPSHOT_DIR; the ones used least recently are thrown out once they take");
+		result.add("  up more than 2 GB. Set the environment variable CDM_NO_SNAPSHOTS to neither take nor use snapshots.");
+		result.add("  Snapshots can only be taken if the CDM model of the toolbox in use can be serialized.");
+
+		return result;
+	}
+}
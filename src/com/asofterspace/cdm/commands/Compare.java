@@ -5,15 +5,37 @@
 package com.asofterspace.cdm.commands;
 
 import com.asofterspace.cdm.CommandCtrl;
+import com.asofterspace.cdm.compare.CdmExternalCompare;
+import com.asofterspace.cdm.exceptions.CdmScanningException;
+import com.asofterspace.cdm.index.CdmFileIndex;
+import com.asofterspace.cdm.index.CdmIndex;
 import com.asofterspace.cdm.interfaces.Command;
 import com.asofterspace.toolbox.cdm.CdmCtrl;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 public class Compare implements Command {
 
-	private final String HELP_COMPARE = "compare <leftCdmPath> <rightCdmPath> .. compares the CDMs";
+	private final String HELP_COMPARE = "compare [--external [-m <maxMemoryInMB>]] <leftCdmPath> <rightCdmPath> .. compares the CDMs";
 
 
 	@Override
@@ -24,30 +46,97 @@ public class Compare implements Command {
 	@Override
 	public void execute() {
 
-		CommandCtrl.useArgListWithTwoPaths();
+		CommandCtrl.useArgTokensWithTwoPaths();
 
 		if (CommandCtrl.getPathArg() == null) {
 			System.err.println("You called  cdm compare  but did not specify any CDM path of the CDMs that should be validated - please do.");
-			System.exit(4);
+			CommandCtrl.exit(4);
 		}
 		
 		if (CommandCtrl.getOtherPathArg() == null) {
 			System.err.println("You called  cdm compare  but did not specify a second CDM path of the second CDM that should be compared to the first one - please do.");
-			System.exit(4);
+			CommandCtrl.exit(4);
+		}
+
+		boolean external = false;
+		long memoryBudget = Runtime.getRuntime().maxMemory() / 4;
+
+		List<String> arguments = CommandCtrl.getArgumentList();
+
+		for (int i = 0; i < arguments.size(); i++) {
+			String argument = arguments.get(i).toLowerCase();
+			if ("--external".equals(argument)) {
+				external = true;
+			} else if ("-m".equals(argument) && (i + 1 < arguments.size())) {
+				i++;
+				try {
+					memoryBudget = Long.parseLong(arguments.get(i)) * 1024 * 1024;
+				} catch (NumberFormatException e) {
+					System.err.println("The memory budget '" + arguments.get(i) + "' is not a number of megabytes.");
+					CommandCtrl.exit(4);
+				}
+			} else {
+				System.err.println("The argument '" + arguments.get(i) + "' was not understood - please check  cdm help compare");
+				CommandCtrl.exit(4);
+			}
+		}
+
+		if (external) {
+			compareExternally(memoryBudget);
+			return;
+		}
+
+		CdmCtrl cdmCtrl = null;
+
+		CdmCtrl otherCdmCtrl = null;
+
+		File cdmDir = new File(CommandCtrl.resolvePath(CommandCtrl.getPathArg()));
+		File otherCdmDir = new File(CommandCtrl.resolvePath(CommandCtrl.getOtherPathArg()));
+
+		// when the CDMs are kept loaded anyway, we just compare the loaded ones - but otherwise,
+		// we only load the files that differ between the two
+		if (cdmDir.isDirectory() && otherCdmDir.isDirectory() && (CommandCtrl.getCdmCache() == null)) {
+
+			CdmIndex index = CommandCtrl.indexCdm(CommandCtrl.getPathArg(), false);
+			CdmIndex otherIndex = CommandCtrl.indexCdm(CommandCtrl.getOtherPathArg(), false);
+
+			if ((index != null) && (otherIndex != null)) {
+
+				Map<String, CdmFileIndex> files = getFilesByRelativePath(index, cdmDir);
+				Map<String, CdmFileIndex> otherFiles = getFilesByRelativePath(otherIndex, otherCdmDir);
+
+				Set<String> filesToLoad = getFilesToLoad(files, otherFiles, index, otherIndex, cdmDir, otherCdmDir);
+
+				if (filesToLoad.isEmpty()) {
+					System.out.println("No differences have been found between the two CDMs!");
+					return;
+				}
+
+				CdmCtrl[] loaded = loadConcurrently(getExistingFiles(filesToLoad, cdmDir), getExistingFiles(filesToLoad, otherCdmDir));
+				cdmCtrl = loaded[0];
+				otherCdmCtrl = loaded[1];
+			}
+		}
+
+		if (cdmCtrl == null) {
+			if (CommandCtrl.getCdmCache() == null) {
+				CdmCtrl[] loaded = loadConcurrently(null, null);
+				cdmCtrl = loaded[0];
+				otherCdmCtrl = loaded[1];
+			} else {
+				cdmCtrl = CommandCtrl.loadCdm(CommandCtrl.getPathArg(), false, true);
+				otherCdmCtrl = CommandCtrl.loadCdm(CommandCtrl.getOtherPathArg(), false, true);
+			}
 		}
 
-		CdmCtrl cdmCtrl = new CdmCtrl();
-		
-		// TODO :: if this is just one file (e.g. toLowerCase() ends on .cdm) then actually just load that one file instead!
-		CommandCtrl.loadCdm(CommandCtrl.getPathArg(), false, cdmCtrl, true);
-		
-		CdmCtrl otherCdmCtrl = new CdmCtrl();
-		
-		// TODO :: if this is just one file (e.g. toLowerCase() ends on .cdm) then actually just load that one file instead!
-		CommandCtrl.loadCdm(CommandCtrl.getOtherPathArg(), false, otherCdmCtrl, true);
-		
 		List<String> differences = cdmCtrl.findDifferencesFrom(otherCdmCtrl);
-		
+
+		// the CDMs that we loaded ourselves are not needed anymore (but the ones kept loaded are)
+		if (CommandCtrl.getCdmCache() == null) {
+			CommandCtrl.discardLoadedFiles(cdmCtrl);
+			CommandCtrl.discardLoadedFiles(otherCdmCtrl);
+		}
+
 		if (differences.size() < 1) {
 			System.out.println("No differences have been found between the two CDMs!");
 			return;
@@ -59,6 +148,184 @@ public class Compare implements Command {
 		}
 	}
 
+	/**
+	 * Compare the CDMs element by element without loading them, keeping at most about
+	 * the given amount of bytes of elements in memory
+	 */
+	private static void compareExternally(long memoryBudget) {
+
+		File leftCdmDir = new File(CommandCtrl.resolvePath(CommandCtrl.getOtherPathArg()));
+		File rightCdmDir = new File(CommandCtrl.resolvePath(CommandCtrl.getPathArg()));
+
+		CdmExternalCompare compare = new CdmExternalCompare(memoryBudget);
+
+		try {
+			Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 256 * 1024);
+
+			int differenceAmount = compare.compare(leftCdmDir, rightCdmDir, out);
+
+			if (differenceAmount < 1) {
+				out.write("No differences have been found between the two CDMs!\n");
+			} else {
+				out.write("(" + compare.getAddedAmount() + " added, " + compare.getRemovedAmount() + " removed, " +
+					compare.getChangedAmount() + " changed)\n");
+			}
+
+			out.flush();
+
+		} catch (CdmScanningException e) {
+			System.err.println(e.getMessage());
+			CommandCtrl.exit(3);
+		} catch (IOException e) {
+			System.err.println("The CDMs could not be compared: " + e.getMessage());
+			CommandCtrl.exit(13);
+		}
+	}
+
+	private static Map<String, CdmFileIndex> getFilesByRelativePath(CdmIndex index, File cdmDir) {
+
+		Map<String, CdmFileIndex> result = new HashMap<>();
+
+		for (CdmFileIndex file : index.getFiles()) {
+			result.put(relativize(cdmDir, file.getPath()), file);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Get the relative paths of the files that have to be loaded on both sides: all files that differ
+	 * (or only exist on one side), together with everything they link to on either side - the other
+	 * files are the same on both sides, so comparing them would not find anything
+	 */
+	private static Set<String> getFilesToLoad(Map<String, CdmFileIndex> files, Map<String, CdmFileIndex> otherFiles,
+		CdmIndex index, CdmIndex otherIndex, File cdmDir, File otherCdmDir) {
+
+		Set<String> result = new TreeSet<>();
+
+		Set<String> allPaths = new TreeSet<>(files.keySet());
+		allPaths.addAll(otherFiles.keySet());
+
+		for (String path : allPaths) {
+			CdmFileIndex file = files.get(path);
+			CdmFileIndex otherFile = otherFiles.get(path);
+			if ((file == null) || (otherFile == null) || !Arrays.equals(file.getContentHash(), otherFile.getContentHash())) {
+				result.add(path);
+			}
+		}
+
+		if (result.isEmpty()) {
+			return result;
+		}
+
+		// if all differing files only exist on one side, also load one unchanged file on both sides,
+		// so that there is something to load on the other side as well
+		if (getExistingFiles(result, cdmDir).isEmpty() || getExistingFiles(result, otherCdmDir).isEmpty()) {
+			String smallest = null;
+			for (String path : allPaths) {
+				if (!result.contains(path) && ((smallest == null) || (files.get(path).getSize() < files.get(smallest).getSize()))) {
+					smallest = path;
+				}
+			}
+			if (smallest != null) {
+				result.add(smallest);
+			}
+		}
+
+		// add what the files link to, on either side, until nothing new is added
+		int previousSize = 0;
+
+		while (result.size() != previousSize) {
+			previousSize = result.size();
+			result.addAll(getClosure(result, index, cdmDir));
+			result.addAll(getClosure(result, otherIndex, otherCdmDir));
+		}
+
+		return result;
+	}
+
+	private static Set<String> getClosure(Set<String> relativePaths, CdmIndex index, File cdmDir) {
+
+		Set<String> absolutePaths = new HashSet<>();
+		for (String relativePath : relativePaths) {
+			absolutePaths.add(new File(cdmDir.getAbsoluteFile(), relativePath).toPath().normalize().toString());
+		}
+
+		Set<String> result = new HashSet<>();
+		for (String path : index.getDependencyClosure(absolutePaths)) {
+			result.add(relativize(cdmDir, path));
+		}
+		return result;
+	}
+
+	private static List<File> getExistingFiles(Set<String> relativePaths, File cdmDir) {
+
+		List<File> result = new ArrayList<>();
+
+		for (String relativePath : relativePaths) {
+			File file = new File(cdmDir, relativePath);
+			if (file.isFile()) {
+				result.add(file);
+			}
+		}
+
+		return result;
+	}
+
+	private static String relativize(File cdmDir, String path) {
+		return cdmDir.getAbsoluteFile().toPath().normalize().relativize(new File(path).toPath()).toString();
+	}
+
+	/**
+	 * Load the two sides at the same time - either just the given files, or (if they are null)
+	 * the entire CDMs
+	 */
+	private static CdmCtrl[] loadConcurrently(final List<File> files, final List<File> otherFiles) {
+
+		ExecutorService pool = Executors.newFixedThreadPool(2);
+
+		try {
+			Future<CdmCtrl> left = pool.submit(new Callable<CdmCtrl>() {
+				public CdmCtrl call() {
+					return load(CommandCtrl.getPathArg(), files);
+				}
+			});
+			Future<CdmCtrl> right = pool.submit(new Callable<CdmCtrl>() {
+				public CdmCtrl call() {
+					return load(CommandCtrl.getOtherPathArg(), otherFiles);
+				}
+			});
+
+			CdmCtrl[] result = new CdmCtrl[] {left.get(), right.get()};
+
+			if ((result[0] == null) || (result[1] == null)) {
+				CommandCtrl.exit(3);
+			}
+
+			return result;
+
+		} catch (InterruptedException | ExecutionException e) {
+			System.err.println("The CDMs could not be loaded: " + e.getMessage());
+			CommandCtrl.exit(3);
+			return null;
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private static CdmCtrl load(String cdmPath, List<File> files) {
+
+		if (files != null) {
+			return CommandCtrl.loadCdmFiles(files, false, false);
+		}
+
+		CdmCtrl result = new CdmCtrl();
+		if (CommandCtrl.loadCdm(cdmPath, false, result, false)) {
+			return result;
+		}
+		return null;
+	}
+
 	@Override
 	public String getShortHelp() {
 		return HELP_COMPARE;
@@ -66,6 +333,20 @@ public class Compare implements Command {
 
 	@Override
 	public List<String> getLongHelp() {
-		return null;
+
+		List<String> result = new ArrayList<>();
+
+		result.add(HELP_COMPARE);
+		result.add("");
+		result.add("  Both CDMs are indexed first (see  cdm help find  about the index), and files that have");
+		result.add("  exactly the same contents on both sides are not loaded or compared at all - only the files");
+		result.add("  that differ are, together with the files they link to. Both sides are loaded at the same time.");
+		result.add("");
+		result.add("  --external .. do not load the CDMs at all, but stream through their files, matching elements by");
+		result.add("                their UUIDs and reporting the ones that were added, removed or changed - this works");
+		result.add("                for CDMs of any size, as elements are sorted in temporary files when memory runs out");
+		result.add("  -m maxMemoryInMB .. the memory that --external may use for elements; default: a quarter of the heap");
+
+		return result;
 	}
 }
@@ -5,9 +5,16 @@
 package com.asofterspace.cdm.commands;
 
 import com.asofterspace.cdm.CommandCtrl;
+import com.asofterspace.cdm.convert.CdmStreamingConverter;
+import com.asofterspace.cdm.events.CdmEvents;
+import com.asofterspace.cdm.events.CdmEventType;
+import com.asofterspace.cdm.exceptions.CdmScanningException;
+import com.asofterspace.cdm.index.CdmIndexer;
 import com.asofterspace.cdm.interfaces.Command;
 import com.asofterspace.toolbox.cdm.CdmCtrl;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -15,7 +22,7 @@ import java.util.Map;
 
 public class Convert implements Command {
 
-	private final String HELP_CONVERT = "convert [-f <format>] [-p <versionPrefix>] [-v <version>] [-d <destinationCdmPath>] <cdmPath> .. converts the CDM";
+	private final String HELP_CONVERT = "convert [-f <format>] [-p <versionPrefix>] [-v <version>] [-d <destinationCdmPath>] [-e <engine>] <cdmPath> .. converts the CDM";
 
 
 	@Override
@@ -35,7 +42,7 @@ public class Convert implements Command {
 
 		if (CommandCtrl.getPathArg() == null) {
 			System.err.println("You called  cdm create  but did not specify a CDM path at which the CDM should be created - please do.");
-			System.exit(4);
+			CommandCtrl.exit(4);
 		}
 
 		// read out the given arguments
@@ -44,6 +51,7 @@ public class Convert implements Command {
 		String toPrefix = "-";
 		String toVersion = "-";
 		String destinationPath = "-";
+		String engine = "auto";
 
 		Map<String, String> arguments = CommandCtrl.getArgumentMap();
 		
@@ -66,6 +74,19 @@ public class Convert implements Command {
 		if (arguments.containsKey("-d")) {
 			destinationPath = arguments.get("-d");
 		}
+
+		if (arguments.containsKey("-e")) {
+			engine = arguments.get("-e").toLowerCase();
+			switch (engine) {
+				case "auto":
+				case "stream":
+				case "model":
+					break;
+				default:
+					System.err.println("Sorry, the conversion engine " + engine + " is not known - please use auto, stream or model!");
+					CommandCtrl.exit(4);
+			}
+		}
 		
 		// replace defaults
 		String conversionTargetStr = "";
@@ -79,16 +100,12 @@ public class Convert implements Command {
 					break;
 				default:
 					System.err.println("Sorry, the target format " + format + " is not yet supported!");
-					System.exit(5);
+					CommandCtrl.exit(5);
 			}
 
 			conversionTargetStr = format + " format";
 		}
 
-		// now attempt to load the CDM from the origin path; we here need the full model, as the conversion
-		// actually in rare but existing cases needs to cross-reference things and be surprisingly smart...
-		CommandCtrl.loadCdm();
-
 		// do the conversion to a different version (and possibly prefix)
 		if ("-".equals(toVersion)) {
 			toVersion = null;
@@ -105,12 +122,31 @@ public class Convert implements Command {
 			if (toPrefix == null) {
 				System.err.println("I do not know which prefix is associated with CDM version " + toVersion + ".");
 				System.err.println("Please explicitly specify a prefix (even '-' would be enough to keep the current one), e.g. call  cdm convert -:" + toVersion + " (...)");
-				System.exit(7);
+				CommandCtrl.exit(7);
 			}
 		}
 
+		// conversions that only change the namespaces of the CDM can be streamed through file by
+		// file, without ever building the model
+		if (useStreaming(engine, toVersion)) {
+			convertStreaming(toVersion, toPrefix, destinationPath, conversionTargetStr);
+			return;
+		}
+
+		// now attempt to load the CDM from the origin path; we here need the full model, as the conversion
+		// actually in rare but existing cases needs to cross-reference things and be surprisingly smart...
+		CommandCtrl.loadCdm();
+
 		if ((toPrefix != null) || (toVersion != null)) {
+			CdmEventType.Event event = CdmEvents.CONVERSION.begin();
+			String fromVersion = (event == null) ? null : CommandCtrl.getCdmCtrl().getCdmVersion();
+
 			CommandCtrl.getCdmCtrl().convertTo(toVersion, toPrefix);
+			CommandCtrl.markAllModified(CommandCtrl.getCdmCtrl());
+
+			if (event != null) {
+				event.commit(CommandCtrl.getPathArg(), fromVersion, toVersion, "model");
+			}
 
 			if ("".equals(conversionTargetStr)) {
 				conversionTargetStr = "CDM version " + CommandCtrl.getCdmCtrl().getCdmVersion();
@@ -128,6 +164,94 @@ public class Convert implements Command {
 		}
 	}
 
+	/**
+	 * Streaming is used automatically when only the prefix changes (so the version stays the same),
+	 * as a version step may need structural changes that only the model-based conversion knows about;
+	 * it can be requested explicitly with -e stream for version steps that are known to only change
+	 * the namespaces
+	 */
+	private boolean useStreaming(String engine, String toVersion) {
+
+		if ("model".equals(engine)) {
+			return false;
+		}
+
+		// a CDM kept in the session may have unsaved modifications, which only the model knows about
+		if (CommandCtrl.getCdmCache() != null) {
+			return false;
+		}
+
+		File cdmPath = new File(CommandCtrl.resolvePath(CommandCtrl.getPathArg()));
+
+		// a single file together with its dependencies is handled by the model-based path
+		if (!cdmPath.isDirectory()) {
+			return false;
+		}
+
+		if ("stream".equals(engine)) {
+			return true;
+		}
+
+		return toVersion == null;
+	}
+
+	private void convertStreaming(String toVersion, String toPrefix, String destinationPath, String conversionTargetStr) {
+
+		File sourceDir = new File(CommandCtrl.resolvePath(CommandCtrl.getPathArg())).getAbsoluteFile();
+		File destinationDir = null;
+
+		if ((destinationPath != null) && !"-".equals(destinationPath)) {
+			destinationDir = new File(CommandCtrl.resolvePath(destinationPath)).getAbsoluteFile();
+
+			// complain if the directory is not empty, unless the source and destination are the same
+			if (destinationDir.equals(sourceDir)) {
+				destinationDir = null;
+			} else {
+				String[] contents = destinationDir.list();
+				if ((contents != null) && (contents.length > 0)) {
+					System.err.println("The specified destination directory is not empty - please save the conversion result into an empty directory!");
+					CommandCtrl.exit(9);
+				}
+			}
+		}
+
+		CdmStreamingConverter converter = new CdmStreamingConverter(toVersion, toPrefix, CdmCtrl.getKnownCdmVersions());
+
+		try {
+			List<File> cdmFiles = CdmIndexer.getCdmFiles(sourceDir);
+
+			if (cdmFiles.isEmpty()) {
+				System.err.println("The directory " + sourceDir + " does not contain any CDM files!");
+				CommandCtrl.exit(3);
+			}
+
+			converter.convertFiles(cdmFiles, sourceDir, destinationDir, CommandCtrl.getThreadCount());
+
+		} catch (CdmScanningException e) {
+			System.err.println(e.getMessage());
+			CommandCtrl.exit(3);
+		} catch (IOException e) {
+			System.err.println("The converted CDM could not be written: " + e.getMessage());
+			CommandCtrl.exit(8);
+		}
+
+		if ((toPrefix != null) || (toVersion != null)) {
+			String version = (toVersion == null) ? converter.getFoundVersion() : toVersion;
+
+			if ("".equals(conversionTargetStr)) {
+				conversionTargetStr = "CDM version " + version;
+			} else {
+				conversionTargetStr += " and CDM version " + version;
+			}
+		}
+
+		if ("".equals(conversionTargetStr)) {
+			System.out.println("No conversion done - as I was told to keep both version and format the same! :)");
+		} else {
+			System.out.println("Conversion to " + conversionTargetStr + " done!");
+		}
+	}
+
 	@Override
 	public String getShortHelp() {
 		return HELP_CONVERT;
@@ -154,6 +278,12 @@ public class Convert implements Command {
 		result.add("    - .. default: keep the current version");
 		result.add("");
 		result.add("  If no destination CDM path is selected using -d, then the CDM that is opened will be overwritten in-place.");
+		result.add("");
+		result.add("  Supported conversion engines for -e are:");
+		result.add("    auto .. default: stream if only the prefix changes, use the model otherwise");
+		result.add("    stream .. rewrite the namespaces of all files in parallel without loading the model;");
+		result.add("              only use this for version steps which do not need structural changes");
+		result.add("    model .. load the whole CDM and let the model convert it");
 
 		return result;
 	}
@@ -5,20 +5,26 @@
 package com.asofterspace.cdm.commands;
 
 import com.asofterspace.cdm.CommandCtrl;
+import com.asofterspace.cdm.generate.CdmGenerator;
 import com.asofterspace.cdm.interfaces.Command;
 import com.asofterspace.toolbox.cdm.CdmCtrl;
 import com.asofterspace.toolbox.cdm.exceptions.AttemptingEmfException;
 import com.asofterspace.toolbox.cdm.exceptions.CdmLoadingException;
 import com.asofterspace.toolbox.cdm.exceptions.CdmSavingException;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 
 public class Create implements Command {
 
-	private final String HELP_CREATE = "create [-t <template>] [-f <format>] [-p <versionPrefix>] [-v <version>] <cdmPath> .. creates a new CDM";
+	private final String HELP_CREATE = "create [-t <template>] [-f <format>] [-p <versionPrefix>] [-v <version>] [-generate [-elements <n>] [-files <n>] [-depth <n>] [-seed <n>]] <cdmPath> .. creates a new CDM";
+
+	private final static int DEFAULT_ELEMENT_AMOUNT = 10000;
+
+	private final static int DEFAULT_FILE_AMOUNT = 10;
 
 	@Override
 	public String getName() {
@@ -28,11 +34,11 @@ public class Create implements Command {
 	@Override
 	public void execute() {
 
-		CommandCtrl.useArgMapWithOnePath();
+		CommandCtrl.useArgTokensWithOnePath();
 
 		if (CommandCtrl.getPathArg() == null) {
 			System.err.println("You called  cdm create  but did not specify a CDM path at which the CDM should be created - please do.");
-			System.exit(4);
+			CommandCtrl.exit(4);
 		}
 
 		// read out the given arguments
@@ -41,22 +47,59 @@ public class Create implements Command {
 		String prefix = "-";
 		String version = "-";
 
-		Map<String, String> arguments = CommandCtrl.getArgumentMap();
-
-		if (arguments.containsKey("-t")) {
-			template = arguments.get("-t");
-		}
-
-		if (arguments.containsKey("-f")) {
-			format = arguments.get("-f");
-		}
-
-		if (arguments.containsKey("-p")) {
-			prefix = arguments.get("-p");
+		boolean generate = false;
+		long elementAmount = DEFAULT_ELEMENT_AMOUNT;
+		long fileAmount = DEFAULT_FILE_AMOUNT;
+		long depth = 0;
+		long seed = 0;
+
+		List<String> argumentList = CommandCtrl.getArgumentList();
+
+		for (int i = 0; i < argumentList.size(); i++) {
+			String argument = argumentList.get(i).toLowerCase();
+			String value = (i + 1 < argumentList.size()) ? argumentList.get(i + 1) : null;
+			switch (argument) {
+				case "-generate":
+					generate = true;
+					continue;
+				case "-t":
+					template = value;
+					break;
+				case "-f":
+					format = value;
+					break;
+				case "-p":
+					prefix = value;
+					break;
+				case "-v":
+					version = value;
+					break;
+				case "-elements":
+					elementAmount = parseNumber(argument, value, 1);
+					break;
+				case "-files":
+					fileAmount = parseNumber(argument, value, 1);
+					break;
+				case "-depth":
+					depth = parseNumber(argument, value, 2);
+					break;
+				case "-seed":
+					seed = parseNumber(argument, value, Long.MIN_VALUE);
+					break;
+				default:
+					System.err.println("The argument '" + argumentList.get(i) + "' was not understood - please check  cdm help create");
+					CommandCtrl.exit(4);
+			}
+			if (value == null) {
+				System.err.println("You called  cdm create " + argument + "  but did not specify a value for it - please do.");
+				CommandCtrl.exit(4);
+			}
+			i++;
 		}
 
-		if (arguments.containsKey("-v")) {
-			version = arguments.get("-v");
+		if (!generate && ((elementAmount != DEFAULT_ELEMENT_AMOUNT) || (fileAmount != DEFAULT_FILE_AMOUNT) || (depth != 0) || (seed != 0))) {
+			System.err.println("The amount of elements, files, the depth and the seed can only be specified when generating a CDM, that is, together with -generate.");
+			CommandCtrl.exit(4);
 		}
 
 		// replace defaults
@@ -78,22 +121,65 @@ public class Create implements Command {
 			if (prefix == null) {
 				System.err.println("I do not know which prefix is associated with CDM version " + version + ".");
 				System.err.println("Please explicitly specify a prefix, e.g. call  cdm create (...) prefix:" + version + " (...)");
-				System.exit(7);
+				CommandCtrl.exit(7);
 			}
 		}
 
+		String cdmPath = CommandCtrl.resolvePath(CommandCtrl.getPathArg());
+
 		// actually perform the work
 		try {
 			// TODO :: do not ignore the format ;)
 			CdmCtrl cdmCtrl = new CdmCtrl();
-			cdmCtrl.createNewCdm(CommandCtrl.getPathArg(), version, prefix, template);
+			cdmCtrl.createNewCdm(cdmPath, version, prefix, template);
 
 		} catch (AttemptingEmfException | CdmSavingException | CdmLoadingException e) {
 			System.err.println(e.getMessage());
-			System.exit(8);
+			CommandCtrl.exit(8);
+		}
+
+		if (!generate) {
+			System.out.println("The new CDM has been created!");
+			return;
+		}
+
+		// the generated files are written straight to disk, without ever having the model in memory
+		CdmGenerator generator = new CdmGenerator((int) elementAmount, (int) fileAmount, seed);
+
+		if (depth > 0) {
+			generator.setMaxDepth((int) depth);
 		}
 
-		System.out.println("The new CDM has been created!");
+		try {
+			generator.generate(new File(cdmPath), version, prefix);
+		} catch (IOException e) {
+			System.err.println("The generated CDM could not be written: " + e.getMessage());
+			CommandCtrl.exit(8);
+		}
+
+		System.out.println("The new CDM has been created with " + elementAmount + " generated MCM elements in " +
+			generator.getMcmFileAmount() + " MCM files and " + generator.getScriptFileAmount() + " script files!");
+	}
+
+	private static long parseNumber(String argument, String value, long minimum) {
+
+		if (value == null) {
+			// the missing value is complained about by the caller
+			return minimum;
+		}
+
+		try {
+			long result = Long.parseLong(value);
+			if ((result >= minimum) && ((minimum == Long.MIN_VALUE) || (result <= Integer.MAX_VALUE))) {
+				return result;
+			}
+		} catch (NumberFormatException e) {
+			// complain below
+		}
+
+		System.err.println("The value of " + argument + " needs to be a number that is at least " + minimum + ", not '" + value + "'.");
+		CommandCtrl.exit(4);
+		return minimum;
 	}
 
 	@Override
@@ -132,6 +218,13 @@ public class Create implements Command {
 			result.add("    " + ver);
 		}
 		result.add("    - .. default: highest available version (" + CdmCtrl.getHighestKnownCdmVersion() + ")");
+		result.add("");
+
+		result.add("  With -generate, a synthetic CDM is generated on top of the template, e.g. to test how large CDMs are handled:");
+		result.add("    -elements <n> .. amount of MCM elements (default: " + DEFAULT_ELEMENT_AMOUNT + "), each with a parameter and some with an activity or event");
+		result.add("    -files <n> .. amount of files (default: " + DEFAULT_FILE_AMOUNT + "), of which every tenth contains the scripts of the activities");
+		result.add("    -depth <n> .. maximum depth of the MCM tree in each file (default: each element has up to " + CdmGenerator.DEFAULT_FAN_OUT + " children)");
+		result.add("    -seed <n> .. the same seed always generates the same CDM (default: 0)");
 
 		return result;
 	}
@@ -30,7 +30,7 @@ public class Extract implements Command {
 
 		if (CommandCtrl.getPathArg() == null) {
 			System.err.println("You called  cdm extract  but did not specify a CDM path to open - please do.");
-			System.exit(4);
+			CommandCtrl.exit(4);
 		}
 
 		String fromFile = "-";
@@ -42,22 +42,21 @@ public class Extract implements Command {
 			fromFile = arguments.get("-f");
 		} else {
 			System.err.println("You called  cdm extract  but did not specify a filename to extract out of the CDM - please do.");
-			System.exit(4);
+			CommandCtrl.exit(4);
 		}
 
 		if (arguments.containsKey("-d")) {
 			toDestinationPath = arguments.get("-d");
 		}
 
-		// TODO :: if this is just one file (e.g. toLowerCase() ends on .cdm) then actually just load that one file instead!
-		CommandCtrl.loadCdm(CommandCtrl.getPathArg(), false, CommandCtrl.getCdmCtrl(), false);
+		CommandCtrl.loadCdm(false, false);
 
 		try {
 			// now actually perform the extraction!
-			CommandCtrl.getCdmCtrl().extractFileTo(fromFile, toDestinationPath);
+			CommandCtrl.getCdmCtrl().extractFileTo(fromFile, CommandCtrl.resolvePath(toDestinationPath));
 		} catch (CdmSavingException e) {
 			System.err.println(e.getMessage());
-			System.exit(8);
+			CommandCtrl.exit(8);
 		}
 	}
 
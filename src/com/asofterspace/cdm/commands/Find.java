@@ -5,22 +5,37 @@
 package com.asofterspace.cdm.commands;
 
 import com.asofterspace.cdm.CommandCtrl;
+import com.asofterspace.cdm.exceptions.CdmQueryException;
+import com.asofterspace.cdm.exceptions.CdmScanningException;
+import com.asofterspace.cdm.index.CdmElement;
+import com.asofterspace.cdm.index.CdmIndex;
+import com.asofterspace.cdm.index.CdmIndexer;
+import com.asofterspace.cdm.index.CdmIndexStore;
+import com.asofterspace.cdm.index.CdmStreamingSearch;
 import com.asofterspace.cdm.interfaces.Command;
+import com.asofterspace.cdm.query.CdmCriterion;
+import com.asofterspace.cdm.query.CdmModelLookup;
+import com.asofterspace.cdm.query.CdmQuery;
+import com.asofterspace.cdm.query.CdmQueryParser;
+import com.asofterspace.cdm.query.CdmResultWriter;
 import com.asofterspace.toolbox.cdm.CdmCtrl;
 import com.asofterspace.toolbox.cdm.CdmNode;
 import com.asofterspace.toolbox.coders.ConversionException;
-import com.asofterspace.toolbox.coders.UuidEncoderDecoder;
 
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collection;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 
 
 public class Find implements Command {
 
-	private final String HELP_FIND = "find [-u <uuid>] [-n <name>] [-t <type>] [-x <xmltag>] <cdmPath> .. finds an element in the CDM";
+	private final String HELP_FIND = "find [-u <uuid>] [-n <name>] [-t <type>] [-x <xmltag>] [-and|-or|-not ..] [--format <format>] <cdmPath> .. finds an element in the CDM";
 
 
 	@Override
@@ -31,90 +46,282 @@ public class Find implements Command {
 	@Override
 	public void execute() {
 
-		CommandCtrl.useArgMapWithOnePath();
+		CommandCtrl.useArgTokensWithOnePath();
 
 		if (CommandCtrl.getPathArg() == null) {
 			System.err.println("You called  cdm find  but did not specify a CDM path to open - please do.");
-			System.exit(4);
+			CommandCtrl.exit(4);
 		}
 
-		// TODO :: if this is just one file (e.g. toLowerCase() ends on .cdm) then actually just load that one file instead!
-		CommandCtrl.loadCdm(true);
+		List<String> arguments = new ArrayList<>(CommandCtrl.getArgumentList());
 
-		CdmCtrl cdmCtrl = CommandCtrl.getCdmCtrl();
+		String format = extractOption(arguments, "--format", "-format");
+		if (format == null) {
+			format = CdmResultWriter.FORMAT_TEXT;
+		}
+		format = format.toLowerCase();
+		if (!CdmResultWriter.isKnownFormat(format)) {
+			System.err.println("The format '" + format + "' is not known - please use text, jsonl or csv.");
+			CommandCtrl.exit(4);
+		}
+
+		CdmQuery query = null;
+
+		try {
+			query = CdmQueryParser.parse(arguments);
+		} catch (CdmQueryException e) {
+			System.err.println(e.getMessage() + " Please check  cdm help find");
+			CommandCtrl.exit(4);
+		} catch (ConversionException e) {
+			System.err.println(e.getMessage());
+			CommandCtrl.exit(11);
+		}
+
+		if (query == null) {
+			reportNothingFound(format);
+			return;
+		}
+
+		List<CdmCriterion> criteria = new ArrayList<>();
+		query.collectCriteria(criteria);
+
+		CdmCtrl cdmCtrl = null;
+		CdmIndex index = null;
 
-		Set<CdmNode> nodesFound = new HashSet<>();
+		// unless the CDM is kept loaded anyway, first figure out which files can contain matches
+		// at all, and only load these (paths span several elements, so they cannot be searched for
+		// file by file)
+		if (!hasCriterion(criteria, CdmCriterion.Kind.PATH) && (CommandCtrl.getCdmCache() == null)) {
 
-		// TODO :: add another switch that allows searching only for elements that have this AND that instead of this OR that
-		// (right now, we search e.g. for elements with this name OR that tag, but maybe someone wants to search for elements
-		// that have this name AND that tag!)
+			File cdmPath = new File(CommandCtrl.resolvePath(CommandCtrl.getPathArg()));
+			boolean indexExists = new File(cdmPath, CdmIndexStore.INDEX_FILE_NAME).isFile();
 
-		Map<String, String> arguments = CommandCtrl.getArgumentMap();
+			List<File> filesToLoad = null;
+
+			// UUIDs are unique, so without an index it is faster to just stream through the files
+			// until all of them have been found than to build an index first
+			if (!indexExists && onlyHasCriterion(criteria, CdmCriterion.Kind.UUID)) {
+				filesToLoad = findFilesByStreaming(cdmPath, criteria);
+			} else {
+				index = CommandCtrl.indexCdm(CommandCtrl.getPathArg(), false);
+				if (index != null) {
+					filesToLoad = findFilesInIndex(query, index);
+				}
+			}
+
+			if (filesToLoad != null) {
+
+				if (filesToLoad.size() == 0) {
+					reportNothingFound(format);
+					return;
+				}
+
+				cdmCtrl = CommandCtrl.loadCdmFiles(filesToLoad, true, true);
+			}
+		}
+
+		if (cdmCtrl == null) {
+			CommandCtrl.loadCdm(true);
+			cdmCtrl = CommandCtrl.getCdmCtrl();
+		}
 
-		// find by UUID
-		String uuid = null;
-		if (arguments.containsKey("-u")) {
-			uuid = arguments.get("-u");
+		if (!CdmResultWriter.FORMAT_TEXT.equals(format)) {
+			writeResults(query, format, cdmCtrl, index);
+			return;
 		}
-		if (arguments.containsKey("-uuid")) {
-			uuid = arguments.get("-uuid");
+
+		Set<CdmNode> nodesFound = query.evaluate(new CdmModelLookup(cdmCtrl, index));
+
+		if (nodesFound.size() == 0) {
+			reportNothingFound(format);
+			return;
 		}
-		if (uuid != null) {
-			try {
-				uuid = UuidEncoderDecoder.ensureUUIDisEcore(uuid);
-			} catch (ConversionException e) {
-				System.err.println(e.getMessage());
-				System.exit(11);
+
+		// the nodes print themselves straight to System.out, so buffer that while they do
+		PrintStream originalOut = System.out;
+		System.setOut(new PrintStream(new BufferedOutputStream(originalOut, 256 * 1024), false));
+
+		try {
+			if (nodesFound.size() == 1) {
+				System.out.println("1 entity has been found:");
+			} else {
+				System.out.println(nodesFound.size() + " entities have been found:");
 			}
-			nodesFound.addAll(cdmCtrl.findByUuid(uuid));
+
+			for (CdmNode node : nodesFound) {
+				System.out.println("");
+				node.print();
+			}
+		} finally {
+			System.out.flush();
+			System.setOut(originalOut);
 		}
+	}
 
-		// find by name
-		if (arguments.containsKey("-n")) {
-			nodesFound.addAll(cdmCtrl.findByName(arguments.get("-n")));
+	/**
+	 * Tell whoever called us that nothing has been found - for the machine-readable formats that
+	 * just means writing no results at all (so just the header line for csv)
+	 */
+	private static void reportNothingFound(String format) {
+
+		if (CdmResultWriter.FORMAT_TEXT.equals(format)) {
+			System.out.println("No entities have been found, sorry.");
+			return;
+		}
+
+		try {
+			new CdmResultWriter(format, System.out).flush();
+		} catch (IOException e) {
+			System.err.println("The results could not be written: " + e.getMessage());
+			CommandCtrl.exit(13);
 		}
-		if (arguments.containsKey("-name")) {
-			nodesFound.addAll(cdmCtrl.findByName(arguments.get("-name")));
+	}
+
+	/**
+	 * Write the nodes matching the query in a machine-readable format, each one as soon as the
+	 * query has found it, taking everything that the nodes themselves do not tell us from the
+	 * index of the files they came from
+	 */
+	private static void writeResults(CdmQuery query, String format, final CdmCtrl cdmCtrl, final CdmIndex index) {
+
+		try {
+			final CdmResultWriter writer = new CdmResultWriter(format, System.out);
+
+			query.evaluate(new CdmModelLookup(cdmCtrl, index), new CdmQuery.ResultListener() {
+
+				private CdmIndex resultIndex = index;
+
+				private boolean indexBuilt = false;
+
+				public void found(CdmNode node) {
+
+					// without an index of the CDM, index just the loaded files once something is found
+					if ((resultIndex == null) && !indexBuilt) {
+						indexBuilt = true;
+						try {
+							List<File> loadedFiles = CommandCtrl.getLoadedFiles(cdmCtrl, CommandCtrl.getPathArg());
+							resultIndex = new CdmIndex(CdmIndexer.indexFiles(loadedFiles, CommandCtrl.getThreadCount()));
+						} catch (CdmScanningException e) {
+							// then we just write what the nodes know about themselves
+							System.err.println(e.getMessage());
+						}
+					}
+
+					try {
+						writeResult(writer, node, resultIndex);
+					} catch (IOException e) {
+						System.err.println("The results could not be written: " + e.getMessage());
+						CommandCtrl.exit(13);
+					}
+				}
+			});
+
+			writer.flush();
+
+		} catch (IOException e) {
+			System.err.println("The results could not be written: " + e.getMessage());
+			CommandCtrl.exit(13);
 		}
+	}
 
-		// find by path
-		if (arguments.containsKey("-p")) {
-			nodesFound.addAll(cdmCtrl.findByPath(arguments.get("-p")));
+	private static void writeResult(CdmResultWriter writer, CdmNode node, CdmIndex index) throws IOException {
+
+		String uuid = node.getId();
+		CdmElement element = null;
+		if ((index != null) && (uuid != null)) {
+			List<CdmElement> elements = index.findByUuid(uuid);
+			if (elements.size() > 0) {
+				element = elements.get(0);
+			}
 		}
-		if (arguments.containsKey("-path")) {
-			nodesFound.addAll(cdmCtrl.findByPath(arguments.get("-path")));
+
+		if (element == null) {
+			writer.write(uuid, node.getName(), null, null, null, null);
+		} else {
+			writer.write(uuid, node.getName(), element.getPath(), element.getType(), element.getXmlTag(),
+				element.getFile().getPath());
 		}
+	}
 
-		// find by type
-		if (arguments.containsKey("-t")) {
-			nodesFound.addAll(cdmCtrl.findByType(arguments.get("-t")));
+	/**
+	 * Remove an option and its value (given by any of the given keys) from the arguments,
+	 * returning its value, or null if it was not given
+	 */
+	private static String extractOption(List<String> arguments, String... keys) {
+
+		for (int i = 0; i < arguments.size() - 1; i++) {
+			for (String key : keys) {
+				if (key.equalsIgnoreCase(arguments.get(i))) {
+					String result = arguments.get(i + 1);
+					arguments.remove(i + 1);
+					arguments.remove(i);
+					return result;
+				}
+			}
 		}
-		if (arguments.containsKey("-type")) {
-			nodesFound.addAll(cdmCtrl.findByType(arguments.get("-type")));
+
+		return null;
+	}
+
+	private static boolean hasCriterion(List<CdmCriterion> criteria, CdmCriterion.Kind kind) {
+		for (CdmCriterion criterion : criteria) {
+			if (criterion.getKind() == kind) {
+				return true;
+			}
 		}
+		return false;
+	}
 
-		// find by xml tag
-		if (arguments.containsKey("-x")) {
-			nodesFound.addAll(cdmCtrl.findByXmlTag(arguments.get("-x")));
+	private static boolean onlyHasCriterion(List<CdmCriterion> criteria, CdmCriterion.Kind kind) {
+		for (CdmCriterion criterion : criteria) {
+			if (criterion.getKind() != kind) {
+				return false;
+			}
 		}
-		if (arguments.containsKey("-xml")) {
-			nodesFound.addAll(cdmCtrl.findByXmlTag(arguments.get("-xml")));
+		return true;
+	}
+
+	/**
+	 * Look up the files containing possible matches in the index of the CDM,
+	 * returning null if the index cannot narrow them down
+	 */
+	private static List<File> findFilesInIndex(CdmQuery query, CdmIndex index) {
+
+		Collection<CdmElement> candidates = query.getCandidates(index);
+
+		if (candidates == null) {
+			return null;
 		}
 
-		if (nodesFound.size() == 0) {
-			System.out.println("No entities have been found, sorry.");
-			return;
+		Set<File> result = new TreeSet<>();
+
+		for (CdmElement element : candidates) {
+			if (query.mayMatch(element)) {
+				result.add(new File(element.getFile().getPath()));
+			}
 		}
 
-		if (nodesFound.size() == 1) {
-			System.out.println("1 entity has been found:");
-		} else {
-			System.out.println(nodesFound.size() + " entities have been found:");
+		return new ArrayList<>(result);
+	}
+
+	/**
+	 * Stream through the files of the CDM to find the ones containing any of the UUIDs of the
+	 * given criteria, returning null if the files could not be scanned
+	 */
+	private static List<File> findFilesByStreaming(File cdmPath, List<CdmCriterion> criteria) {
+
+		List<String> uuids = new ArrayList<>();
+		for (CdmCriterion criterion : criteria) {
+			uuids.add(criterion.getValue());
 		}
 
-		for (CdmNode node : nodesFound) {
-			System.out.println("");
-			node.print();
+		CdmStreamingSearch search = new CdmStreamingSearch(uuids);
+
+		try {
+			return search.findFiles(CdmIndexer.getCdmFiles(cdmPath));
+		} catch (CdmScanningException e) {
+			System.err.println(e.getMessage());
+			return null;
 		}
 	}
 
@@ -142,6 +349,24 @@ public class Find implements Command {
 		result.add("  -path path");
 		result.add("  -type type");
 		result.add("  -xml xmltag");
+		result.add("");
+		result.add("  Criteria can be combined with -and, -or and -not, and grouped with ( and ) - e.g.:");
+		result.add("  cdm find -t type -and ( -n name -or -n otherName ) -and -not -x xmltag <cdmPath>");
+		result.add("  -not binds strongest, then -and, then -or; criteria without an operator in between");
+		result.add("  are combined with -or. A -not can only be used together with other criteria.");
+		result.add("  Combined criteria start with whichever criterion has the fewest matches in the index.");
+		result.add("");
+		result.add("  --format text .. print the found elements for humans to read (the default)");
+		result.add("  --format jsonl .. write one JSON object per found element");
+		result.add("  --format csv .. write one comma-separated line per found element, after a header line");
+		result.add("  jsonl and csv contain the uuid, name, path, type, xmlTag and (source) file of each element;");
+		result.add("  the path consists of the names of the element and its ancestors within its file, separated by dots.");
+		result.add("");
+		result.add("  To find elements quickly, an index of the CDM is kept in the file " + CdmIndexStore.INDEX_FILE_NAME);
+		result.add("  within the CDM directory, and only the files containing matches are actually loaded.");
+		result.add("  Files that changed since the last search are indexed again automatically.");
+		result.add("  When searching just for UUIDs while there is no index yet, the files are streamed");
+		result.add("  through instead, stopping as soon as all the UUIDs have been found.");
 
 		return result;
 	}
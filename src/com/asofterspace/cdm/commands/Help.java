@@ -42,6 +42,23 @@ public class Help implements Command {
 				}
 			}
 
+			System.out.println("");
+			System.out.println("Options available for all commands:");
+			System.out.println("");
+			System.out.println("* -j <threads> .. the amount of threads for the work the cdm tool does on files by itself (default: one per core):");
+			System.out.println("                  scanning files into the index, checking groups in  validate --sharded , streaming");
+			System.out.println("                  conversions and saving - loading a whole CDM model is always done on a single thread");
+			System.out.println("* --progress .. show the progress of loading CDMs (files and MB per second, time left) on the error output");
+			System.out.println("* --profile .. in the end, show how long each phase (scanning, loading, the command itself, saving) took,");
+			System.out.println("               how much CPU time it used, how much it allocated and how much heap it needed at most");
+			System.out.println("* --profile=<file.json> .. same, but write the profile into the given JSON file");
+			System.out.println("* --watch .. for find, tree and validate: keep running, and execute the command again whenever");
+			System.out.println("             .cdm files in the CDM directory change (use  validate --sharded --watch  to only check");
+			System.out.println("             the groups of files that changed)");
+			System.out.println("");
+			System.out.println("Wherever a <cdmPath> is expected, a single .cdm file can be given instead of a CDM directory -");
+			System.out.println("then only that file and the files it links to are loaded.");
+
 		} else {
 
 			Command command = CommandCtrl.getCommandByName(CommandCtrl.getPathArg().toLowerCase());
@@ -49,7 +66,7 @@ public class Help implements Command {
 			if (command == null) {
 				System.err.println("Whoopsie! I do not actually know the command '" + CommandCtrl.getPathArg() +
 						"', so I cannot offer any help with it...");
-				System.exit(20);
+				CommandCtrl.exit(20);
 			}
 
 			List<String> helpStrs = command.getLongHelp();
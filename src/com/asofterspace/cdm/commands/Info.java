@@ -28,10 +28,9 @@ public class Info implements Command {
 
 		if (CommandCtrl.getPathArg() == null) {
 			System.err.println("You called  cdm info  but did not specify a CDM path of the CDM for which information should be shown - please do.");
-			System.exit(4);
+			CommandCtrl.exit(4);
 		}
 
-		// TODO :: if this is just one file (e.g. toLowerCase() ends on .cdm) then actually just load that one file instead!
 		CommandCtrl.loadCdm(false);
 
 		String cdmVersion = CommandCtrl.getCdmCtrl().getCdmVersion();
@@ -0,0 +1,163 @@
+/**
+ * Unlicensed code created by A Softer Space, 2019
+ * www.asofterspace.com/licenses/unlicense.txt
+ */
+package com.asofterspace.cdm.commands;
+
+import com.asofterspace.cdm.CdmCache;
+import com.asofterspace.cdm.CommandCtrl;
+import com.asofterspace.cdm.interfaces.Command;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+public class Interactive implements Command {
+
+	private final String HELP_INTERACTIVE = "interactive <cdmPath> .. loads the CDM once and then lets you run several commands on it";
+
+	// commands that work on the CDM of the session, so that the path of the CDM is added to them automagically
+	private final static List<String> SESSION_COMMANDS = Arrays.asList(
+		"convert", "extract", "find", "info", "print", "root", "tree", "validate");
+
+
+	@Override
+	public String getName() {
+		return "interactive";
+	}
+
+	@Override
+	public void execute() {
+
+		CommandCtrl.useArgMapWithOnePath();
+
+		if (CommandCtrl.getPathArg() == null) {
+			System.err.println("You called  cdm interactive  but did not specify a CDM path to open - please do.");
+			CommandCtrl.exit(4);
+		}
+
+		final String cdmPath = CommandCtrl.getPathArg();
+
+		// keep the CDM loaded in between the commands of the session
+		CdmCache previousCdmCache = CommandCtrl.getCdmCache();
+		if (previousCdmCache == null) {
+			CommandCtrl.setCdmCache(new CdmCache());
+		}
+
+		try {
+			CommandCtrl.loadCdm();
+
+			System.out.println("The CDM has been loaded - enter commands such as  find -n <name>  or  validate");
+			System.out.println("(the CDM path is added automatically), or  exit  to end the session.");
+
+			BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
+
+			while (true) {
+				System.out.print("cdm> ");
+				System.out.flush();
+
+				String line = reader.readLine();
+
+				if (line == null) {
+					System.out.println("");
+					break;
+				}
+
+				List<String> args = CommandCtrl.splitCommandLine(line);
+
+				if (args.size() < 1) {
+					continue;
+				}
+
+				String commandName = args.get(0).toLowerCase();
+
+				if ("exit".equals(commandName) || "quit".equals(commandName)) {
+					break;
+				}
+
+				int exitCode;
+
+				switch (commandName) {
+					case "save":
+						exitCode = save(cdmPath, args);
+						break;
+					case "reload":
+						CommandCtrl.getCdmCache().invalidate(cdmPath);
+						exitCode = CommandCtrl.executeInSession(new Runnable() {
+							public void run() {
+								CommandCtrl.loadCdm(cdmPath, true, true);
+								System.out.println("The CDM has been reloaded.");
+							}
+						});
+						break;
+					default:
+						if (SESSION_COMMANDS.contains(commandName)) {
+							args.add(cdmPath);
+						}
+						exitCode = CommandCtrl.executeCommandInSession(args.toArray(new String[args.size()]));
+				}
+
+				System.out.flush();
+
+				if (exitCode != 0) {
+					System.err.println("(exit code " + exitCode + ")");
+				}
+			}
+
+		} catch (IOException e) {
+			System.err.println("The input could not be read: " + e.getMessage());
+			CommandCtrl.exit(1);
+
+		} finally {
+			CommandCtrl.setCdmCache(previousCdmCache);
+		}
+	}
+
+	private int save(final String cdmPath, List<String> args) {
+
+		String destinationPath = "-";
+
+		for (int i = 1; i < args.size() - 1; i++) {
+			if ("-d".equals(args.get(i).toLowerCase())) {
+				destinationPath = args.get(i + 1);
+			}
+		}
+
+		final String finalDestinationPath = destinationPath;
+
+		return CommandCtrl.executeInSession(new Runnable() {
+			public void run() {
+				CommandCtrl.saveToDestinationPath(CommandCtrl.loadCdm(cdmPath, true, true), cdmPath, finalDestinationPath);
+				System.out.println("The CDM has been saved!");
+			}
+		});
+	}
+
+	@Override
+	public String getShortHelp() {
+		return HELP_INTERACTIVE;
+	}
+
+	@Override
+	public List<String> getLongHelp() {
+
+		List<String> result = new ArrayList<>();
+
+		result.add(HELP_INTERACTIVE);
+		result.add("");
+		result.add("  The CDM is only parsed once, and all commands of the session are executed on the same loaded CDM.");
+		result.add("  For the commands " + SESSION_COMMANDS + " the path of the CDM is added automatically,");
+		result.add("  so e.g. just enter  find -n <name>  to find an element by name in the loaded CDM.");
+		result.add("");
+		result.add("  In addition, the session understands:");
+		result.add("    save [-d <destinationCdmPath>] .. saves the loaded CDM, optionally to a different destination");
+		result.add("    reload .. parses the CDM again, e.g. after it has been changed by a different program");
+		result.add("    exit .. ends the session (just like  quit  or the end of the input)");
+
+		return result;
+	}
+}
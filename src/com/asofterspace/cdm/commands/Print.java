@@ -28,11 +28,10 @@ public class Print implements Command {
 
 		if (CommandCtrl.getPathArg() == null) {
 			System.err.println("You called  cdm print  but did not specify a CDM path to open - please do.");
-			System.exit(4);
+			CommandCtrl.exit(4);
 		}
 
-		// TODO :: if this is just one file (e.g. toLowerCase() ends on .cdm) then actually just load that one file instead!
-		CommandCtrl.loadCdm(CommandCtrl.getPathArg(), false, CommandCtrl.getCdmCtrl(), false);
+		CommandCtrl.loadCdm(false, false);
 
 		CommandCtrl.getCdmCtrl().debugPrintAll();
 	}
@@ -32,18 +32,17 @@ public class Root implements Command {
 
 		if (CommandCtrl.getPathArg() == null) {
 			System.err.println("You called  cdm root  but did not specify a CDM path of the CDM for which the root should be accessed - please do.");
-			System.exit(4);
+			CommandCtrl.exit(4);
 		}
 
-		// TODO :: if this is just one file (e.g. toLowerCase() ends on .cdm) then actually just load that one file instead!
-		// (however, not sure if the tree can be constructed from just one file... ah well, it will work out somehow ^^)
+		// if just one .cdm file is given, the tree only contains what is in that file and the files it links to
 		CommandCtrl.loadCdm();
 		
 		Set<CdmMonitoringControlElement> roots = CommandCtrl.getCdmCtrl().getAllMcmTreeRoots();
 		
 		if (roots.size() < 1) {
 			System.err.println("The CDM that you specified does not seem to contain an MCM tree!");
-			System.exit(12);
+			CommandCtrl.exit(12);
 		}
 		
 		String setName = "-";
@@ -59,6 +58,13 @@ public class Root implements Command {
 			destinationPath = arguments.get("-d");
 		}
 		
+		// the files that contain the given one are not loaded, so what looks like a root here may well
+		// be somewhere in the middle of the actual MCM tree - which we must not rename in the real CDM
+		if (!"-".equals(setName) && CommandCtrl.isPartiallyLoaded(CommandCtrl.getCdmCtrl())) {
+			System.err.println("You called  cdm root -n  on a single file, but the root can only be renamed in a whole CDM - please give the CDM directory instead.");
+			CommandCtrl.exit(4);
+		}
+
 		if ("-".equals(setName)) {
 		
 			if (!"-".equals(destinationPath)) {
@@ -70,6 +76,7 @@ public class Root implements Command {
 		
 			for (CdmNode node : roots) {
 				node.setName(setName);
+				CommandCtrl.markModified(CommandCtrl.getCdmCtrl(), node);
 			}
 			
 			CommandCtrl.saveToDestinationPath(destinationPath);
@@ -106,6 +113,8 @@ public class Root implements Command {
 		result.add(HELP_ROOT);
 		result.add("  If a name is selected with -n, the root element will be renamed to this name.");
 		result.add("  If no destination CDM path is selected using -d, then the CDM that is opened will be overwritten in-place in case the name is changed.");
+		result.add("  If a single .cdm file is given, only that file and the files it links to are loaded, so the roots shown");
+		result.add("  are the tops of the trees within these files; renaming with -n is then refused, as it needs the whole CDM.");
 
 		return result;
 	}
@@ -0,0 +1,100 @@
+/**
+ * Unlicensed code created by A Softer Space, 2019
+ * www.asofterspace.com/licenses/unlicense.txt
+ */
+package com.asofterspace.cdm.commands;
+
+import com.asofterspace.cdm.CdmCache;
+import com.asofterspace.cdm.CommandCtrl;
+import com.asofterspace.cdm.interfaces.Command;
+import com.asofterspace.cdm.server.CdmClient;
+import com.asofterspace.cdm.server.CdmServer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+
+public class Serve implements Command {
+
+	private final String HELP_SERVE = "serve [-p <port>] [-c <maxCachedCdms>] [-m <maxHeapInMB>] [stop] .. starts a server that keeps CDMs loaded between calls";
+
+
+	@Override
+	public String getName() {
+		return "serve";
+	}
+
+	@Override
+	public void execute() {
+
+		CommandCtrl.useArgMapWithOnePath();
+
+		if ("stop".equals(CommandCtrl.getPathArg())) {
+			// if a server had been running, the client would already have asked it to stop
+			System.err.println("There is no cdm server running that could be stopped.");
+			CommandCtrl.exit(1);
+		}
+
+		if (CdmClient.isServerRunning()) {
+			System.err.println("A cdm server is already running - stop it first with  cdm serve stop");
+			CommandCtrl.exit(1);
+		}
+
+		Map<String, String> arguments = CommandCtrl.getArgumentMap();
+
+		int port = 0;
+		int maxCachedCdms = CdmCache.DEFAULT_MAX_ENTRIES;
+		long heapBudget = CdmCache.getDefaultHeapBudget();
+
+		try {
+			if (arguments.containsKey("-p")) {
+				port = Integer.parseInt(arguments.get("-p"));
+			}
+			if (arguments.containsKey("-c")) {
+				maxCachedCdms = Integer.parseInt(arguments.get("-c"));
+			}
+			if (arguments.containsKey("-m")) {
+				heapBudget = Long.parseLong(arguments.get("-m")) * 1024 * 1024;
+			}
+		} catch (NumberFormatException e) {
+			System.err.println("The argument '" + e.getMessage() + "' is not a number - please check  cdm help serve");
+			CommandCtrl.exit(4);
+		}
+
+		CdmServer server = new CdmServer(port, new CdmCache(maxCachedCdms, heapBudget));
+
+		try {
+			server.run();
+		} catch (IOException e) {
+			System.err.println("The cdm server could not be started: " + e.getMessage());
+			CommandCtrl.exit(21);
+		}
+	}
+
+	@Override
+	public String getShortHelp() {
+		return HELP_SERVE;
+	}
+
+	@Override
+	public List<String> getLongHelp() {
+
+		List<String> result = new ArrayList<>();
+
+		result.add(HELP_SERVE);
+		result.add("");
+		result.add("  While the server is running, all other cdm calls of the same user are handed over to it,");
+		result.add("  and CDMs that have already been loaded before are not parsed again (unless their files changed.)");
+		result.add("");
+		result.add("  -p port .. the port on the loopback interface to listen on; by default, any free port is used");
+		result.add("  -c maxCachedCdms .. the amount of CDMs to keep loaded at the same time; default: 8");
+		result.add("  -m maxHeapInMB .. the estimated heap that the loaded CDMs may take up; default: three quarters of the heap");
+		result.add("");
+		result.add("  Call  cdm serve stop  to stop the running server.");
+		result.add("  Set the environment variable CDM_NO_SERVER to run a cdm call locally even though a server is running.");
+
+		return result;
+	}
+}
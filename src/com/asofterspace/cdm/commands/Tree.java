@@ -7,9 +7,16 @@ package com.asofterspace.cdm.commands;
 import com.asofterspace.cdm.CommandCtrl;
 import com.asofterspace.cdm.interfaces.Command;
 import com.asofterspace.toolbox.cdm.CdmMonitoringControlElement;
+import com.asofterspace.toolbox.coders.ConversionException;
 import com.asofterspace.toolbox.coders.UuidEncoderDecoder;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
 import java.util.Set;
 
@@ -17,7 +24,9 @@ import java.util.Set;
 public class Tree implements Command {
 
 	// TODO :: optionally specify to show only MCEs (like now), or also parameters, also activities, also events, ...
-	private final String HELP_TREE = "tree [-u] <cdmPath> .. shows the MCM tree";
+	private final String HELP_TREE = "tree [-u] [-depth <n>] [-r <uuid>] [-collapse <n>] <cdmPath> .. shows the MCM tree";
+
+	private final static int BUFFER_SIZE = 256 * 1024;
 
 
 	@Override
@@ -28,52 +37,184 @@ public class Tree implements Command {
 	@Override
 	public void execute() {
 
-		CommandCtrl.useArgListWithOnePath();
+		CommandCtrl.useArgTokensWithOnePath();
 
 		if (CommandCtrl.getPathArg() == null) {
 			System.err.println("You called  cdm tree  but did not specify a CDM path of the CDM for which the tree should be accessed - please do.");
-			System.exit(4);
+			CommandCtrl.exit(4);
+		}
+
+		boolean showUuid = false;
+		int maxDepth = Integer.MAX_VALUE;
+		int maxSiblings = Integer.MAX_VALUE;
+		String subtreeUuid = null;
+
+		List<String> argumentList = CommandCtrl.getArgumentList();
+
+		for (int i = 0; i < argumentList.size(); i++) {
+			String argument = argumentList.get(i).toLowerCase();
+			boolean hasValue = i + 1 < argumentList.size();
+			switch (argument) {
+				case "-u":
+					showUuid = true;
+					break;
+				case "-depth":
+					maxDepth = parseAmount(argument, hasValue ? argumentList.get(++i) : null);
+					break;
+				case "-collapse":
+					maxSiblings = parseAmount(argument, hasValue ? argumentList.get(++i) : null);
+					break;
+				case "-r":
+					if (!hasValue) {
+						System.err.println("You called  cdm tree -r  but did not specify the UUID of the element whose subtree should be shown - please do.");
+						CommandCtrl.exit(4);
+					}
+					try {
+						subtreeUuid = UuidEncoderDecoder.ensureUUIDisEcore(argumentList.get(++i));
+					} catch (ConversionException e) {
+						System.err.println(e.getMessage());
+						CommandCtrl.exit(11);
+					}
+					break;
+				default:
+					System.err.println("The argument '" + argumentList.get(i) + "' was not understood - please check  cdm help tree");
+					CommandCtrl.exit(4);
+			}
 		}
 
-		// TODO :: if this is just one file (e.g. toLowerCase() ends on .cdm) then actually just load that one file instead!
-		// (however, not sure if the tree can be constructed from just one file... ah well, it will work out somehow ^^)
+		// if just one .cdm file is given, the tree only contains what is in that file and the files it links to
 		CommandCtrl.loadCdm();
 		
 		Set<CdmMonitoringControlElement> roots = CommandCtrl.getCdmCtrl().getAllMcmTreeRoots();
 		
 		if (roots.size() < 1) {
 			System.err.println("The CDM that you specified does not seem to contain an MCM tree!");
-			System.exit(12);
+			CommandCtrl.exit(12);
 		}
-		
-		boolean isFirst = true;
 
-		List<String> argumentList = CommandCtrl.getArgumentList();
+		List<CdmMonitoringControlElement> startElements = new ArrayList<>(roots);
+
+		if (subtreeUuid != null) {
+			CdmMonitoringControlElement subtreeRoot = findInTree(roots, subtreeUuid);
+			if (subtreeRoot == null) {
+				System.err.println("The MCM tree does not contain an element with the UUID " + subtreeUuid + "!");
+				CommandCtrl.exit(12);
+			}
+			startElements.clear();
+			startElements.add(subtreeRoot);
+		}
+
+		// the tree can be huge, so write it out all in one go instead of line by line
+		Writer out = new BufferedWriter(new OutputStreamWriter(System.out), BUFFER_SIZE);
+
+		try {
+			boolean isFirst = true;
+
+			for (CdmMonitoringControlElement start : startElements) {
 
-		for (CdmMonitoringControlElement root : roots) {
+				if (!isFirst) {
+					out.write(System.lineSeparator());
+				}
 
-			if (!isFirst) {
-				System.out.println("");
+				showTree(start, out, showUuid, maxDepth, maxSiblings);
+
+				isFirst = false;
 			}
 
-			recursivelyShowTree(root, "", argumentList.contains("-u"));
+			out.flush();
 
-			isFirst = false;
+		} catch (IOException e) {
+			System.err.println("The tree could not be written: " + e.getMessage());
+			CommandCtrl.exit(13);
 		}
 	}
 
-	private static void recursivelyShowTree(CdmMonitoringControlElement mce, String prefix, boolean showUuid) {
-		
-		String curline = prefix + mce.getName();
-		
-		if (showUuid) {
-			curline += " [" + UuidEncoderDecoder.convertEcoreUUIDtoJava(mce.getId()) + "]";
+	private static int parseAmount(String argument, String value) {
+
+		try {
+			if (value != null) {
+				int result = Integer.parseInt(value);
+				if (result >= 0) {
+					return result;
+				}
+			}
+		} catch (NumberFormatException e) {
+			// complain below
 		}
-		
-		System.out.println(curline);
-		
-		for (CdmMonitoringControlElement child : mce.getSubElements()) {
-			recursivelyShowTree(child, "  " + prefix, showUuid);
+
+		System.err.println("The argument " + argument + " needs to be followed by a number that is zero or more, not '" + value + "'.");
+		CommandCtrl.exit(4);
+		return 0;
+	}
+
+	/**
+	 * Find the element with the given (ecore) UUID in the trees below the given roots, or return null
+	 */
+	private static CdmMonitoringControlElement findInTree(Set<CdmMonitoringControlElement> roots, String uuid) {
+
+		Deque<CdmMonitoringControlElement> toVisit = new ArrayDeque<>(roots);
+
+		while (!toVisit.isEmpty()) {
+			CdmMonitoringControlElement mce = toVisit.pop();
+			if (uuid.equals(mce.getId())) {
+				return mce;
+			}
+			for (CdmMonitoringControlElement child : mce.getSubElements()) {
+				toVisit.push(child);
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Show the tree below the given element, walking it with a stack of our own instead of recursing,
+	 * so that even very deep trees cannot overflow the call stack
+	 */
+	private static void showTree(CdmMonitoringControlElement start, Writer out, boolean showUuid, int maxDepth, int maxSiblings)
+		throws IOException {
+
+		Deque<TreeLine> toShow = new ArrayDeque<>();
+		toShow.push(new TreeLine(start, 0, 0));
+
+		while (!toShow.isEmpty()) {
+
+			TreeLine line = toShow.pop();
+
+			for (int i = 0; i < line.depth; i++) {
+				out.write("  ");
+			}
+
+			if (line.mce == null) {
+				out.write("... and " + line.collapsedAmount + " more");
+				out.write(System.lineSeparator());
+				continue;
+			}
+
+			out.write(String.valueOf(line.mce.getName()));
+
+			if (showUuid) {
+				out.write(" [");
+				out.write(UuidEncoderDecoder.convertEcoreUUIDtoJava(line.mce.getId()));
+				out.write("]");
+			}
+
+			out.write(System.lineSeparator());
+
+			if (line.depth >= maxDepth) {
+				continue;
+			}
+
+			List<CdmMonitoringControlElement> children = line.mce.getSubElements();
+			int shownAmount = Math.min(children.size(), maxSiblings);
+
+			// push in reverse, so that the children come off the stack in their original order
+			if (shownAmount < children.size()) {
+				toShow.push(new TreeLine(null, line.depth + 1, children.size() - shownAmount));
+			}
+			for (int i = shownAmount - 1; i >= 0; i--) {
+				toShow.push(new TreeLine(children.get(i), line.depth + 1, 0));
+			}
 		}
 	}
 
@@ -90,8 +231,32 @@ public class Tree implements Command {
 		result.add(HELP_TREE);
 		result.add("  Optional modifiers:");
 		result.add("    -u .. also show the UUID of each element in the tree");
+		result.add("    -depth <n> .. only show the elements at most n levels below the top (0 shows just the top)");
+		result.add("    -r <uuid> .. only show the subtree below the element with this UUID");
+		result.add("    -collapse <n> .. show at most n children of each element, followed by how many more there are");
 		// TODO :: -a to show activities, -p to show parameters, -e to show events, -* to show all (but check if that is a problem in bash!)
 
 		return result;
 	}
+
+
+	/**
+	 * One line of the tree that is still to be shown - either an element, or (if the element
+	 * is null) the note that some more siblings have been collapsed
+	 */
+	private static class TreeLine {
+
+		private CdmMonitoringControlElement mce;
+
+		private int depth;
+
+		private int collapsedAmount;
+
+
+		public TreeLine(CdmMonitoringControlElement mce, int depth, int collapsedAmount) {
+			this.mce = mce;
+			this.depth = depth;
+			this.collapsedAmount = collapsedAmount;
+		}
+	}
 }
@@ -5,11 +5,18 @@
 package com.asofterspace.cdm.commands;
 
 import com.asofterspace.cdm.CommandCtrl;
+import com.asofterspace.cdm.coders.FastUuidCodec;
 import com.asofterspace.cdm.interfaces.Command;
 import com.asofterspace.toolbox.coders.ConversionException;
 import com.asofterspace.toolbox.coders.UuidEncoderDecoder;
 import com.asofterspace.toolbox.coders.UuidEncoderDecoder.UuidKind;
 
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -17,7 +24,11 @@ import java.util.Map;
 
 public class Uuid implements Command {
 
-	private final String HELP_UUID = "uuid [-k <kind>] [<uuid>] .. generates or converts a UUID";
+	private final String HELP_UUID = "uuid [-k <kind>] [-count <n>] [<uuid>|-] .. generates or converts a UUID";
+
+	private final static int BUFFER_SIZE = 256 * 1024;
+
+	private final static byte NEWLINE = '\n';
 
 
 	@Override
@@ -39,6 +50,44 @@ public class Uuid implements Command {
 		}
 
 		String pathArg = CommandCtrl.getPathArg();
+
+		// in bulk, UUIDs are generated or converted by the hundred thousands, so they are not
+		// handled one by one through the UuidEncoderDecoder, but straight on the bytes
+		if (arguments.containsKey("-count") || "-".equals(pathArg)) {
+
+			boolean toEcore;
+
+			switch (kind.toLowerCase()) {
+				case "java":
+				case "-":
+					toEcore = false;
+					break;
+				case "ecore":
+				case "emf":
+					toEcore = true;
+					break;
+				default:
+					System.err.println("UUIDs in the format '" + kind + "' cannot be handled, as the format is not known... sorry!");
+					CommandCtrl.exit(10);
+					return;
+			}
+
+			try {
+				if (arguments.containsKey("-count")) {
+					generateInBulk(parseCount(arguments.get("-count")), toEcore);
+				} else {
+					int failedAmount = convertInBulk(System.in, toEcore);
+					if (failedAmount > 0) {
+						System.err.println(failedAmount + " of the given lines could not be converted, so they have been left empty.");
+						CommandCtrl.exit(11);
+					}
+				}
+			} catch (IOException e) {
+				System.err.println("The UUIDs could not be read or written: " + e.getMessage());
+				CommandCtrl.exit(13);
+			}
+			return;
+		}
 		
 		// if no argument is given...
 		if (pathArg == null) {
@@ -56,7 +105,7 @@ public class Uuid implements Command {
 				default:
 					System.err.println("A UUID in the format '" + kind +
 						"' cannot be created, as the format is not known... sorry!");
-					System.exit(10);
+					CommandCtrl.exit(10);
 			}
 		}
 		
@@ -71,7 +120,7 @@ public class Uuid implements Command {
 					System.out.println(UuidEncoderDecoder.ensureUUIDisJava(pathArg));
 				} catch (ConversionException e) {
 					System.err.println(e.getMessage());
-					System.exit(11);
+					CommandCtrl.exit(11);
 				}
 				break;
 			case "ecore":
@@ -80,14 +129,185 @@ public class Uuid implements Command {
 					System.out.println(UuidEncoderDecoder.ensureUUIDisEcore(pathArg));
 				} catch (ConversionException e) {
 					System.err.println(e.getMessage());
-					System.exit(11);
+					CommandCtrl.exit(11);
 				}
 				break;
 			default:
 				System.err.println("Your UUID cannot be converted into the format '" + kind +
 					"', as the format is not known... sorry!");
-				System.exit(10);
+				CommandCtrl.exit(10);
+		}
+	}
+
+	private static long parseCount(String countStr) {
+
+		try {
+			long result = Long.parseLong(countStr);
+			if (result >= 0) {
+				return result;
+			}
+		} catch (NumberFormatException e) {
+			// complain below
+		}
+
+		System.err.println("The amount of UUIDs to generate needs to be a number that is zero or more, not '" + countStr + "'.");
+		CommandCtrl.exit(4);
+		return 0;
+	}
+
+	private static void generateInBulk(long count, boolean toEcore) throws IOException {
+
+		OutputStream out = new BufferedOutputStream(System.out, BUFFER_SIZE);
+
+		// if the fast codec does not agree with the toolbox, just take the slow road
+		if (!FastUuidCodec.isCompatible()) {
+			for (long i = 0; i < count; i++) {
+				String uuid = toEcore ? UuidEncoderDecoder.generateEcoreUUID() : UuidEncoderDecoder.generateJavaUUID();
+				out.write(uuid.getBytes(StandardCharsets.US_ASCII));
+				out.write(NEWLINE);
+			}
+			out.flush();
+			return;
+		}
+
+		FastUuidCodec codec = new FastUuidCodec();
+		SecureRandom random = new SecureRandom();
+
+		// get the randomness for many UUIDs at once, which is much faster than asking for each one
+		byte[] randomBytes = new byte[16 * 4096];
+		int randomPos = randomBytes.length;
+
+		byte[] line = new byte[FastUuidCodec.JAVA_LENGTH + 1];
+
+		for (long i = 0; i < count; i++) {
+
+			if (randomPos == randomBytes.length) {
+				random.nextBytes(randomBytes);
+				randomPos = 0;
+			}
+
+			codec.setRandom(randomBytes, randomPos);
+			randomPos += 16;
+
+			int length = toEcore ? codec.encodeEcore(line, 0) : codec.encodeJava(line, 0);
+			line[length] = NEWLINE;
+			out.write(line, 0, length + 1);
+		}
+
+		out.flush();
+	}
+
+	/**
+	 * Convert each line of the input into a UUID of the given kind, returning the amount of lines
+	 * which could not be converted (and which are left empty in the output)
+	 */
+	private static int convertInBulk(InputStream in, boolean toEcore) throws IOException {
+
+		OutputStream out = new BufferedOutputStream(System.out, BUFFER_SIZE);
+
+		boolean useFastCodec = FastUuidCodec.isCompatible();
+		FastUuidCodec codec = new FastUuidCodec();
+
+		byte[] buffer = new byte[BUFFER_SIZE];
+		byte[] line = new byte[256];
+		int lineLength = 0;
+		boolean lineTooLong = false;
+		int failedAmount = 0;
+
+		while (true) {
+
+			int read = in.read(buffer);
+
+			for (int i = 0; i < read; i++) {
+
+				byte b = buffer[i];
+
+				if (b != NEWLINE) {
+					if (lineLength < line.length) {
+						line[lineLength++] = b;
+					} else {
+						lineTooLong = true;
+					}
+					continue;
+				}
+
+				if (!convertLine(line, lineLength, lineTooLong, toEcore, useFastCodec, codec, out)) {
+					failedAmount++;
+				}
+				lineLength = 0;
+				lineTooLong = false;
+			}
+
+			if (read < 0) {
+				break;
+			}
 		}
+
+		// the last line might not end with a line break
+		if ((lineLength > 0) || lineTooLong) {
+			if (!convertLine(line, lineLength, lineTooLong, toEcore, useFastCodec, codec, out)) {
+				failedAmount++;
+			}
+		}
+
+		out.flush();
+
+		return failedAmount;
+	}
+
+	private static boolean convertLine(byte[] line, int length, boolean tooLong, boolean toEcore,
+		boolean useFastCodec, FastUuidCodec codec, OutputStream out) throws IOException {
+
+		// ignore surrounding whitespace (including the carriage returns of Windows line breaks)
+		int start = 0;
+		while ((start < length) && (line[start] <= ' ')) {
+			start++;
+		}
+		while ((length > start) && (line[length - 1] <= ' ')) {
+			length--;
+		}
+
+		if ((start == length) && !tooLong) {
+			out.write(NEWLINE);
+			return true;
+		}
+
+		if (useFastCodec && !tooLong) {
+
+			// UUIDs that already are of the right kind are handed back just as they are
+			boolean isJava = codec.decodeJava(line, start, length - start);
+			boolean isEcore = !isJava && codec.decodeEcore(line, start, length - start);
+
+			if ((toEcore && isEcore) || (!toEcore && isJava)) {
+				out.write(line, start, length - start);
+				out.write(NEWLINE);
+				return true;
+			}
+
+			if (isJava || isEcore) {
+				int end = toEcore ? codec.encodeEcore(line, 0) : codec.encodeJava(line, 0);
+				out.write(line, 0, end);
+				out.write(NEWLINE);
+				return true;
+			}
+		}
+
+		// anything that the fast codec does not understand goes through the toolbox after all
+		String uuid = new String(line, start, length - start, StandardCharsets.UTF_8);
+
+		try {
+			String converted = toEcore ? UuidEncoderDecoder.ensureUUIDisEcore(uuid) : UuidEncoderDecoder.ensureUUIDisJava(uuid);
+			if (!tooLong && (converted != null)) {
+				out.write(converted.getBytes(StandardCharsets.UTF_8));
+				out.write(NEWLINE);
+				return true;
+			}
+		} catch (ConversionException e) {
+			// report it below
+		}
+
+		out.write(NEWLINE);
+		return false;
 	}
 
 	@Override
@@ -109,6 +329,11 @@ public class Uuid implements Command {
 		result.add("");
 		result.add("If no <uuid> argument is given, a new random UUID is generated.");
 		result.add("If a <uuid> arguments is given, the given UUID is converted to a UUID of the specified kind.");
+		result.add("");
+		result.add("For handling many UUIDs at once:");
+		result.add("  -count <n> .. generates n new random UUIDs of the specified kind, one per line");
+		result.add("  - .. instead of a <uuid>, reads UUIDs from the input (one per line) and writes each one");
+		result.add("       converted to the specified kind to the output (lines that cannot be converted are left empty)");
 
 		return result;
 	}
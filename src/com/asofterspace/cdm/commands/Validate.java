@@ -5,15 +5,43 @@
 package com.asofterspace.cdm.commands;
 
 import com.asofterspace.cdm.CommandCtrl;
+import com.asofterspace.cdm.Main;
+import com.asofterspace.cdm.events.CdmEvents;
+import com.asofterspace.cdm.events.CdmEventType;
+import com.asofterspace.cdm.index.CdmElement;
+import com.asofterspace.cdm.index.CdmFileIndex;
+import com.asofterspace.cdm.index.CdmIndex;
+import com.asofterspace.cdm.index.CdmUuid;
 import com.asofterspace.cdm.interfaces.Command;
+import com.asofterspace.cdm.validation.CdmValidationCache;
+import com.asofterspace.toolbox.cdm.CdmCtrl;
 
+import java.io.File;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 public class Validate implements Command {
 
-	private final String HELP_VALIDATE = "validate <cdmPath> .. validates the CDM";
+	private final String HELP_VALIDATE = "validate [--sharded] [--timings] [--no-cache] <cdmPath> .. validates the CDM";
+
+	private final static String OPTION_SHARDED = "--sharded";
+	private final static String OPTION_TIMINGS = "--timings";
+	private final static String OPTION_NO_CACHE = "--no-cache";
+
+	private List<String> timings;
+
+	private CdmValidationCache validationCache;
 
 
 	@Override
@@ -24,19 +52,63 @@ public class Validate implements Command {
 	@Override
 	public void execute() {
 
-		CommandCtrl.useArgMapWithOnePath();
+		CommandCtrl.useArgTokensWithOnePath();
 
 		if (CommandCtrl.getPathArg() == null) {
 			System.err.println("You called  cdm validate  but did not specify a CDM path of the CDM that should be validated - please do.");
-			System.exit(4);
+			CommandCtrl.exit(4);
 		}
 
-		// TODO :: if this is just one file (e.g. toLowerCase() ends on .cdm) then actually just load that one file instead!
-		CommandCtrl.loadCdm();
+		boolean sharded = false;
+		boolean reportTimings = false;
+		boolean useValidationCache = true;
+
+		for (String argument : CommandCtrl.getArgumentList()) {
+			if (OPTION_SHARDED.equalsIgnoreCase(argument)) {
+				sharded = true;
+			} else if (OPTION_TIMINGS.equalsIgnoreCase(argument)) {
+				reportTimings = true;
+			} else if (OPTION_NO_CACHE.equalsIgnoreCase(argument)) {
+				useValidationCache = false;
+			} else {
+				System.err.println("The argument '" + argument + "' was not understood - please check  cdm help validate");
+				CommandCtrl.exit(4);
+			}
+		}
+
+		timings = new ArrayList<>();
+		long startTime = System.nanoTime();
+
+		// remember results per directory - but not for CDMs that are kept loaded, as these
+		// might have been changed in memory without having been saved yet
+		validationCache = null;
+		File cdmDir = new File(CommandCtrl.resolvePath(CommandCtrl.getPathArg()));
+		if (useValidationCache && cdmDir.isDirectory() && (CommandCtrl.getCdmCache() == null)) {
+			validationCache = new CdmValidationCache(cdmDir, Main.VERSION_NUMBER + " " + Main.VERSION_DATE);
+		}
 
 		List<String> problems = new ArrayList<>();
+		int problemAmount;
+
+		// when the CDM is kept loaded anyway, it is quickest to just check the loaded one
+		if (sharded && (CommandCtrl.getCdmCache() == null)) {
+			problemAmount = checkValidityByGroups(problems);
+		} else {
+			problemAmount = checkValidity(problems);
+		}
+
+		if (validationCache != null) {
+			validationCache.save();
+		}
 
-		int problemAmount = CommandCtrl.getCdmCtrl().checkValidity(problems);
+		if (reportTimings) {
+			timings.add("total: " + millisSince(startTime) + " ms");
+			System.out.println("Timings:");
+			for (String timing : timings) {
+				System.out.println("  " + timing);
+			}
+			System.out.println("");
+		}
 
 		if (problemAmount > 0) {
 			System.err.println("The CDM does not seem to be valid.");
@@ -50,12 +122,214 @@ public class Validate implements Command {
 			for (String problem : problems) {
 				System.err.println(problem);
 			}
-			System.exit(6);
+			CommandCtrl.exit(6);
 		}
 
 		System.out.println("The CDM looks valid to me!");
 	}
 
+	/**
+	 * Check the entire CDM at once - the CDM checks look at the whole model, so their result is
+	 * only remembered for the CDM as a whole, not per group of files (as for --sharded)
+	 */
+	private int checkValidity(List<String> problems) {
+
+		String cacheKey = null;
+
+		if (validationCache != null) {
+			long indexStart = System.nanoTime();
+
+			CdmIndex index = CommandCtrl.indexCdm(CommandCtrl.getPathArg(), true);
+			cacheKey = validationCache.getKey(index.getFiles());
+			CdmValidationCache.Result cached = validationCache.get(cacheKey);
+
+			timings.add("indexing " + index.getFiles().size() + " files: " + millisSince(indexStart) + " ms");
+
+			if (cached != null) {
+				timings.add("no file changed since the last validation, so its result is used");
+				problems.addAll(cached.getProblems());
+				return cached.getProblemAmount();
+			}
+		}
+
+		long loadStart = System.nanoTime();
+
+		CommandCtrl.loadCdm();
+
+		timings.add("loading the CDM: " + millisSince(loadStart) + " ms");
+
+		long checkStart = System.nanoTime();
+
+		CdmEventType.Event event = CdmEvents.VALIDATION.begin();
+
+		int result = CommandCtrl.getCdmCtrl().checkValidity(problems);
+
+		if (event != null) {
+			event.commit("checkValidity", CommandCtrl.getPathArg(), result);
+		}
+
+		timings.add("checking its validity: " + millisSince(checkStart) + " ms");
+
+		if (cacheKey != null) {
+			validationCache.put(cacheKey, result, problems);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Split the CDM into groups of files that do not link to each other, check these groups
+	 * in parallel, and afterwards check the UUIDs across all groups
+	 */
+	private int checkValidityByGroups(List<String> problems) {
+
+		long indexStart = System.nanoTime();
+
+		CdmIndex index = CommandCtrl.indexCdm(CommandCtrl.getPathArg(), true);
+
+		List<ValidationGroup> groups = new ArrayList<>();
+		List<ValidationGroup> groupsToCheck = new ArrayList<>();
+
+		for (List<String> paths : index.getLinkedGroups()) {
+			ValidationGroup group = new ValidationGroup(index, paths);
+			groups.add(group);
+
+			// groups in which no file changed since the last validation need not be checked again
+			// (as groups contain all files that link to each other, this also covers the files that
+			// depend on the ones that changed)
+			if (validationCache != null) {
+				group.setCacheKey(validationCache.getKey(group.getFiles()));
+				CdmValidationCache.Result cached = validationCache.get(group.getCacheKey());
+				if (cached != null) {
+					group.setCachedResult(cached);
+					continue;
+				}
+			}
+			groupsToCheck.add(group);
+		}
+
+		timings.add("indexing " + index.getFiles().size() + " files into " + groups.size() + " groups: " +
+			millisSince(indexStart) + " ms");
+
+		// start with the largest groups, so that no thread is left with a large one at the end
+		List<ValidationGroup> largestFirst = new ArrayList<>(groupsToCheck);
+		Collections.sort(largestFirst, new Comparator<ValidationGroup>() {
+			public int compare(ValidationGroup a, ValidationGroup b) {
+				return Long.compare(b.getSize(), a.getSize());
+			}
+		});
+
+		int threads = Math.max(1, Math.min(CommandCtrl.getThreadCount(), groupsToCheck.size()));
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+		try {
+			List<Future<ValidationGroup>> futures = new ArrayList<>();
+			for (ValidationGroup group : largestFirst) {
+				futures.add(pool.submit(group));
+			}
+			for (Future<ValidationGroup> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException | ExecutionException e) {
+			System.err.println("The CDM could not be validated: " + e.getMessage());
+			CommandCtrl.exit(3);
+		} finally {
+			pool.shutdown();
+		}
+
+		int result = 0;
+		boolean loadingFailed = false;
+
+		// report in the order of the files, no matter which group was done first
+		for (int i = 0; i < groups.size(); i++) {
+			ValidationGroup group = groups.get(i);
+
+			if (group.hasLoadingFailed()) {
+				loadingFailed = true;
+				continue;
+			}
+
+			problems.addAll(group.getProblems());
+			result += group.getProblemAmount();
+
+			if (group.isCached()) {
+				timings.add("group " + (i + 1) + " of " + groups.size() + " (" + group.getDescription() + "): unchanged");
+				continue;
+			}
+
+			timings.add("group " + (i + 1) + " of " + groups.size() + " (" + group.getDescription() + "): loading " +
+				group.getLoadMillis() + " ms, checking " + group.getCheckMillis() + " ms");
+
+			if (validationCache != null) {
+				validationCache.put(group.getCacheKey(), group.getProblemAmount(), group.getProblems());
+			}
+		}
+
+		if (loadingFailed) {
+			CommandCtrl.exit(3);
+		}
+
+		long uuidStart = System.nanoTime();
+
+		CdmEventType.Event event = CdmEvents.VALIDATION.begin();
+
+		int uuidProblemAmount = checkUuidsAcrossGroups(groups, problems);
+		result += uuidProblemAmount;
+
+		if (event != null) {
+			event.commit("unique UUIDs across groups", CommandCtrl.getPathArg(), uuidProblemAmount);
+		}
+
+		timings.add("checking UUIDs across groups: " + millisSince(uuidStart) + " ms");
+
+		return result;
+	}
+
+	/**
+	 * Within a group, the CDM checks themselves complain about UUIDs that are used twice - but
+	 * across groups, we have to find them ourselves
+	 */
+	private int checkUuidsAcrossGroups(List<ValidationGroup> groups, List<String> problems) {
+
+		if (groups.size() < 2) {
+			return 0;
+		}
+
+		int result = 0;
+
+		Map<CdmUuid, Integer> groupOfUuid = new HashMap<>();
+		Map<CdmUuid, String> fileOfUuid = new HashMap<>();
+
+		for (int i = 0; i < groups.size(); i++) {
+			for (CdmFileIndex file : groups.get(i).getFiles()) {
+				for (CdmElement element : file.getElements()) {
+
+					CdmUuid uuid = element.getPackedUuid();
+
+					if (uuid == null) {
+						continue;
+					}
+
+					Integer otherGroup = groupOfUuid.get(uuid);
+
+					if (otherGroup == null) {
+						groupOfUuid.put(uuid, i);
+						fileOfUuid.put(uuid, file.getPath());
+					} else if (otherGroup != i) {
+						problems.add("The UUID " + uuid + " is used in " + fileOfUuid.get(uuid) + " as well as in " + file.getPath() + "!");
+						result++;
+					}
+				}
+			}
+		}
+
+		return result;
+	}
+
+	private static long millisSince(long startNanos) {
+		return (System.nanoTime() - startNanos) / 1000000;
+	}
+
 	@Override
 	public String getShortHelp() {
 		return HELP_VALIDATE;
@@ -63,6 +337,158 @@ public class Validate implements Command {
 
 	@Override
 	public List<String> getLongHelp() {
-		return null;
+
+		List<String> result = new ArrayList<>();
+
+		result.add(HELP_VALIDATE);
+		result.add("");
+		result.add("  --sharded .. split the CDM into groups of files that do not link to each other, and validate");
+		result.add("               these groups in parallel (using as many threads as given with -j), checking");
+		result.add("               afterwards that no UUID is used in several groups; checks that need the entire");
+		result.add("               CDM at once (e.g. about its MCM tree roots) then only see one group at a time,");
+		result.add("               and UUIDs used in several groups are reported with a message of their own - so the");
+		result.add("               problems reported can differ from those of validating the entire CDM at once");
+		result.add("  --timings .. report how long loading and checking took (for each group, if sharded)");
+		result.add("  --no-cache .. check everything, even if it has not changed since the last validation");
+		result.add("");
+		result.add("  The results of validating a CDM directory are remembered in the file " + CdmValidationCache.CACHE_FILE_NAME);
+		result.add("  within it, keyed by the contents of the validated files. If none of them changed, the remembered");
+		result.add("  result is reported instead of checking the CDM again. Without --sharded, the remembered result");
+		result.add("  covers the entire CDM, so changing any one file means that all of the CDM is checked again.");
+		result.add("  With --sharded, this is decided for each group of files that link to each other, so only the");
+		result.add("  groups containing changed files are checked (with the differences in reporting named above).");
+
+		return result;
+	}
+
+
+	/**
+	 * A group of files that is validated on its own, on one of the worker threads
+	 */
+	private static class ValidationGroup implements Callable<ValidationGroup> {
+
+		private List<CdmFileIndex> files = new ArrayList<>();
+
+		private String description;
+
+		private long size = 0;
+
+		private List<String> problems = new ArrayList<>();
+
+		private int problemAmount = 0;
+
+		private boolean loadingFailed = false;
+
+		private String cacheKey;
+
+		private boolean cached = false;
+
+		private long loadMillis;
+
+		private long checkMillis;
+
+
+		public ValidationGroup(CdmIndex index, List<String> paths) {
+
+			for (String path : paths) {
+				CdmFileIndex file = index.getFile(path);
+				files.add(file);
+				size += file.getSize();
+			}
+
+			Path cdmDir = new File(CommandCtrl.resolvePath(CommandCtrl.getPathArg())).toPath();
+			description = cdmDir.relativize(new File(paths.get(0)).toPath()).toString();
+			if (paths.size() == 2) {
+				description += " and 1 more file";
+			} else if (paths.size() > 2) {
+				description += " and " + (paths.size() - 1) + " more files";
+			}
+		}
+
+		@Override
+		public ValidationGroup call() {
+
+			List<File> cdmFiles = new ArrayList<>();
+			for (CdmFileIndex file : files) {
+				cdmFiles.add(new File(file.getPath()));
+			}
+
+			long loadStart = System.nanoTime();
+
+			CdmCtrl cdmCtrl = CommandCtrl.loadCdmFiles(cdmFiles, true, false);
+
+			loadMillis = millisSince(loadStart);
+
+			if (cdmCtrl == null) {
+				loadingFailed = true;
+				return this;
+			}
+
+			long checkStart = System.nanoTime();
+
+			CdmEventType.Event event = CdmEvents.VALIDATION.begin();
+
+			problemAmount = cdmCtrl.checkValidity(problems);
+
+			if (event != null) {
+				event.commit("checkValidity", description, problemAmount);
+			}
+
+			checkMillis = millisSince(checkStart);
+
+			CommandCtrl.discardLoadedFiles(cdmCtrl);
+
+			return this;
+		}
+
+		public void setCachedResult(CdmValidationCache.Result result) {
+			problems.addAll(result.getProblems());
+			problemAmount = result.getProblemAmount();
+			cached = true;
+		}
+
+		public boolean isCached() {
+			return cached;
+		}
+
+		public String getCacheKey() {
+			return cacheKey;
+		}
+
+		public void setCacheKey(String cacheKey) {
+			this.cacheKey = cacheKey;
+		}
+
+		public List<CdmFileIndex> getFiles() {
+			return files;
+		}
+
+		public String getDescription() {
+			return description;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		public List<String> getProblems() {
+			return problems;
+		}
+
+		public int getProblemAmount() {
+			return problemAmount;
+		}
+
+		public boolean hasLoadingFailed() {
+			return loadingFailed;
+		}
+
+		public long getLoadMillis() {
+			return loadMillis;
+		}
+
+		public long getCheckMillis() {
+			return checkMillis;
+		}
 	}
 }
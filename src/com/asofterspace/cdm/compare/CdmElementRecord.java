@@ -0,0 +1,134 @@
+/**
+ * Unlicensed code created by A Softer Space, 2019
+ * www.asofterspace.com/licenses/unlicense.txt
+ */
+package com.asofterspace.cdm.compare;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * What the external compare remembers about one element with a UUID: where it is, and a hash
+ * over its own contents (its tag, its attributes, its text, and all of its descendants that do not
+ * have a UUID of their own)
+ */
+public class CdmElementRecord implements Comparable<CdmElementRecord> {
+
+	private String uuid;
+
+	private String name;
+
+	private String xmlTag;
+
+	private String parentUuid;
+
+	private String file;
+
+	private long contentHash;
+
+
+	public CdmElementRecord(String uuid, String name, String xmlTag, String parentUuid, String file, long contentHash) {
+		this.uuid = uuid;
+		this.name = name;
+		this.xmlTag = xmlTag;
+		this.parentUuid = parentUuid;
+		this.file = file;
+		this.contentHash = contentHash;
+	}
+
+	public String getUuid() {
+		return uuid;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getXmlTag() {
+		return xmlTag;
+	}
+
+	public String getParentUuid() {
+		return parentUuid;
+	}
+
+	/**
+	 * The path of the file containing the element, relative to its CDM directory
+	 */
+	public String getFile() {
+		return file;
+	}
+
+	public long getContentHash() {
+		return contentHash;
+	}
+
+	/**
+	 * A rough guess of how many bytes of heap this record takes up
+	 */
+	public long estimateSize() {
+		return 160 + 2 * (length(uuid) + length(name) + length(xmlTag) + length(parentUuid) + length(file));
+	}
+
+	private static int length(String str) {
+		if (str == null) {
+			return 0;
+		}
+		return str.length();
+	}
+
+	@Override
+	public int compareTo(CdmElementRecord other) {
+		return uuid.compareTo(other.uuid);
+	}
+
+	public void write(DataOutputStream out) throws IOException {
+		writeString(out, uuid);
+		writeString(out, name);
+		writeString(out, xmlTag);
+		writeString(out, parentUuid);
+		writeString(out, file);
+		out.writeLong(contentHash);
+	}
+
+	/**
+	 * Read the next record from the given stream, or return null if the stream has ended
+	 */
+	public static CdmElementRecord read(DataInputStream in) throws IOException {
+
+		String uuid;
+
+		try {
+			uuid = readString(in);
+		} catch (EOFException e) {
+			return null;
+		}
+
+		return new CdmElementRecord(uuid, readString(in), readString(in), readString(in), readString(in), in.readLong());
+	}
+
+	// names might be longer than the 64 KB that writeUTF can handle, and may be null
+	private static void writeString(DataOutputStream out, String str) throws IOException {
+		if (str == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,377 @@
+/**
+ * Unlicensed code created by A Softer Space, 2019
+ * www.asofterspace.com/licenses/unlicense.txt
+ */
+package com.asofterspace.cdm.compare;
+
+import com.asofterspace.cdm.exceptions.CdmScanningException;
+import com.asofterspace.cdm.index.CdmFileReader;
+import com.asofterspace.cdm.index.CdmIndexer;
+import com.asofterspace.cdm.index.CdmXmlScanner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Compares two CDMs element by element (matching elements by their UUIDs) without ever having
+ * more than a given amount of them in memory, so that even CDMs that are larger than the heap
+ * can be compared
+ *
+ * Both sides are streamed through with the CdmXmlScanner, their elements are sorted by UUID
+ * with the CdmExternalSorter (spilling to temporary files as needed), and the two sorted streams
+ * are then merged to find elements that were added, removed or changed
+ */
+public class CdmExternalCompare {
+
+	private final static String ATTR_UUID = "xmi:id";
+	private final static String ATTR_NAME = "name";
+
+	// FNV-1a, which is good enough to notice changes and very cheap to compute byte by byte
+	private final static long HASH_START = 0xcbf29ce484222325L;
+	private final static long HASH_PRIME = 0x100000001b3L;
+
+	private long memoryBudget;
+
+	private int addedAmount = 0;
+
+	private int removedAmount = 0;
+
+	private int changedAmount = 0;
+
+
+	/**
+	 * Create a compare that keeps at most about the given amount of bytes of elements in memory
+	 */
+	public CdmExternalCompare(long memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * Compare the CDM in the right directory to the one in the left directory, writing one line
+	 * per difference (after a header line, if there are any differences at all)
+	 */
+	public int compare(File leftCdmDir, File rightCdmDir, Writer out) throws IOException, CdmScanningException {
+
+		Path tempDir = Files.createTempDirectory("cdm_compare");
+
+		try {
+			// the sorted records of the left side may still be in memory while the right side is
+			// being collected, so each side gets half of the budget
+			CdmExternalSorter.RecordStream left = collect(leftCdmDir, tempDir.toFile(), "left", memoryBudget / 2);
+
+			try (CdmExternalSorter.RecordStream right = collect(rightCdmDir, tempDir.toFile(), "right", memoryBudget / 2)) {
+				join(left, right, out);
+			} finally {
+				left.close();
+			}
+
+		} finally {
+			File[] tempFiles = tempDir.toFile().listFiles();
+			if (tempFiles != null) {
+				for (File tempFile : tempFiles) {
+					tempFile.delete();
+				}
+			}
+			tempDir.toFile().delete();
+		}
+
+		return addedAmount + removedAmount + changedAmount;
+	}
+
+	public int getAddedAmount() {
+		return addedAmount;
+	}
+
+	public int getRemovedAmount() {
+		return removedAmount;
+	}
+
+	public int getChangedAmount() {
+		return changedAmount;
+	}
+
+	private CdmExternalSorter.RecordStream collect(File cdmDir, File tempDir, String prefix, long budget)
+		throws IOException, CdmScanningException {
+
+		CdmExternalSorter sorter = new CdmExternalSorter(tempDir, prefix, budget);
+
+		Path basePath = cdmDir.getAbsoluteFile().toPath().normalize();
+
+		for (File cdmFile : CdmIndexer.getCdmFiles(cdmDir)) {
+			String relativePath = basePath.relativize(cdmFile.toPath()).toString();
+			try {
+				scanFile(cdmFile, relativePath, sorter);
+			} catch (CdmScanningException e) {
+				throw new CdmScanningException("The file " + cdmFile + " could not be scanned: " + e.getMessage(), e);
+			}
+		}
+
+		return sorter.finish();
+	}
+
+	private void scanFile(File cdmFile, String relativePath, CdmExternalSorter sorter) throws IOException, CdmScanningException {
+
+		try (FileChannel channel = FileChannel.open(cdmFile.toPath(), StandardOpenOption.READ)) {
+
+			// files of any size are scanned, as larger ones are mapped window by window
+			CdmXmlScanner scanner = CdmFileReader.forCurrentThread().open(channel, false);
+
+			// all open elements (null for the ones without UUID), and just the ones with UUIDs
+			List<OpenElement> openElements = new ArrayList<>();
+			List<OpenElement> owners = new ArrayList<>();
+
+			// where in the file the tag that was reported last ends
+			long lastTagEnd = 0;
+
+			while (true) {
+
+				int event = scanner.next();
+
+				if (event == CdmXmlScanner.END_DOCUMENT) {
+					break;
+				}
+
+				// the window (and so the buffer) may have moved on since the last tag
+				ByteBuffer buffer = scanner.getBuffer();
+
+				OpenElement owner = owners.isEmpty() ? null : owners.get(owners.size() - 1);
+
+				// the text before this tag belongs to the innermost element with a UUID
+				if (owner != null) {
+					owner.hash = hashText(owner.hash, channel, scanner, lastTagEnd);
+				}
+
+				if (event == CdmXmlScanner.START_ELEMENT) {
+
+					String uuid = scanner.getAttributeValue(ATTR_UUID);
+
+					if (uuid == null) {
+						openElements.add(null);
+						if (owner != null) {
+							owner.hash = hashTag(hash(owner.hash, (byte) '<'), buffer, scanner);
+						}
+					} else {
+						OpenElement element = new OpenElement();
+						element.uuid = uuid;
+						element.name = scanner.getAttributeValue(ATTR_NAME);
+						element.xmlTag = scanner.getTagName();
+						element.parentUuid = (owner == null) ? null : owner.uuid;
+						element.hash = hashTag(HASH_START, buffer, scanner);
+						openElements.add(element);
+						owners.add(element);
+					}
+
+				} else {
+
+					if (openElements.isEmpty()) {
+						throw new CdmScanningException("There are more closing than opening tags.");
+					}
+
+					OpenElement closed = openElements.remove(openElements.size() - 1);
+
+					if (closed == null) {
+						if (owner != null) {
+							owner.hash = hash(owner.hash, (byte) '>');
+						}
+					} else {
+						owners.remove(owners.size() - 1);
+						sorter.add(new CdmElementRecord(closed.uuid, closed.name, closed.xmlTag, closed.parentUuid,
+							relativePath, closed.hash));
+					}
+				}
+
+				lastTagEnd = scanner.getWindowOffset() + scanner.getTagEndOffset();
+			}
+
+			if (!openElements.isEmpty()) {
+				throw new CdmScanningException("The file ends before all tags have been closed.");
+			}
+		}
+	}
+
+	private void join(CdmExternalSorter.RecordStream left, CdmExternalSorter.RecordStream right, Writer out) throws IOException {
+
+		CdmElementRecord leftRecord = left.next();
+		CdmElementRecord rightRecord = right.next();
+
+		while ((leftRecord != null) || (rightRecord != null)) {
+
+			int comparison;
+			if (leftRecord == null) {
+				comparison = 1;
+			} else if (rightRecord == null) {
+				comparison = -1;
+			} else {
+				comparison = leftRecord.compareTo(rightRecord);
+			}
+
+			if (comparison < 0) {
+				writeDifference(out, "Removed: " + describe(leftRecord));
+				removedAmount++;
+				leftRecord = left.next();
+				continue;
+			}
+
+			if (comparison > 0) {
+				writeDifference(out, "Added: " + describe(rightRecord));
+				addedAmount++;
+				rightRecord = right.next();
+				continue;
+			}
+
+			List<String> changes = new ArrayList<>();
+
+			if (leftRecord.getContentHash() != rightRecord.getContentHash()) {
+				changes.add("its contents changed");
+			}
+			if (!equal(leftRecord.getParentUuid(), rightRecord.getParentUuid())) {
+				changes.add("it moved from under " + leftRecord.getParentUuid() + " to under " + rightRecord.getParentUuid());
+			}
+			if (!leftRecord.getFile().equals(rightRecord.getFile())) {
+				changes.add("it moved from " + leftRecord.getFile() + " to " + rightRecord.getFile());
+			}
+
+			if (changes.size() > 0) {
+				StringBuilder line = new StringBuilder("Changed: ");
+				line.append(describe(rightRecord));
+				line.append(" - ");
+				for (int i = 0; i < changes.size(); i++) {
+					if (i > 0) {
+						line.append(", ");
+					}
+					line.append(changes.get(i));
+				}
+				writeDifference(out, line.toString());
+				changedAmount++;
+			}
+
+			leftRecord = left.next();
+			rightRecord = right.next();
+		}
+	}
+
+	private void writeDifference(Writer out, String line) throws IOException {
+
+		if (addedAmount + removedAmount + changedAmount == 0) {
+			out.write("The following differences have been found:\n");
+		}
+
+		out.write(line);
+		out.write('\n');
+	}
+
+	private static String describe(CdmElementRecord record) {
+
+		StringBuilder result = new StringBuilder();
+
+		result.append(record.getUuid());
+
+		if (record.getName() != null) {
+			result.append(" '");
+			result.append(record.getName());
+			result.append("'");
+		}
+
+		result.append(" (");
+		result.append(record.getXmlTag());
+		result.append(" in ");
+		result.append(record.getFile());
+		result.append(")");
+
+		return result.toString();
+	}
+
+	private static boolean equal(String a, String b) {
+		if (a == null) {
+			return b == null;
+		}
+		return a.equals(b);
+	}
+
+	private static long hash(long hash, byte b) {
+		return (hash ^ (b & 0xFF)) * HASH_PRIME;
+	}
+
+	private static long hash(long hash, ByteBuffer buffer, int start, int end) {
+		for (int i = start; i < end; i++) {
+			hash = hash(hash, buffer.get(i));
+		}
+		return hash;
+	}
+
+	// hash the tag name and all attributes, but not the whitespace in between
+	private static long hashTag(long hash, ByteBuffer buffer, CdmXmlScanner scanner) {
+
+		hash = hash(hash, buffer, scanner.getTagNameStart(), scanner.getTagNameEnd());
+
+		for (int i = 0; i < scanner.getAttributeCount(); i++) {
+			hash = hash(hash, (byte) ' ');
+			hash = hash(hash, buffer, scanner.getAttributeNameStart(i), scanner.getAttributeNameEnd(i));
+			hash = hash(hash, (byte) '=');
+			hash = hash(hash, buffer, scanner.getAttributeValueStart(i), scanner.getAttributeValueEnd(i));
+		}
+
+		return hash;
+	}
+
+	// hash the text between the end of the previous tag (given as offset within the file) and the
+	// current tag - which, when scanning in windows, may have started in an earlier window already,
+	// so that part of it is read from the file again
+	private static long hashText(long hash, FileChannel channel, CdmXmlScanner scanner, long textStart) throws IOException {
+
+		long windowOffset = scanner.getWindowOffset();
+
+		if (textStart < windowOffset) {
+			ByteBuffer chunk = ByteBuffer.allocate((int) Math.min(64 * 1024, windowOffset - textStart));
+			for (long pos = textStart; pos < windowOffset; ) {
+				chunk.clear();
+				chunk.limit((int) Math.min(chunk.capacity(), windowOffset - pos));
+				int read = channel.read(chunk, pos);
+				if (read < 0) {
+					break;
+				}
+				hash = hashText(hash, chunk, 0, read);
+				pos += read;
+			}
+			textStart = windowOffset;
+		}
+
+		return hashText(hash, scanner.getBuffer(), (int) (textStart - windowOffset), scanner.getTagOffset());
+	}
+
+	// hash text content, ignoring whitespace, so that a file that is just indented differently is still the same
+	private static long hashText(long hash, ByteBuffer buffer, int start, int end) {
+
+		for (int i = start; i < end; i++) {
+			byte b = buffer.get(i);
+			if ((b != ' ') && (b != '\t') && (b != '\n') && (b != '\r')) {
+				hash = hash(hash, b);
+			}
+		}
+
+		return hash;
+	}
+
+
+	private static class OpenElement {
+
+		private String uuid;
+
+		private String name;
+
+		private String xmlTag;
+
+		private String parentUuid;
+
+		private long hash;
+	}
+}
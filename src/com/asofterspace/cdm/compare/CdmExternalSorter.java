@@ -0,0 +1,203 @@
+/**
+ * Unlicensed code created by A Softer Space, 2019
+ * www.asofterspace.com/licenses/unlicense.txt
+ */
+package com.asofterspace.cdm.compare;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+
+/**
+ * Sorts element records by their UUIDs without keeping all of them in memory: records are
+ * collected until the memory budget is used up, then sorted and spilled into a run file, and in
+ * the end, all run files are merged while they are being read
+ */
+public class CdmExternalSorter {
+
+	private final static int IO_BUFFER_SIZE = 64 * 1024;
+
+	private File tempDir;
+
+	private String prefix;
+
+	private long memoryBudget;
+
+	private List<CdmElementRecord> records = new ArrayList<>();
+
+	private long recordsSize = 0;
+
+	private List<File> runs = new ArrayList<>();
+
+
+	/**
+	 * Create a sorter spilling into run files (named with the given prefix) in the given directory,
+	 * keeping at most about the given amount of bytes of records in memory
+	 */
+	public CdmExternalSorter(File tempDir, String prefix, long memoryBudget) {
+		this.tempDir = tempDir;
+		this.prefix = prefix;
+		this.memoryBudget = memoryBudget;
+	}
+
+	public void add(CdmElementRecord record) throws IOException {
+
+		records.add(record);
+		recordsSize += record.estimateSize();
+
+		if (recordsSize >= memoryBudget) {
+			spill();
+		}
+	}
+
+	private void spill() throws IOException {
+
+		if (records.isEmpty()) {
+			return;
+		}
+
+		Collections.sort(records);
+
+		File run = new File(tempDir, prefix + runs.size() + ".run");
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), IO_BUFFER_SIZE))) {
+			for (CdmElementRecord record : records) {
+				record.write(out);
+			}
+		}
+
+		runs.add(run);
+		records.clear();
+		recordsSize = 0;
+	}
+
+	/**
+	 * Finish adding records and get all of them back, sorted by their UUIDs
+	 */
+	public RecordStream finish() throws IOException {
+
+		// if everything fit into memory, there is no need to go to the disk at all
+		if (runs.isEmpty()) {
+			Collections.sort(records);
+			final List<CdmElementRecord> sorted = records;
+			records = new ArrayList<>();
+			return new RecordStream() {
+				private int position = 0;
+
+				public CdmElementRecord next() {
+					if (position < sorted.size()) {
+						return sorted.get(position++);
+					}
+					return null;
+				}
+
+				public void close() {
+				}
+			};
+		}
+
+		spill();
+
+		return new MergingRecordStream(runs);
+	}
+
+
+	/**
+	 * Records, one after the other, in the order of their UUIDs
+	 */
+	public interface RecordStream extends Closeable {
+
+		/**
+		 * Get the next record, or null if there are no more records
+		 */
+		CdmElementRecord next() throws IOException;
+	}
+
+
+	/**
+	 * Merges several sorted run files into one sorted stream of records
+	 */
+	private static class MergingRecordStream implements RecordStream {
+
+		private List<DataInputStream> inputs = new ArrayList<>();
+
+		private PriorityQueue<RunHead> heads = new PriorityQueue<>();
+
+
+		public MergingRecordStream(List<File> runs) throws IOException {
+
+			// the buffers for reading are split among the runs, so that many runs do not take up much memory
+			int bufferSize = Math.max(4096, (16 * IO_BUFFER_SIZE) / runs.size());
+
+			try {
+				for (File run : runs) {
+					DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), bufferSize));
+					inputs.add(in);
+					CdmElementRecord first = CdmElementRecord.read(in);
+					if (first != null) {
+						heads.add(new RunHead(first, in));
+					}
+				}
+			} catch (IOException e) {
+				close();
+				throw e;
+			}
+		}
+
+		@Override
+		public CdmElementRecord next() throws IOException {
+
+			RunHead head = heads.poll();
+
+			if (head == null) {
+				return null;
+			}
+
+			CdmElementRecord result = head.record;
+
+			CdmElementRecord following = CdmElementRecord.read(head.in);
+			if (following != null) {
+				heads.add(new RunHead(following, head.in));
+			}
+
+			return result;
+		}
+
+		@Override
+		public void close() throws IOException {
+			for (DataInputStream in : inputs) {
+				in.close();
+			}
+		}
+	}
+
+
+	private static class RunHead implements Comparable<RunHead> {
+
+		private CdmElementRecord record;
+
+		private DataInputStream in;
+
+
+		public RunHead(CdmElementRecord record, DataInputStream in) {
+			this.record = record;
+			this.in = in;
+		}
+
+		@Override
+		public int compareTo(RunHead other) {
+			return record.compareTo(other.record);
+		}
+	}
+}
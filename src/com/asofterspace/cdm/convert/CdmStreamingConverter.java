@@ -0,0 +1,351 @@
+/**
+ * Unlicensed code created by A Softer Space, 2019
+ * www.asofterspace.com/licenses/unlicense.txt
+ */
+package com.asofterspace.cdm.convert;
+
+import com.asofterspace.cdm.events.CdmEvents;
+import com.asofterspace.cdm.events.CdmEventType;
+import com.asofterspace.cdm.exceptions.CdmScanningException;
+import com.asofterspace.cdm.index.CdmXmlScanner;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/**
+ * Converts CDM files to another version and / or version prefix without loading them into a model,
+ * for conversions that only consist of changing the CDM namespaces (such as prefix changes)
+ *
+ * Each file is streamed through the CdmXmlScanner and copied byte by byte, except for the values
+ * of namespace declarations and schema locations, which are rewritten - so apart from the namespaces,
+ * the converted files are exactly the same as before; several files are converted at the same time
+ */
+public class CdmStreamingConverter {
+
+	// CDM namespaces look like  <prefix><PackageName>/<version>
+	private final static Pattern CDM_NAMESPACE = Pattern.compile("^(.*/)([^/]+)/([^/]+)$");
+
+	private final static String ATTR_SCHEMA_LOCATION = "xsi:schemaLocation";
+
+	// each converting thread reads its files into its own buffer, re-using it for the next file
+	private final static ThreadLocal<ByteBuffer> READ_BUFFER = new ThreadLocal<ByteBuffer>() {
+		@Override
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocate(64 * 1024);
+		}
+	};
+
+	private String toVersion;
+
+	private String toPrefix;
+
+	private Set<String> knownVersions;
+
+	private String foundVersion;
+
+
+	/**
+	 * Create a converter to the given version and prefix (either of which may be null to keep
+	 * the current one), recognizing CDM namespaces by the given known CDM versions
+	 */
+	public CdmStreamingConverter(String toVersion, String toPrefix, Collection<String> knownVersions) {
+		this.toVersion = toVersion;
+		this.toPrefix = toPrefix;
+		this.knownVersions = new HashSet<>(knownVersions);
+	}
+
+	/**
+	 * Convert the given files (which are all within the source directory) on the given amount of
+	 * threads, writing each converted file to the same relative location within the destination
+	 * directory - or overwriting it, if the destination directory is null
+	 *
+	 * All files are converted into temporary files first, and only once every one of them has been
+	 * converted successfully do they replace their targets - so a file that cannot be converted
+	 * does not leave the CDM half converted
+	 */
+	public void convertFiles(List<File> cdmFiles, final File sourceDir, final File destinationDir, int threads)
+		throws IOException, CdmScanningException {
+
+		List<File> targets = new ArrayList<>();
+
+		for (File cdmFile : cdmFiles) {
+			File target = cdmFile;
+			if (destinationDir != null) {
+				Path relativePath = sourceDir.toPath().relativize(cdmFile.toPath());
+				target = new File(destinationDir, relativePath.toString());
+			}
+			targets.add(target);
+		}
+
+		List<File> tempFiles = new ArrayList<>();
+
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, cdmFiles.size())));
+
+		try {
+			List<Future<File>> futures = new ArrayList<>();
+
+			for (int i = 0; i < cdmFiles.size(); i++) {
+				final File cdmFile = cdmFiles.get(i);
+				final File target = targets.get(i);
+				futures.add(pool.submit(new Callable<File>() {
+					public File call() throws IOException, CdmScanningException {
+						return convertToTempFile(cdmFile, target);
+					}
+				}));
+			}
+
+			// wait for all of them, even if one fails, so that no temporary file is left behind
+			ExecutionException failure = null;
+
+			for (Future<File> future : futures) {
+				try {
+					tempFiles.add(future.get());
+				} catch (ExecutionException e) {
+					if (failure == null) {
+						failure = e;
+					}
+				}
+			}
+
+			if (failure != null) {
+				throw failure;
+			}
+
+		} catch (ExecutionException e) {
+			deleteAll(tempFiles);
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			if (e.getCause() instanceof CdmScanningException) {
+				throw (CdmScanningException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		} catch (InterruptedException e) {
+			deleteAll(tempFiles);
+			throw new IOException(e);
+		} finally {
+			pool.shutdown();
+		}
+
+		for (int i = 0; i < tempFiles.size(); i++) {
+			try {
+				moveIntoPlace(tempFiles.get(i), targets.get(i));
+			} catch (IOException e) {
+				deleteAll(tempFiles.subList(i, tempFiles.size()));
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * The CDM version that was found in the files before they were converted (if any CDM
+	 * namespace was found at all)
+	 */
+	public synchronized String getFoundVersion() {
+		return foundVersion;
+	}
+
+	/**
+	 * Convert one file, writing the result to a temporary file next to the target first, which
+	 * then replaces the target in one go
+	 */
+	public void convertFile(File cdmFile, File target) throws IOException, CdmScanningException {
+		moveIntoPlace(convertToTempFile(cdmFile, target), target);
+	}
+
+	/**
+	 * Convert one file into a temporary file next to the target, returning the temporary file
+	 *
+	 * The file is read into a buffer rather than being memory-mapped, as a mapped file cannot be
+	 * replaced on all platforms (e.g. on Windows) while the mapping is still around - and it stays
+	 * around until it happens to be garbage collected
+	 */
+	private File convertToTempFile(File cdmFile, File target) throws IOException, CdmScanningException {
+
+		CdmEventType.Event event = CdmEvents.CONVERSION.begin();
+
+		target.getAbsoluteFile().getParentFile().mkdirs();
+
+		File tempFile = new File(target.getAbsoluteFile().getParentFile(), "." + target.getName() + ".converting");
+
+		try (FileChannel channel = FileChannel.open(cdmFile.toPath(), StandardOpenOption.READ)) {
+
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new CdmScanningException("The file " + cdmFile + " is too large to be converted.");
+			}
+
+			ByteBuffer buffer = read(channel, (int) channel.size());
+
+			try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tempFile), 64 * 1024)) {
+				rewrite(buffer, out);
+			} catch (CdmScanningException e) {
+				throw new CdmScanningException("The file " + cdmFile + " could not be converted: " + e.getMessage(), e);
+			}
+
+		} catch (IOException | CdmScanningException e) {
+			tempFile.delete();
+			throw e;
+		}
+
+		if (event != null) {
+			event.commit(cdmFile.getPath(), getFoundVersion(), toVersion, "stream");
+		}
+
+		return tempFile;
+	}
+
+	/**
+	 * Read the whole file into the buffer of the current thread, which is kept for its next file
+	 */
+	private static ByteBuffer read(FileChannel channel, int size) throws IOException {
+
+		ByteBuffer buffer = READ_BUFFER.get();
+
+		if (buffer.capacity() < size) {
+			buffer = ByteBuffer.allocate(Math.max(size, 2 * buffer.capacity()));
+			READ_BUFFER.set(buffer);
+		}
+
+		buffer.clear();
+		buffer.limit(size);
+
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				// the file got shorter while we were reading it
+				break;
+			}
+		}
+
+		buffer.flip();
+
+		return buffer;
+	}
+
+	private static void moveIntoPlace(File tempFile, File target) throws IOException {
+		try {
+			Files.move(tempFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tempFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	private static void deleteAll(List<File> files) {
+		for (File file : files) {
+			file.delete();
+		}
+	}
+
+	private void rewrite(ByteBuffer buffer, OutputStream out) throws IOException, CdmScanningException {
+
+		CdmXmlScanner scanner = new CdmXmlScanner(buffer);
+
+		// everything up to here has already been written
+		int copiedUntil = buffer.position();
+
+		while (true) {
+
+			int event = scanner.next();
+
+			if (event == CdmXmlScanner.END_DOCUMENT) {
+				break;
+			}
+
+			if (event != CdmXmlScanner.START_ELEMENT) {
+				continue;
+			}
+
+			for (int i = 0; i < scanner.getAttributeCount(); i++) {
+
+				String attrName = scanner.getAttributeName(i);
+
+				if (!attrName.equals("xmlns") && !attrName.startsWith("xmlns:") && !attrName.equals(ATTR_SCHEMA_LOCATION)) {
+					continue;
+				}
+
+				String value = scanner.getAttributeValue(i);
+				String newValue = convertNamespaces(value);
+
+				if (newValue.equals(value)) {
+					continue;
+				}
+
+				copy(buffer, copiedUntil, scanner.getAttributeValueStart(i), out);
+				out.write(newValue.getBytes(scanner.getCharset()));
+				copiedUntil = scanner.getAttributeValueEnd(i);
+			}
+		}
+
+		copy(buffer, copiedUntil, buffer.limit(), out);
+	}
+
+	/**
+	 * Convert all CDM namespaces in the given (space-separated) list of URIs
+	 */
+	private String convertNamespaces(String value) {
+
+		StringBuilder result = new StringBuilder();
+		Matcher tokens = Pattern.compile("\\S+|\\s+").matcher(value);
+
+		while (tokens.find()) {
+			result.append(convertNamespace(tokens.group()));
+		}
+
+		return result.toString();
+	}
+
+	private String convertNamespace(String uri) {
+
+		Matcher matcher = CDM_NAMESPACE.matcher(uri);
+
+		if (!matcher.matches() || !knownVersions.contains(matcher.group(3))) {
+			return uri;
+		}
+
+		synchronized (this) {
+			if (foundVersion == null) {
+				foundVersion = matcher.group(3);
+			}
+		}
+
+		String prefix = (toPrefix == null) ? matcher.group(1) : toPrefix;
+		String version = (toVersion == null) ? matcher.group(3) : toVersion;
+
+		return prefix + matcher.group(2) + "/" + version;
+	}
+
+	private static void copy(ByteBuffer buffer, int from, int to, OutputStream out) throws IOException {
+
+		byte[] chunk = new byte[8192];
+
+		for (int pos = from; pos < to; pos += chunk.length) {
+			int length = Math.min(chunk.length, to - pos);
+			for (int i = 0; i < length; i++) {
+				chunk[i] = buffer.get(pos + i);
+			}
+			out.write(chunk, 0, length);
+		}
+	}
+}
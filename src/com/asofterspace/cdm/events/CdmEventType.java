@@ -0,0 +1,262 @@
+/**
+ * Unlicensed code created by A Softer Space, 2019
+ * www.asofterspace.com/licenses/unlicense.txt
+ */
+package com.asofterspace.cdm.events;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+
+/**
+ * A kind of event that the cdm tool reports to the JDK Flight Recorder (JFR), such that a recording
+ * shows which files, queries etc. the time went into
+ *
+ * The cdm tool still runs on Java 7, while JFR events can only be created from Java 11 onwards, so
+ * the event types are defined at runtime through the jdk.jfr.EventFactory, via reflection - if that
+ * is not available, or if no recording is running, begin() just returns null, and nothing else
+ * happens; while recording, the event knows its duration once it is committed
+ *
+ * Defining event types takes a few hundred milliseconds, so it is only done once the flight recorder
+ * is actually started (either right away with -XX:StartFlightRecording, or later e.g. with jcmd)
+ */
+public class CdmEventType {
+
+	private final static String CATEGORY = "CDM";
+
+	// all event types, so that they can all be told when recordings start and stop
+	private final static List<CdmEventType> ALL_TYPES = new CopyOnWriteArrayList<>();
+
+	// the parts of the JFR API that we use, or null if JFR is not available (or not looked up yet)
+	private static volatile Method createFactory;
+	private static Method newEvent;
+	private static Method getEventType;
+	private static Method isTypeEnabled;
+	private static Method beginEvent;
+	private static Method setField;
+	private static Method commitEvent;
+	private static Constructor<?> newAnnotation;
+	private static Constructor<?> newField;
+	private static Class<?> nameAnnotation;
+	private static Class<?> labelAnnotation;
+	private static Class<?> descriptionAnnotation;
+	private static Class<?> categoryAnnotation;
+
+	// whether the flight recorder has been started, so that event types should be defined
+	private static volatile boolean recorderInitialized = false;
+
+	static {
+		try {
+			if ((Boolean) Class.forName("jdk.jfr.FlightRecorder").getMethod("isInitialized").invoke(null)) {
+				lookUpJfr();
+				recorderInitialized = true;
+				listenToRecordings();
+			} else {
+				// getting ready for JFR takes a little while, so the command does not wait for it
+				Thread listenerThread = new Thread(new Runnable() {
+					public void run() {
+						try {
+							lookUpJfr();
+							listenToRecordings();
+						} catch (Exception | LinkageError e) {
+							// no events then
+						}
+					}
+				}, "cdm event listener");
+				listenerThread.setDaemon(true);
+				listenerThread.start();
+			}
+
+		} catch (Exception | LinkageError e) {
+			// no JFR (or not the one we know), so no events
+		}
+	}
+
+	private static void lookUpJfr() throws Exception {
+
+		Class<?> factoryClass = Class.forName("jdk.jfr.EventFactory");
+		Class<?> eventClass = Class.forName("jdk.jfr.Event");
+		Class<?> annotationClass = Class.forName("jdk.jfr.AnnotationElement");
+		Class<?> fieldClass = Class.forName("jdk.jfr.ValueDescriptor");
+
+		newEvent = factoryClass.getMethod("newEvent");
+		getEventType = factoryClass.getMethod("getEventType");
+		isTypeEnabled = Class.forName("jdk.jfr.EventType").getMethod("isEnabled");
+		beginEvent = eventClass.getMethod("begin");
+		setField = eventClass.getMethod("set", int.class, Object.class);
+		commitEvent = eventClass.getMethod("commit");
+		newAnnotation = annotationClass.getConstructor(Class.class, Object.class);
+		newField = fieldClass.getConstructor(Class.class, String.class, List.class);
+		nameAnnotation = Class.forName("jdk.jfr.Name");
+		labelAnnotation = Class.forName("jdk.jfr.Label");
+		descriptionAnnotation = Class.forName("jdk.jfr.Description");
+		categoryAnnotation = Class.forName("jdk.jfr.Category");
+
+		// set last, as this is what tells everyone else that the rest is ready
+		createFactory = factoryClass.getMethod("create", List.class, List.class);
+	}
+
+	private String name;
+	private String label;
+	private String description;
+	private String[] fieldNames;
+	private String[] fieldLabels;
+	private Class<?>[] fieldTypes;
+
+	// the jdk.jfr.EventFactory for this type, or null if it has not been defined (yet)
+	private Object factory;
+
+	private Object jfrEventType;
+
+	// whether a recording is running that wants this event, which is all that is checked while not recording
+	private volatile boolean enabled = false;
+
+
+	/**
+	 * Define an event type with the given name (e.g. cdm.FileSaved), label and description,
+	 * whose fields have the given names, labels and types (String, or primitives such as long)
+	 */
+	public CdmEventType(String name, String label, String description, String[] fieldNames, String[] fieldLabels, Class<?>[] fieldTypes) {
+
+		this.name = name;
+		this.label = label;
+		this.description = description;
+		this.fieldNames = fieldNames;
+		this.fieldLabels = fieldLabels;
+		this.fieldTypes = fieldTypes;
+
+		ALL_TYPES.add(this);
+
+		if (recorderInitialized) {
+			update();
+		}
+	}
+
+	/**
+	 * Define this event type for the flight recorder (unless that has been done already), and
+	 * find out if a recording wants it right now
+	 */
+	private synchronized void update() {
+
+		if (createFactory == null) {
+			return;
+		}
+
+		try {
+			if (factory == null) {
+				List<Object> annotations = new ArrayList<>();
+				annotations.add(annotation(nameAnnotation, name));
+				annotations.add(annotation(labelAnnotation, label));
+				annotations.add(annotation(descriptionAnnotation, description));
+				annotations.add(annotation(categoryAnnotation, new String[] {CATEGORY}));
+
+				List<Object> fields = new ArrayList<>();
+				for (int i = 0; i < fieldNames.length; i++) {
+					List<Object> fieldAnnotations = new ArrayList<>();
+					fieldAnnotations.add(annotation(labelAnnotation, fieldLabels[i]));
+					fields.add(newField.newInstance(fieldTypes[i], fieldNames[i], fieldAnnotations));
+				}
+
+				factory = createFactory.invoke(null, annotations, fields);
+				jfrEventType = getEventType.invoke(factory);
+			}
+
+			enabled = (Boolean) isTypeEnabled.invoke(jfrEventType);
+
+		} catch (Exception | LinkageError e) {
+			enabled = false;
+		}
+	}
+
+	private static Object annotation(Class<?> annotationType, Object value) throws Exception {
+		return newAnnotation.newInstance(annotationType.asSubclass(Annotation.class), value);
+	}
+
+	/**
+	 * Get told by JFR whenever a recording starts or stops, which is when events might become
+	 * enabled or disabled
+	 */
+	private static void listenToRecordings() throws Exception {
+
+		Class<?> listenerClass = Class.forName("jdk.jfr.FlightRecorderListener");
+
+		Object listener = Proxy.newProxyInstance(listenerClass.getClassLoader(), new Class<?>[] {listenerClass},
+			new InvocationHandler() {
+				public Object invoke(Object proxy, Method method, Object[] args) {
+					switch (method.getName()) {
+						case "recorderInitialized":
+						case "recordingStateChanged":
+							recorderInitialized = true;
+							for (CdmEventType type : ALL_TYPES) {
+								type.update();
+							}
+							return null;
+						case "hashCode":
+							return System.identityHashCode(proxy);
+						case "equals":
+							return proxy == args[0];
+						case "toString":
+							return "cdm event listener";
+						default:
+							return null;
+					}
+				}
+			});
+
+		Class.forName("jdk.jfr.FlightRecorder").getMethod("addListener", listenerClass).invoke(null, listener);
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Start an event of this type, returning null if there is no recording that wants it
+	 * (so callers only have to check for null before committing it)
+	 */
+	public Event begin() {
+
+		if (!enabled) {
+			return null;
+		}
+
+		try {
+			Object jfrEvent = newEvent.invoke(factory);
+			beginEvent.invoke(jfrEvent);
+			return new Event(jfrEvent);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+
+	/**
+	 * One event that has begun, which ends when it is committed with the values of its fields
+	 */
+	public static class Event {
+
+		private Object jfrEvent;
+
+
+		private Event(Object jfrEvent) {
+			this.jfrEvent = jfrEvent;
+		}
+
+		public void commit(Object... values) {
+			try {
+				for (int i = 0; i < values.length; i++) {
+					setField.invoke(jfrEvent, i, values[i]);
+				}
+				commitEvent.invoke(jfrEvent);
+			} catch (Exception e) {
+				// losing one event is better than failing the command
+			}
+		}
+	}
+}
@@ -0,0 +1,51 @@
+/**
+ * Unlicensed code created by A Softer Space, 2019
+ * www.asofterspace.com/licenses/unlicense.txt
+ */
+package com.asofterspace.cdm.events;
+
+
+/**
+ * The events that the cdm tool reports to the JDK Flight Recorder, all in the category CDM
+ *
+ * Each one is used as in  CdmEventType.Event event = CdmEvents.FILE_SAVED.begin(); (work);
+ * if (event != null) { event.commit(path, bytes, modified); }  with the values in the order of the fields
+ */
+public class CdmEvents {
+
+	public final static CdmEventType CDM_LOADED = new CdmEventType("cdm.CdmLoaded", "CDM Loaded",
+		"A CDM directory was loaded into a model",
+		new String[] {"path", "files", "bytes", "fullModel"},
+		new String[] {"Path", "Files", "Bytes", "Full Model"},
+		new Class<?>[] {String.class, int.class, long.class, boolean.class});
+
+	public final static CdmEventType FILE_SCANNED = new CdmEventType("cdm.FileScanned", "CDM File Scanned",
+		"A CDM file was parsed into the index",
+		new String[] {"path", "bytes", "elements"},
+		new String[] {"Path", "Bytes", "Elements"},
+		new Class<?>[] {String.class, long.class, int.class});
+
+	public final static CdmEventType QUERY = new CdmEventType("cdm.Query", "CDM Query",
+		"Elements were looked up by one criterion",
+		new String[] {"method", "value", "results", "source"},
+		new String[] {"Method", "Value", "Results", "Source"},
+		new Class<?>[] {String.class, String.class, int.class, String.class});
+
+	public final static CdmEventType VALIDATION = new CdmEventType("cdm.Validation", "CDM Validation",
+		"A validation check was run on (a part of) a CDM",
+		new String[] {"check", "scope", "problems"},
+		new String[] {"Check", "Scope", "Problems"},
+		new Class<?>[] {String.class, String.class, int.class});
+
+	public final static CdmEventType CONVERSION = new CdmEventType("cdm.Conversion", "CDM Conversion",
+		"A CDM or CDM file was converted to another version",
+		new String[] {"path", "fromVersion", "toVersion", "method"},
+		new String[] {"Path", "From Version", "To Version", "Method"},
+		new Class<?>[] {String.class, String.class, String.class, String.class});
+
+	public final static CdmEventType FILE_SAVED = new CdmEventType("cdm.FileSaved", "CDM File Saved",
+		"A CDM file was saved (or found to be unmodified and left alone)",
+		new String[] {"path", "bytes", "modified"},
+		new String[] {"Path", "Bytes", "Modified"},
+		new Class<?>[] {String.class, long.class, boolean.class});
+}
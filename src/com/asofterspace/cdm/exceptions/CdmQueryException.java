@@ -0,0 +1,19 @@
+/**
+ * Unlicensed code created by A Softer Space, 2019
+ * www.asofterspace.com/licenses/unlicense.txt
+ */
+package com.asofterspace.cdm.exceptions;
+
+
+/**
+ * This is thrown when the criteria given to  cdm find  cannot be understood
+ */
+public class CdmQueryException extends Exception {
+
+	private static final long serialVersionUID = 1L;
+
+
+	public CdmQueryException(String message) {
+		super(message);
+	}
+}
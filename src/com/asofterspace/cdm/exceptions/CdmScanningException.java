@@ -0,0 +1,23 @@
+/**
+ * Unlicensed code created by A Softer Space, 2019
+ * www.asofterspace.com/licenses/unlicense.txt
+ */
+package com.asofterspace.cdm.exceptions;
+
+
+/**
+ * This is thrown when a CDM file cannot be scanned, e.g. because it is not well-formed XML
+ */
+public class CdmScanningException extends Exception {
+
+	private static final long serialVersionUID = 1L;
+
+
+	public CdmScanningException(String message) {
+		super(message);
+	}
+
+	public CdmScanningException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
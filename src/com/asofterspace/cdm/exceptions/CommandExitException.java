@@ -0,0 +1,27 @@
+/**
+ * Unlicensed code created by A Softer Space, 2019
+ * www.asofterspace.com/licenses/unlicense.txt
+ */
+package com.asofterspace.cdm.exceptions;
+
+
+/**
+ * This is thrown instead of calling System.exit when a command is executed inside of a longer
+ * running session (e.g. in the cdm server), such that the session itself can just carry on
+ */
+public class CommandExitException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	private int exitCode;
+
+
+	public CommandExitException(int exitCode) {
+		super("The command ended with exit code " + exitCode);
+		this.exitCode = exitCode;
+	}
+
+	public int getExitCode() {
+		return exitCode;
+	}
+}
@@ -0,0 +1,444 @@
+/**
+ * Unlicensed code created by A Softer Space, 2019
+ * www.asofterspace.com/licenses/unlicense.txt
+ */
+package com.asofterspace.cdm.generate;
+
+import com.asofterspace.cdm.coders.FastUuidCodec;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Generates synthetic CDMs of a given size, e.g. to reproduce scaling problems or to measure how
+ * the cdm tool performs on CDMs of a particular size, without needing a real CDM
+ *
+ * The MCM elements are spread over MCM files, each of which contains one tree of elements with
+ * parameter, activity and event aspects; some elements link to elements in the file before, and
+ * the activities are mapped to scripts, which are kept in separate script files
+ *
+ * Everything is written out while it is generated (each UUID is computed from the seed and the
+ * position of its element whenever it is needed), so that generating even millions of elements
+ * does not take up much heap - and the content is the same for the same seed, so that
+ * measurements can be compared between different versions of the tool
+ */
+public class CdmGenerator {
+
+	public final static String FILE_PREFIX = "Generated_";
+
+	public final static String SCRIPT_FILE_PREFIX = "GeneratedScripts_";
+
+	public final static String MCE_TYPE = "monitoringControlElement:MonitoringControlElement";
+
+	public final static String PARAMETER_TYPE = "monitoringControlElementAspects:Parameter";
+
+	public final static String ACTIVITY_TYPE = "monitoringControlElementAspects:Activity";
+
+	public final static String EVENT_TYPE = "monitoringControlElementAspects:Event";
+
+	public final static String ROOT_TAG = "root";
+
+	public final static String MCE_TAG = "subElements";
+
+	public final static String ASPECT_TAG = "monitoringControlElementAspects";
+
+	public final static int DEFAULT_FAN_OUT = 8;
+
+	// out of how many elements one has an activity, an event, and a link to an element in another file
+	private final static int ACTIVITY_EVERY = 4;
+	private final static int EVENT_EVERY = 8;
+	private final static int LINK_EVERY = 16;
+
+	// what a UUID belongs to, so that each element and aspect gets its own one
+	private final static int KIND_MODEL = 0;
+	private final static int KIND_ELEMENT = 1;
+	private final static int KIND_PARAMETER = 2;
+	private final static int KIND_ACTIVITY = 3;
+	private final static int KIND_EVENT = 4;
+	private final static int KIND_SCRIPT = 5;
+	private final static int KIND_MAPPING = 6;
+
+	private int elementAmount;
+
+	private int mcmFileAmount;
+
+	private int scriptFileAmount;
+
+	private int fanOut = DEFAULT_FAN_OUT;
+
+	private int maxDepth = 0;
+
+	private long seed;
+
+	// the fan out that was computed last, and the size of the tree it was computed for
+	private int fanOutForAmount = -1;
+	private int computedFanOut;
+
+	private FastUuidCodec codec = new FastUuidCodec();
+	private byte[] uuidBits = new byte[16];
+	private byte[] uuidBytes = new byte[FastUuidCodec.JAVA_LENGTH];
+
+	// an element from the middle of the generated CDM, e.g. to search for
+	private String sampleUuid;
+	private String sampleName;
+	private String samplePath;
+
+
+	/**
+	 * Create a generator for the given amount of MCM elements within the given amount of files -
+	 * if there are at least two files, every tenth of them (but at least one) is a script file,
+	 * and the elements are spread evenly over the others
+	 */
+	public CdmGenerator(int elementAmount, int fileAmount, long seed) {
+
+		this.elementAmount = Math.max(1, elementAmount);
+
+		fileAmount = Math.max(1, fileAmount);
+		this.scriptFileAmount = (fileAmount < 2) ? 0 : Math.max(1, fileAmount / 10);
+		this.mcmFileAmount = Math.min(fileAmount - scriptFileAmount, this.elementAmount);
+
+		this.seed = seed;
+	}
+
+	/**
+	 * Set how many children each element in the generated trees has (except for the last ones)
+	 */
+	public void setFanOut(int fanOut) {
+		this.fanOut = Math.max(1, fanOut);
+		this.maxDepth = 0;
+	}
+
+	/**
+	 * Set how deep the generated trees may get (including their root), instead of setting the fan
+	 * out directly - the fan out is then chosen as small as possible for the trees to still fit
+	 */
+	public void setMaxDepth(int maxDepth) {
+		// a tree of depth 1 would just be a root, so only a single element would fit into each file
+		this.maxDepth = Math.max(2, maxDepth);
+		this.fanOutForAmount = -1;
+	}
+
+	/**
+	 * Write the generated files into the given directory, using the namespaces of the given CDM
+	 * version and version prefix, and return the files that were written
+	 */
+	public List<File> generate(File cdmDir, String version, String prefix) throws IOException {
+
+		cdmDir.mkdirs();
+
+		List<File> result = new ArrayList<>();
+
+		int sampleFile = mcmFileAmount / 2;
+
+		for (int f = 0; f < mcmFileAmount; f++) {
+
+			File cdmFile = new File(cdmDir, getFileName(f));
+
+			try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(cdmFile), StandardCharsets.UTF_8), 64 * 1024)) {
+				writeMcmFile(out, f, version, prefix);
+			}
+
+			if (f == sampleFile) {
+				int sampleIndex = getAmountInFile(f) / 2;
+				sampleUuid = getUuid(f, sampleIndex, KIND_ELEMENT);
+				sampleName = getName(f, sampleIndex);
+				samplePath = getPath(f, sampleIndex);
+			}
+
+			result.add(cdmFile);
+		}
+
+		for (int s = 0; s < scriptFileAmount; s++) {
+
+			File cdmFile = new File(cdmDir, SCRIPT_FILE_PREFIX + s + ".cdm");
+
+			try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(cdmFile), StandardCharsets.UTF_8), 64 * 1024)) {
+				writeScriptFile(out, s, version, prefix);
+			}
+
+			result.add(cdmFile);
+		}
+
+		return result;
+	}
+
+	private void writeMcmFile(Writer out, int file, String version, String prefix) throws IOException {
+
+		out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		out.write("<configurationcontrol:McmModel xmi:version=\"2.0\" xmlns:xmi=\"http://www.omg.org/XMI\"" +
+			" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"" +
+			" xmlns:configurationcontrol=\"" + prefix + "ConfigurationControl/" + version + "\"" +
+			" xmlns:monitoringControlElement=\"" + prefix + "MonitoringControlElement/" + version + "\"" +
+			" xmlns:monitoringControlElementAspects=\"" + prefix + "MonitoringControlElementAspects/" + version + "\"" +
+			" xmi:id=\"" + getUuid(file, 0, KIND_MODEL) + "\" name=\"" + FILE_PREFIX + file + "\">\n");
+
+		writeTree(out, file, getAmountInFile(file));
+
+		out.write("</configurationcontrol:McmModel>\n");
+	}
+
+	private void writeTree(Writer out, int file, int amountInFile) throws IOException {
+
+		int fanOutInFile = getFanOut(amountInFile);
+
+		// an explicit stack, as deep trees (with a fan out of 1) would overflow the call stack;
+		// each entry is the index of an element, its depth, and how many of its children are written
+		List<int[]> stack = new ArrayList<>();
+		stack.add(new int[] {0, 1, 0});
+
+		while (!stack.isEmpty()) {
+
+			int[] top = stack.get(stack.size() - 1);
+			int cur = top[0];
+			int curDepth = top[1];
+			String curTag = (cur == 0) ? ROOT_TAG : MCE_TAG;
+
+			// element i has the children fanOut*i+1 .. fanOut*i+fanOut, so the tree is as balanced as it gets
+			long firstChild = ((long) fanOutInFile * cur) + 1;
+			int childAmount = (int) Math.max(0, Math.min(fanOutInFile, amountInFile - firstChild));
+
+			if (top[2] == 0) {
+				indent(out, curDepth);
+				out.write("<" + curTag + " xsi:type=\"" + MCE_TYPE + "\" xmi:id=\"" + getUuid(file, cur, KIND_ELEMENT) +
+					"\" name=\"" + getName(file, cur) + "\"");
+				int linked = getLinkedElement(file, cur);
+				if (linked >= 0) {
+					out.write(" definition=\"" + getFileName(file - 1) + "#" + getUuid(file - 1, linked, KIND_ELEMENT) + "\"");
+				}
+				out.write(">\n");
+				writeAspects(out, file, cur, curDepth + 1);
+			}
+
+			if (top[2] < childAmount) {
+				int child = (int) firstChild + top[2];
+				top[2]++;
+				stack.add(new int[] {child, curDepth + 1, 0});
+				continue;
+			}
+
+			indent(out, curDepth);
+			out.write("</" + curTag + ">\n");
+			stack.remove(stack.size() - 1);
+		}
+	}
+
+	private void writeAspects(Writer out, int file, int index, int depth) throws IOException {
+
+		indent(out, depth);
+		out.write("<" + ASPECT_TAG + " xsi:type=\"" + PARAMETER_TYPE + "\" xmi:id=\"" + getUuid(file, index, KIND_PARAMETER) +
+			"\" name=\"Parameter_" + file + "_" + index + "\"/>\n");
+
+		if (hasActivity(file, index)) {
+			indent(out, depth);
+			out.write("<" + ASPECT_TAG + " xsi:type=\"" + ACTIVITY_TYPE + "\" xmi:id=\"" + getUuid(file, index, KIND_ACTIVITY) +
+				"\" name=\"" + getActivityName(file, index) + "\"/>\n");
+		}
+
+		if (mix(file, index, KIND_EVENT) % EVENT_EVERY == 0) {
+			indent(out, depth);
+			out.write("<" + ASPECT_TAG + " xsi:type=\"" + EVENT_TYPE + "\" xmi:id=\"" + getUuid(file, index, KIND_EVENT) +
+				"\" name=\"Event_" + file + "_" + index + "\"/>\n");
+		}
+	}
+
+	/**
+	 * Write the scripts for the activities of all MCM files that belong to the given script file
+	 * (which are the ones whose number modulo the amount of script files is the script file number),
+	 * followed by the mappings between the scripts and the activities
+	 */
+	private void writeScriptFile(Writer out, int scriptFile, String version, String prefix) throws IOException {
+
+		out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		out.write("<configurationcontrol:ScriptModel xmi:version=\"2.0\" xmlns:xmi=\"http://www.omg.org/XMI\"" +
+			" xmlns:configurationcontrol=\"" + prefix + "ConfigurationControl/" + version + "\"" +
+			" xmi:id=\"" + getUuid(-1 - scriptFile, 0, KIND_MODEL) + "\" name=\"" + SCRIPT_FILE_PREFIX + scriptFile + "\">\n");
+
+		for (int f = scriptFile; f < mcmFileAmount; f += scriptFileAmount) {
+			int amountInFile = getAmountInFile(f);
+			for (int i = 0; i < amountInFile; i++) {
+				if (hasActivity(f, i)) {
+					indent(out, 1);
+					out.write("<scripts xmi:id=\"" + getUuid(f, i, KIND_SCRIPT) + "\" name=\"Script_" + f + "_" + i +
+						"\" scriptContent=\"// runs " + getActivityName(f, i) + "&#xA;wait(" + (mix(f, i, KIND_SCRIPT) % 60) +
+						");&#xA;activity(&quot;" + getPath(f, i) + "&quot;).start();\"/>\n");
+				}
+			}
+		}
+
+		for (int f = scriptFile; f < mcmFileAmount; f += scriptFileAmount) {
+			int amountInFile = getAmountInFile(f);
+			for (int i = 0; i < amountInFile; i++) {
+				if (hasActivity(f, i)) {
+					indent(out, 1);
+					out.write("<script2Activity xmi:id=\"" + getUuid(f, i, KIND_MAPPING) + "\" activity=\"" + getFileName(f) + "#" +
+						getUuid(f, i, KIND_ACTIVITY) + "\" script=\"#" + getUuid(f, i, KIND_SCRIPT) + "\"/>\n");
+				}
+			}
+		}
+
+		out.write("</configurationcontrol:ScriptModel>\n");
+	}
+
+	private int getAmountInFile(int file) {
+		// spread the elements evenly, with the first files getting one more if it does not work out
+		return (elementAmount / mcmFileAmount) + ((file < elementAmount % mcmFileAmount) ? 1 : 0);
+	}
+
+	/**
+	 * Get the fan out for a tree of the given size - either the one that was set, or the smallest
+	 * one for which the tree is not deeper than the maximum depth
+	 */
+	private int getFanOut(int amountInFile) {
+
+		if (maxDepth < 1) {
+			return fanOut;
+		}
+
+		if (amountInFile == fanOutForAmount) {
+			return computedFanOut;
+		}
+
+		// start just below the fan out of a full tree, and go up until everything fits
+		int result = Math.max(1, (int) Math.pow(amountInFile, 1.0 / (maxDepth - 1)) - 1);
+
+		for (; ; result++) {
+			long fitting = 0;
+			long levelSize = 1;
+			for (int level = 0; (level < maxDepth) && (fitting < amountInFile); level++) {
+				fitting += levelSize;
+				levelSize *= result;
+			}
+			if (fitting >= amountInFile) {
+				break;
+			}
+		}
+
+		fanOutForAmount = amountInFile;
+		computedFanOut = result;
+
+		return result;
+	}
+
+	private boolean hasActivity(int file, int index) {
+		return mix(file, index, KIND_ACTIVITY) % ACTIVITY_EVERY == 0;
+	}
+
+	/**
+	 * Get the element in the file before that the given element links to, or -1 if it does not
+	 * link to any
+	 */
+	private int getLinkedElement(int file, int index) {
+
+		if ((file < 1) || (mix(file, index, KIND_MODEL) % LINK_EVERY != 0)) {
+			return -1;
+		}
+
+		return (int) (mix(file, index, KIND_ELEMENT) % getAmountInFile(file - 1));
+	}
+
+	private String getUuid(int file, int index, int kind) {
+
+		long high = mix(file, index, kind);
+		long low = mix64(high ^ seed);
+
+		for (int i = 0; i < 8; i++) {
+			uuidBits[i] = (byte) (high >>> (56 - (8 * i)));
+			uuidBits[8 + i] = (byte) (low >>> (56 - (8 * i)));
+		}
+
+		codec.setRandom(uuidBits, 0);
+
+		return new String(uuidBytes, 0, codec.encodeEcore(uuidBytes, 0), StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Get a pseudo-random (but for the same seed always the same) non-negative number for the
+	 * given element and kind
+	 */
+	private long mix(int file, int index, int kind) {
+		return mix64(seed + mix64(((long) file << 32) + index) + kind) >>> 1;
+	}
+
+	// the finalizer of SplitMix64, which spreads even tiny changes of the input over all bits
+	private static long mix64(long value) {
+		value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+		value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+		return value ^ (value >>> 31);
+	}
+
+	private static void indent(Writer out, int depth) throws IOException {
+		for (int i = 0; i < depth; i++) {
+			out.write("  ");
+		}
+	}
+
+	private static String getFileName(int file) {
+		return FILE_PREFIX + file + ".cdm";
+	}
+
+	private static String getName(int file, int index) {
+		return "Element_" + file + "_" + index;
+	}
+
+	private static String getActivityName(int file, int index) {
+		return "Activity_" + file + "_" + index;
+	}
+
+	private String getPath(int file, int index) {
+
+		int fanOutInFile = getFanOut(getAmountInFile(file));
+
+		StringBuilder result = new StringBuilder(getName(file, index));
+
+		while (index > 0) {
+			index = (index - 1) / fanOutInFile;
+			result.insert(0, getName(file, index) + ".");
+		}
+
+		return result.toString();
+	}
+
+	/**
+	 * The amount of files that contain MCM trees
+	 */
+	public int getMcmFileAmount() {
+		return mcmFileAmount;
+	}
+
+	/**
+	 * The amount of files that contain scripts
+	 */
+	public int getScriptFileAmount() {
+		return scriptFileAmount;
+	}
+
+	/**
+	 * The UUID of an element somewhere in the middle of the generated CDM
+	 */
+	public String getSampleUuid() {
+		return sampleUuid;
+	}
+
+	/**
+	 * The name of the same element as getSampleUuid()
+	 */
+	public String getSampleName() {
+		return sampleName;
+	}
+
+	/**
+	 * The path (the names of the element and all its parent elements, separated by dots) of the
+	 * same element as getSampleUuid()
+	 */
+	public String getSamplePath() {
+		return samplePath;
+	}
+}
@@ -0,0 +1,118 @@
+/**
+ * Unlicensed code created by A Softer Space, 2019
+ * www.asofterspace.com/licenses/unlicense.txt
+ */
+package com.asofterspace.cdm.index;
+
+
+/**
+ * One element (that is, one XML tag) within a CDM file, as seen by the CDM index
+ *
+ * As there are lots of these, they are kept compact: the UUID is packed into two longs, and
+ * the XML tag and type are shared with all other elements that have the same ones
+ */
+public class CdmElement {
+
+	private CdmFileIndex file;
+
+	// the index of the parent element within the same file, or -1 for the root element
+	private int parent;
+
+	private String xmlTag;
+
+	private CdmUuid uuid;
+
+	private String name;
+
+	private String type;
+
+	// the byte offset of the start tag within the file
+	private long offset;
+
+
+	public CdmElement(CdmFileIndex file, int parent, String xmlTag, String uuid, String name, String type, long offset) {
+		this(file, parent, xmlTag, CdmUuid.fromEcore(uuid), name, type, offset);
+	}
+
+	public CdmElement(CdmFileIndex file, int parent, String xmlTag, CdmUuid uuid, String name, String type, long offset) {
+		this.file = file;
+		this.parent = parent;
+		this.xmlTag = CdmSymbols.get(xmlTag);
+		this.uuid = uuid;
+		this.name = name;
+		this.type = CdmSymbols.get(type);
+		this.offset = offset;
+	}
+
+	public CdmFileIndex getFile() {
+		return file;
+	}
+
+	public CdmElement getParent() {
+		if (parent < 0) {
+			return null;
+		}
+		return file.getElement(parent);
+	}
+
+	public int getParentIndex() {
+		return parent;
+	}
+
+	public String getXmlTag() {
+		return xmlTag;
+	}
+
+	/**
+	 * The Ecore UUID of this element (its xmi:id), or null if it has none
+	 */
+	public String getUuid() {
+		if (uuid == null) {
+			return null;
+		}
+		return uuid.toString();
+	}
+
+	/**
+	 * The UUID of this element in its compact form, or null if it has none
+	 */
+	public CdmUuid getPackedUuid() {
+		return uuid;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * The xsi:type of this element, or null if it has none
+	 */
+	public String getType() {
+		return type;
+	}
+
+	public long getOffset() {
+		return offset;
+	}
+
+	/**
+	 * The names of this element and its named ancestors within the same file, from the top down,
+	 * separated by dots
+	 */
+	public String getPath() {
+
+		StringBuilder result = new StringBuilder();
+
+		for (CdmElement cur = this; cur != null; cur = cur.getParent()) {
+			if (cur.getName() == null) {
+				continue;
+			}
+			if (result.length() > 0) {
+				result.insert(0, '.');
+			}
+			result.insert(0, cur.getName());
+		}
+
+		return result.toString();
+	}
+}
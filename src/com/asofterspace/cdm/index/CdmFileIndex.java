@@ -0,0 +1,104 @@
+/**
+ * Unlicensed code created by A Softer Space, 2019
+ * www.asofterspace.com/licenses/unlicense.txt
+ */
+package com.asofterspace.cdm.index;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+
+/**
+ * Everything that the CDM index knows about one CDM file
+ */
+public class CdmFileIndex {
+
+	private String path;
+
+	private long size;
+
+	private long lastModified;
+
+	// a hash of the contents of the file, to notice whether a file really changed
+	private byte[] contentHash;
+
+	// all elements of the file, in document order
+	private List<CdmElement> elements = new ArrayList<>();
+
+	// the absolute paths of the other CDM files that this one links to
+	private Set<String> referencedFiles = new TreeSet<>();
+
+
+	public CdmFileIndex(String path, long size, long lastModified, byte[] contentHash) {
+		this.path = path;
+		this.size = size;
+		this.lastModified = lastModified;
+		this.contentHash = contentHash;
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	void setLastModified(long lastModified) {
+		this.lastModified = lastModified;
+	}
+
+	public byte[] getContentHash() {
+		return contentHash;
+	}
+
+	public CdmElement getElement(int index) {
+		return elements.get(index);
+	}
+
+	public List<CdmElement> getElements() {
+		return Collections.unmodifiableList(elements);
+	}
+
+	public Set<String> getReferencedFiles() {
+		return Collections.unmodifiableSet(referencedFiles);
+	}
+
+	void addElement(CdmElement element) {
+		elements.add(element);
+	}
+
+	void addReferencedFile(String referencedPath) {
+		if (!path.equals(referencedPath)) {
+			referencedFiles.add(referencedPath);
+		}
+	}
+
+	/**
+	 * Replace the paths of the linked files with the instances of the same paths in the given map
+	 * (adding the ones that are not in there yet), so that each path is only held once per index
+	 */
+	void shareReferencedPaths(Map<String, String> sharedPaths) {
+
+		Set<String> result = new TreeSet<>();
+
+		for (String referencedPath : referencedFiles) {
+			String shared = sharedPaths.get(referencedPath);
+			if (shared == null) {
+				shared = referencedPath;
+				sharedPaths.put(shared, shared);
+			}
+			result.add(shared);
+		}
+
+		referencedFiles = result;
+	}
+}
@@ -0,0 +1,161 @@
+/**
+ * Unlicensed code created by A Softer Space, 2019
+ * www.asofterspace.com/licenses/unlicense.txt
+ */
+package com.asofterspace.cdm.index;
+
+import com.asofterspace.cdm.exceptions.CdmScanningException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+
+/**
+ * Gets the contents of .cdm files to the scanner without copying them onto the heap first
+ *
+ * Small files are read into a buffer that is kept and re-used for the next file (as mapping a file
+ * costs more than reading a few kilobytes), larger ones are memory-mapped as a whole, and very large
+ * ones are mapped in windows of a bounded size, so that even files above 2 GB can be scanned
+ *
+ * Each thread has its own reader (see forCurrentThread()), which also re-uses its scanner and hash
+ * digest - so whatever open() returns is only valid until the same thread opens the next file
+ */
+public class CdmFileReader {
+
+	// files up to this size are read into the re-used buffer instead of being mapped
+	private final static int MAP_THRESHOLD = 256 * 1024;
+
+	// files up to this size are mapped as a whole, larger ones in windows of this size
+	private final static int WINDOW_SIZE = 64 * 1024 * 1024;
+
+	private final static ThreadLocal<CdmFileReader> PER_THREAD = new ThreadLocal<CdmFileReader>() {
+		@Override
+		protected CdmFileReader initialValue() {
+			return new CdmFileReader();
+		}
+	};
+
+	private ByteBuffer smallFileBuffer = ByteBuffer.allocate(64 * 1024);
+
+	private CdmXmlScanner scanner = new CdmXmlScanner(ByteBuffer.allocate(0));
+
+	private MessageDigest digest;
+
+	private byte[] hash;
+
+
+	private CdmFileReader() {
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform is required to support SHA-1, so this cannot really happen
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public static CdmFileReader forCurrentThread() {
+		return PER_THREAD.get();
+	}
+
+	/**
+	 * Get a scanner for the file behind the given channel, also hashing the contents of the file
+	 * (see getHash()) if so desired
+	 */
+	public CdmXmlScanner open(FileChannel channel, boolean computeHash) throws IOException, CdmScanningException {
+
+		long size = channel.size();
+
+		hash = null;
+
+		if (size <= MAP_THRESHOLD) {
+			ByteBuffer buffer = readSmallFile(channel, (int) size);
+			if (computeHash) {
+				hash = hash(buffer.duplicate());
+			}
+			scanner.reset(buffer);
+			return scanner;
+		}
+
+		if (size <= WINDOW_SIZE) {
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			if (computeHash) {
+				hash = hash(buffer.duplicate());
+			}
+			scanner.reset(buffer);
+			return scanner;
+		}
+
+		if (computeHash) {
+			hash = hashInWindows(channel, size);
+		}
+		scanner.reset(channel, WINDOW_SIZE);
+		return scanner;
+	}
+
+	/**
+	 * The SHA-1 hash of the file that was opened last, if it was asked for
+	 */
+	public byte[] getHash() {
+		return hash;
+	}
+
+	/**
+	 * Hash the contents of the given CDM file, to be able to recognize it as unchanged later on
+	 */
+	public byte[] hash(File cdmFile) throws IOException {
+
+		try (FileChannel channel = FileChannel.open(cdmFile.toPath(), StandardOpenOption.READ)) {
+
+			long size = channel.size();
+
+			if (size <= MAP_THRESHOLD) {
+				return hash(readSmallFile(channel, (int) size));
+			}
+
+			return hashInWindows(channel, size);
+		}
+	}
+
+	private ByteBuffer readSmallFile(FileChannel channel, int size) throws IOException {
+
+		if (smallFileBuffer.capacity() < size) {
+			smallFileBuffer = ByteBuffer.allocate(Math.max(size, 2 * smallFileBuffer.capacity()));
+		}
+
+		smallFileBuffer.clear();
+		smallFileBuffer.limit(size);
+
+		while (smallFileBuffer.hasRemaining()) {
+			if (channel.read(smallFileBuffer) < 0) {
+				// the file got shorter while we were reading it
+				break;
+			}
+		}
+
+		smallFileBuffer.flip();
+
+		return smallFileBuffer;
+	}
+
+	private byte[] hash(ByteBuffer buffer) {
+		digest.reset();
+		digest.update(buffer);
+		return digest.digest();
+	}
+
+	private byte[] hashInWindows(FileChannel channel, long size) throws IOException {
+
+		digest.reset();
+
+		for (long offset = 0; offset < size; offset += WINDOW_SIZE) {
+			digest.update(channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(WINDOW_SIZE, size - offset)));
+		}
+
+		return digest.digest();
+	}
+}
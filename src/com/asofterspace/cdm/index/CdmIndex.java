@@ -0,0 +1,268 @@
+/**
+ * Unlicensed code created by A Softer Space, 2019
+ * www.asofterspace.com/licenses/unlicense.txt
+ */
+package com.asofterspace.cdm.index;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+
+/**
+ * A lightweight index of all elements of a CDM, which can be built much faster than the full
+ * CDM model - it knows for every element its UUID, name, xsi type and XML tag and where it is
+ * stored, and for every file which other files it links to
+ *
+ * The per-file indices can be created independently of each other (and therefore in parallel),
+ * after which they are merged into one CdmIndex, which links the files together
+ *
+ * Lookups by name, type and XML tag are lenient: they ignore upper and lower case as well as
+ * namespace prefixes, so that they find at least everything that the CDM model would find - which
+ * means that the results may have to be narrowed down further by asking the model
+ */
+public class CdmIndex {
+
+	// the indexed files, by their absolute path, in the order of their paths
+	private Map<String, CdmFileIndex> files = new LinkedHashMap<>();
+
+	// nearly every UUID is used by just one element, so that element is stored directly - and only
+	// if there really are several elements with the same UUID, a list of them is stored instead
+	private Map<CdmUuid, Object> byUuid = new HashMap<>();
+
+	private Map<String, List<CdmElement>> byName = new HashMap<>();
+
+	private Map<String, List<CdmElement>> byType = new HashMap<>();
+
+	private Map<String, List<CdmElement>> byXmlTag = new HashMap<>();
+
+	// for each file, the files that link to it
+	private Map<String, Set<String>> referencingFiles = new HashMap<>();
+
+
+	/**
+	 * Merge the given per-file indices (which must be sorted by their paths) into one index
+	 */
+	public CdmIndex(List<CdmFileIndex> fileIndices) {
+
+		// the paths of linked files are mostly the paths of other files of this index, so they share
+		// the strings of these, rather than going into the CdmSymbols (which are never emptied)
+		Map<String, String> sharedPaths = new HashMap<>();
+
+		for (CdmFileIndex fileIndex : fileIndices) {
+			files.put(fileIndex.getPath(), fileIndex);
+			sharedPaths.put(fileIndex.getPath(), fileIndex.getPath());
+		}
+
+		for (CdmFileIndex fileIndex : fileIndices) {
+
+			fileIndex.shareReferencedPaths(sharedPaths);
+
+			for (CdmElement element : fileIndex.getElements()) {
+				addToByUuid(element);
+				addTo(byName, normalize(element.getName()), element);
+				addTo(byType, normalizeQualified(element.getType()), element);
+				addTo(byXmlTag, normalizeQualified(element.getXmlTag()), element);
+			}
+
+			for (String referencedFile : fileIndex.getReferencedFiles()) {
+				Set<String> referencing = referencingFiles.get(referencedFile);
+				if (referencing == null) {
+					referencing = new TreeSet<>();
+					referencingFiles.put(referencedFile, referencing);
+				}
+				referencing.add(fileIndex.getPath());
+			}
+		}
+	}
+
+	private void addToByUuid(CdmElement element) {
+
+		CdmUuid uuid = element.getPackedUuid();
+
+		if (uuid == null) {
+			return;
+		}
+
+		Object existing = byUuid.put(uuid, element);
+
+		if (existing == null) {
+			return;
+		}
+
+		List<CdmElement> elements;
+
+		if (existing instanceof CdmElement) {
+			elements = new ArrayList<>(2);
+			elements.add((CdmElement) existing);
+		} else {
+			@SuppressWarnings("unchecked")
+			List<CdmElement> existingElements = (List<CdmElement>) existing;
+			elements = existingElements;
+		}
+
+		elements.add(element);
+		byUuid.put(uuid, elements);
+	}
+
+	private static void addTo(Map<String, List<CdmElement>> map, String key, CdmElement element) {
+
+		if (key == null) {
+			return;
+		}
+
+		List<CdmElement> elements = map.get(key);
+
+		if (elements == null) {
+			elements = new ArrayList<>(1);
+			map.put(key, elements);
+		}
+
+		elements.add(element);
+	}
+
+	public List<CdmFileIndex> getFiles() {
+		return new ArrayList<>(files.values());
+	}
+
+	public CdmFileIndex getFile(String path) {
+		return files.get(path);
+	}
+
+	public int getElementAmount() {
+		int result = 0;
+		for (CdmFileIndex file : files.values()) {
+			result += file.getElements().size();
+		}
+		return result;
+	}
+
+	public List<CdmElement> findByUuid(String uuid) {
+
+		Object found = byUuid.get(CdmUuid.fromEcore(uuid));
+
+		if (found == null) {
+			return Collections.emptyList();
+		}
+
+		if (found instanceof CdmElement) {
+			return Collections.singletonList((CdmElement) found);
+		}
+
+		@SuppressWarnings("unchecked")
+		List<CdmElement> elements = (List<CdmElement>) found;
+		return Collections.unmodifiableList(elements);
+	}
+
+	public List<CdmElement> findByName(String name) {
+		return get(byName, normalize(name));
+	}
+
+	public List<CdmElement> findByType(String type) {
+		return get(byType, normalizeQualified(type));
+	}
+
+	public List<CdmElement> findByXmlTag(String xmlTag) {
+		return get(byXmlTag, normalizeQualified(xmlTag));
+	}
+
+	public static String normalize(String key) {
+		if (key == null) {
+			return null;
+		}
+		return key.toLowerCase();
+	}
+
+	// ignore the namespace prefix, e.g. treat monitoringControlElement:MonitoringControlElement like MonitoringControlElement
+	public static String normalizeQualified(String key) {
+		if (key == null) {
+			return null;
+		}
+		return normalize(key.substring(key.indexOf(':') + 1));
+	}
+
+	private static List<CdmElement> get(Map<String, List<CdmElement>> map, String key) {
+		List<CdmElement> result = map.get(key);
+		if (result == null) {
+			return Collections.emptyList();
+		}
+		return Collections.unmodifiableList(result);
+	}
+
+	/**
+	 * Get the files that directly link to the given file
+	 */
+	public Set<String> getReferencingFiles(String path) {
+		Set<String> result = referencingFiles.get(path);
+		if (result == null) {
+			return Collections.emptySet();
+		}
+		return Collections.unmodifiableSet(result);
+	}
+
+	/**
+	 * Get the given files together with all files that they link to, directly or indirectly
+	 * (files that are linked to but that are not part of the index are left out)
+	 */
+	public Set<String> getDependencyClosure(Set<String> paths) {
+
+		Set<String> result = new TreeSet<>();
+		Deque<String> toVisit = new ArrayDeque<>(paths);
+
+		while (!toVisit.isEmpty()) {
+			String path = toVisit.pop();
+			CdmFileIndex file = files.get(path);
+			if ((file == null) || !result.add(path)) {
+				continue;
+			}
+			toVisit.addAll(file.getReferencedFiles());
+		}
+
+		return result;
+	}
+
+	/**
+	 * Split the indexed files into groups that do not link to each other at all (neither directly
+	 * nor indirectly, in either direction), each group sorted by path and the groups sorted by their
+	 * first paths
+	 */
+	public List<List<String>> getLinkedGroups() {
+
+		List<List<String>> result = new ArrayList<>();
+		Set<String> seen = new HashSet<>();
+
+		for (String start : files.keySet()) {
+
+			if (seen.contains(start)) {
+				continue;
+			}
+
+			Set<String> group = new TreeSet<>();
+			Deque<String> toVisit = new ArrayDeque<>();
+			toVisit.add(start);
+
+			while (!toVisit.isEmpty()) {
+				String path = toVisit.pop();
+				CdmFileIndex file = files.get(path);
+				if ((file == null) || !seen.add(path)) {
+					continue;
+				}
+				group.add(path);
+				toVisit.addAll(file.getReferencedFiles());
+				toVisit.addAll(getReferencingFiles(path));
+			}
+
+			result.add(new ArrayList<>(group));
+		}
+
+		return result;
+	}
+}
@@ -0,0 +1,313 @@
+/**
+ * Unlicensed code created by A Softer Space, 2019
+ * www.asofterspace.com/licenses/unlicense.txt
+ */
+package com.asofterspace.cdm.index;
+
+import com.asofterspace.cdm.exceptions.CdmScanningException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Keeps the index of a CDM in an index file right next to the CDM files, so that it does not have
+ * to be built from scratch every time - only files whose size and modification time (or, if just
+ * the modification time changed, whose contents) differ from what is stored are scanned again
+ *
+ * The index file is only a cache: if it cannot be read, it is simply rebuilt, and if it cannot be
+ * written (e.g. because the CDM directory is read-only), the index is just not stored
+ */
+public class CdmIndexStore {
+
+	public final static String INDEX_FILE_NAME = ".cdmindex";
+
+	private final static String MAGIC = "CDMINDEX";
+
+	private final static int FORMAT_VERSION = 2;
+
+	private final static int NONE = -1;
+
+	// how the UUID of an element is stored
+	private final static byte UUID_NONE = 0;
+	private final static byte UUID_PACKED = 1;
+	private final static byte UUID_UNPACKED = 2;
+
+
+	/**
+	 * Get the index of the CDM in the given directory, updating the stored index file if needed
+	 */
+	public static CdmIndex loadOrBuild(File cdmDir, int threads) throws CdmScanningException {
+
+		File dir = cdmDir.getAbsoluteFile().toPath().normalize().toFile();
+		File indexFile = new File(dir, INDEX_FILE_NAME);
+
+		List<File> cdmFiles = CdmIndexer.getCdmFiles(dir);
+		Map<String, CdmFileIndex> stored = read(indexFile, dir);
+
+		CdmFileIndex[] fileIndices = new CdmFileIndex[cdmFiles.size()];
+		List<File> filesToScan = new ArrayList<>();
+		List<Integer> positionsToScan = new ArrayList<>();
+		boolean changed = (stored.size() != cdmFiles.size());
+
+		for (int i = 0; i < cdmFiles.size(); i++) {
+
+			File cdmFile = cdmFiles.get(i);
+			CdmFileIndex storedIndex = stored.get(cdmFile.getPath());
+
+			if (isUnchanged(storedIndex, cdmFile)) {
+				if (storedIndex.getLastModified() != cdmFile.lastModified()) {
+					storedIndex.setLastModified(cdmFile.lastModified());
+					changed = true;
+				}
+				fileIndices[i] = storedIndex;
+				continue;
+			}
+
+			filesToScan.add(cdmFile);
+			positionsToScan.add(i);
+			changed = true;
+		}
+
+		List<CdmFileIndex> scanned = CdmIndexer.indexFiles(filesToScan, threads);
+
+		for (int i = 0; i < scanned.size(); i++) {
+			fileIndices[positionsToScan.get(i)] = scanned.get(i);
+		}
+
+		List<CdmFileIndex> result = Arrays.asList(fileIndices);
+
+		if (changed) {
+			try {
+				write(indexFile, dir, result);
+			} catch (IOException e) {
+				// we will just have to build the index again next time
+			}
+		}
+
+		return new CdmIndex(result);
+	}
+
+	private static boolean isUnchanged(CdmFileIndex storedIndex, File cdmFile) {
+
+		if ((storedIndex == null) || (storedIndex.getSize() != cdmFile.length())) {
+			return false;
+		}
+
+		if (storedIndex.getLastModified() == cdmFile.lastModified()) {
+			return true;
+		}
+
+		// the file has been touched, but maybe its contents are still the same (e.g. after a checkout)
+		try {
+			return Arrays.equals(CdmIndexer.hash(cdmFile), storedIndex.getContentHash());
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private static Map<String, CdmFileIndex> read(File indexFile, File dir) {
+
+		Map<String, CdmFileIndex> result = new HashMap<>();
+
+		if (!indexFile.isFile()) {
+			return result;
+		}
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile), 64 * 1024))) {
+
+			if (!MAGIC.equals(in.readUTF()) || (in.readInt() != FORMAT_VERSION)) {
+				return result;
+			}
+
+			String[] strings = new String[in.readInt()];
+			for (int i = 0; i < strings.length; i++) {
+				strings[i] = in.readUTF();
+			}
+
+			int fileAmount = in.readInt();
+
+			for (int f = 0; f < fileAmount; f++) {
+
+				String path = resolve(dir, in.readUTF());
+				long size = in.readLong();
+				long lastModified = in.readLong();
+				byte[] contentHash = new byte[in.readShort()];
+				in.readFully(contentHash);
+
+				CdmFileIndex fileIndex = new CdmFileIndex(path, size, lastModified, contentHash);
+
+				int referenceAmount = in.readInt();
+				for (int r = 0; r < referenceAmount; r++) {
+					fileIndex.addReferencedFile(resolve(dir, strings[in.readInt()]));
+				}
+
+				int elementAmount = in.readInt();
+				for (int e = 0; e < elementAmount; e++) {
+					int parent = in.readInt();
+					long offset = in.readLong();
+					String xmlTag = get(strings, in.readInt());
+					CdmUuid uuid = readUuid(in, strings);
+					String name = get(strings, in.readInt());
+					String type = get(strings, in.readInt());
+					fileIndex.addElement(new CdmElement(fileIndex, parent, xmlTag, uuid, name, type, offset));
+				}
+
+				result.put(path, fileIndex);
+			}
+
+		} catch (IOException | RuntimeException e) {
+			// the index file is broken - no problem, we will just build a new one
+			return new HashMap<>();
+		}
+
+		return result;
+	}
+
+	private static void write(File indexFile, File dir, List<CdmFileIndex> fileIndices) throws IOException {
+
+		// all strings are stored just once, and are referenced by their position in the string table
+		List<String> strings = new ArrayList<>();
+		Map<String, Integer> stringIds = new HashMap<>();
+
+		for (CdmFileIndex fileIndex : fileIndices) {
+			for (String referencedFile : fileIndex.getReferencedFiles()) {
+				addString(relativize(dir, referencedFile), strings, stringIds);
+			}
+			for (CdmElement element : fileIndex.getElements()) {
+				addString(element.getXmlTag(), strings, stringIds);
+				if ((element.getPackedUuid() != null) && !element.getPackedUuid().isPacked()) {
+					addString(element.getUuid(), strings, stringIds);
+				}
+				addString(element.getName(), strings, stringIds);
+				addString(element.getType(), strings, stringIds);
+			}
+		}
+
+		// write to a temporary file first, so that nobody ever sees a half-written index
+		File tempFile = new File(dir, INDEX_FILE_NAME + ".tmp");
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 64 * 1024))) {
+
+			out.writeUTF(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+
+			out.writeInt(strings.size());
+			for (String str : strings) {
+				out.writeUTF(str);
+			}
+
+			out.writeInt(fileIndices.size());
+
+			for (CdmFileIndex fileIndex : fileIndices) {
+
+				out.writeUTF(relativize(dir, fileIndex.getPath()));
+				out.writeLong(fileIndex.getSize());
+				out.writeLong(fileIndex.getLastModified());
+				out.writeShort(fileIndex.getContentHash().length);
+				out.write(fileIndex.getContentHash());
+
+				out.writeInt(fileIndex.getReferencedFiles().size());
+				for (String referencedFile : fileIndex.getReferencedFiles()) {
+					out.writeInt(stringIds.get(relativize(dir, referencedFile)));
+				}
+
+				out.writeInt(fileIndex.getElements().size());
+				for (CdmElement element : fileIndex.getElements()) {
+					out.writeInt(element.getParentIndex());
+					out.writeLong(element.getOffset());
+					out.writeInt(getId(stringIds, element.getXmlTag()));
+					writeUuid(out, element.getPackedUuid(), stringIds);
+					out.writeInt(getId(stringIds, element.getName()));
+					out.writeInt(getId(stringIds, element.getType()));
+				}
+			}
+
+		} catch (IOException e) {
+			tempFile.delete();
+			throw e;
+		}
+
+		try {
+			Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	private static void writeUuid(DataOutputStream out, CdmUuid uuid, Map<String, Integer> stringIds) throws IOException {
+
+		if (uuid == null) {
+			out.writeByte(UUID_NONE);
+		} else if (uuid.isPacked()) {
+			out.writeByte(UUID_PACKED);
+			out.writeLong(uuid.getHigh());
+			out.writeLong(uuid.getLow());
+		} else {
+			out.writeByte(UUID_UNPACKED);
+			out.writeInt(getId(stringIds, uuid.toString()));
+		}
+	}
+
+	private static CdmUuid readUuid(DataInputStream in, String[] strings) throws IOException {
+
+		byte kind = in.readByte();
+
+		switch (kind) {
+			case UUID_NONE:
+				return null;
+			case UUID_PACKED:
+				return CdmUuid.fromBits(in.readLong(), in.readLong());
+			case UUID_UNPACKED:
+				return CdmUuid.fromUnpacked(get(strings, in.readInt()));
+			default:
+				throw new IOException("The UUID kind " + kind + " is not known.");
+		}
+	}
+
+	private static void addString(String str, List<String> strings, Map<String, Integer> stringIds) {
+		if ((str != null) && !stringIds.containsKey(str)) {
+			stringIds.put(str, strings.size());
+			strings.add(str);
+		}
+	}
+
+	private static int getId(Map<String, Integer> stringIds, String str) {
+		if (str == null) {
+			return NONE;
+		}
+		return stringIds.get(str);
+	}
+
+	private static String get(String[] strings, int id) {
+		if (id == NONE) {
+			return null;
+		}
+		return strings[id];
+	}
+
+	// paths are stored relative to the CDM directory, so that the CDM can be moved around together with its index
+	private static String relativize(File dir, String path) {
+		return dir.toPath().relativize(new File(path).toPath()).toString();
+	}
+
+	private static String resolve(File dir, String relativePath) {
+		Path path = dir.toPath().resolve(relativePath).normalize();
+		return path.toString();
+	}
+}
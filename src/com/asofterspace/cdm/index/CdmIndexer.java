@@ -0,0 +1,346 @@
+/**
+ * Unlicensed code created by A Softer Space, 2019
+ * www.asofterspace.com/licenses/unlicense.txt
+ */
+package com.asofterspace.cdm.index;
+
+import com.asofterspace.cdm.events.CdmEvents;
+import com.asofterspace.cdm.events.CdmEventType;
+import com.asofterspace.cdm.exceptions.CdmScanningException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+
+/**
+ * Creates CDM indices by scanning the .cdm files of a CDM directory
+ *
+ * The files are scanned independently of each other on a fork-join pool, and only afterwards are
+ * the per-file results merged (in the order of the file paths, so that the result is exactly the
+ * same no matter how many threads were used)
+ */
+public class CdmIndexer {
+
+	private final static String CDM_EXTENSION = ".cdm";
+
+	private final static String ATTR_UUID = "xmi:id";
+	private final static String ATTR_NAME = "name";
+	private final static String ATTR_TYPE = "xsi:type";
+
+
+	/**
+	 * Index all .cdm files within the given directory (or just the given file, if a file is given),
+	 * scanning them on the given amount of threads
+	 */
+	public static CdmIndex indexDirectory(File cdmDir, int threads) throws CdmScanningException {
+
+		List<CdmFileIndex> fileIndices = indexFiles(getCdmFiles(cdmDir), threads);
+
+		// merge phase: link all the individual files together
+		return new CdmIndex(fileIndices);
+	}
+
+	/**
+	 * Index the given files on the given amount of threads, returning the per-file indices
+	 * in the same order as the files were given
+	 */
+	public static List<CdmFileIndex> indexFiles(List<File> cdmFiles, int threads) throws CdmScanningException {
+
+		if ((threads < 2) || (cdmFiles.size() < 2)) {
+			List<CdmFileIndex> fileIndices = new ArrayList<>();
+			for (File cdmFile : cdmFiles) {
+				fileIndices.add(indexFile(cdmFile));
+			}
+			return fileIndices;
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			return pool.invoke(new IndexTask(cdmFiles, 0, cdmFiles.size()));
+		} catch (IndexingFailure e) {
+			throw e.getCause();
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Get all .cdm files within the given directory and its subdirectories, sorted by their paths
+	 * (or just the file itself, if a .cdm file is given instead of a directory)
+	 */
+	public static List<File> getCdmFiles(File cdmDir) {
+
+		List<File> result = new ArrayList<>();
+
+		File absoluteDir = cdmDir.getAbsoluteFile().toPath().normalize().toFile();
+
+		if (absoluteDir.isFile()) {
+			result.add(absoluteDir);
+			return result;
+		}
+
+		addCdmFiles(absoluteDir, result);
+
+		Collections.sort(result);
+
+		return result;
+	}
+
+	private static void addCdmFiles(File dir, List<File> result) {
+
+		File[] children = dir.listFiles();
+
+		if (children == null) {
+			return;
+		}
+
+		for (File child : children) {
+			if (child.isDirectory()) {
+				addCdmFiles(child, result);
+			} else if (child.getName().toLowerCase().endsWith(CDM_EXTENSION)) {
+				result.add(child);
+			}
+		}
+	}
+
+	/**
+	 * Index the given CDM file together with all the files it links to, directly or indirectly
+	 * (and only those - no other files of the CDM are even looked at), with the given file first
+	 */
+	public static List<CdmFileIndex> indexWithDependencies(File cdmFile) throws CdmScanningException {
+		return indexWithDependencies(Collections.singletonList(cdmFile));
+	}
+
+	/**
+	 * Index the given CDM files together with all the files they link to, directly or indirectly,
+	 * with the given files first
+	 */
+	public static List<CdmFileIndex> indexWithDependencies(List<File> cdmFiles) throws CdmScanningException {
+
+		List<CdmFileIndex> result = new ArrayList<>();
+		Set<String> seen = new HashSet<>();
+		Deque<File> toVisit = new ArrayDeque<>();
+
+		for (File cdmFile : cdmFiles) {
+			toVisit.add(cdmFile.getAbsoluteFile());
+		}
+
+		while (!toVisit.isEmpty()) {
+			File current = toVisit.poll();
+
+			if (!seen.add(current.toPath().normalize().toString())) {
+				continue;
+			}
+
+			// links to files that do not exist are left for the CDM loading to complain about
+			if (!current.isFile()) {
+				continue;
+			}
+
+			CdmFileIndex fileIndex = indexFile(current);
+			result.add(fileIndex);
+
+			for (String referencedFile : fileIndex.getReferencedFiles()) {
+				toVisit.add(new File(referencedFile));
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Scan a single CDM file and create its index
+	 */
+	public static CdmFileIndex indexFile(File cdmFile) throws CdmScanningException {
+
+		CdmEventType.Event event = CdmEvents.FILE_SCANNED.begin();
+
+		CdmFileIndex result;
+
+		try (FileChannel channel = FileChannel.open(cdmFile.toPath(), StandardOpenOption.READ)) {
+
+			CdmFileReader reader = CdmFileReader.forCurrentThread();
+
+			CdmXmlScanner scanner = reader.open(channel, true);
+
+			result = new CdmFileIndex(cdmFile.getAbsoluteFile().toPath().normalize().toString(),
+				channel.size(), cdmFile.lastModified(), reader.getHash());
+
+			scan(scanner, cdmFile, result);
+
+		} catch (IOException e) {
+			throw new CdmScanningException("The file " + cdmFile + " could not be read: " + e.getMessage(), e);
+		} catch (CdmScanningException e) {
+			throw new CdmScanningException("The file " + cdmFile + " could not be scanned: " + e.getMessage(), e);
+		}
+
+		if (event != null) {
+			event.commit(result.getPath(), result.getSize(), result.getElements().size());
+		}
+
+		return result;
+	}
+
+	/**
+	 * Hash the contents of a CDM file, to be able to recognize it as unchanged later on
+	 */
+	public static byte[] hash(File cdmFile) throws IOException {
+		return CdmFileReader.forCurrentThread().hash(cdmFile);
+	}
+
+	private static void scan(CdmXmlScanner scanner, File cdmFile, CdmFileIndex result) throws CdmScanningException {
+
+		File baseDir = cdmFile.getAbsoluteFile().getParentFile();
+
+		int[] parents = new int[64];
+		int depth = 0;
+		int elementCounter = 0;
+
+		while (true) {
+			switch (scanner.next()) {
+
+				case CdmXmlScanner.START_ELEMENT:
+					int parent = (depth > 0) ? parents[depth - 1] : -1;
+
+					result.addElement(new CdmElement(result, parent, scanner.getTagName(),
+						scanner.getAttributeValue(ATTR_UUID), scanner.getAttributeValue(ATTR_NAME),
+						scanner.getAttributeValue(ATTR_TYPE), scanner.getTagFileOffset()));
+
+					addReferences(scanner, baseDir, result);
+
+					if (depth == parents.length) {
+						parents = Arrays.copyOf(parents, depth * 2);
+					}
+					parents[depth] = elementCounter;
+					depth++;
+					elementCounter++;
+					break;
+
+				case CdmXmlScanner.END_ELEMENT:
+					depth--;
+					if (depth < 0) {
+						throw new CdmScanningException("There are more closing than opening tags.");
+					}
+					break;
+
+				case CdmXmlScanner.END_DOCUMENT:
+					if (depth != 0) {
+						throw new CdmScanningException("The file ends before all tags have been closed.");
+					}
+					return;
+			}
+		}
+	}
+
+	/**
+	 * Record the other CDM files that the current element links to - links look like
+	 * href="Other.cdm#_ecoreUuid", possibly with several links in one attribute
+	 */
+	private static void addReferences(CdmXmlScanner scanner, File baseDir, CdmFileIndex result) {
+
+		for (int i = 0; i < scanner.getAttributeCount(); i++) {
+
+			if (!scanner.attributeValueContains(i, (byte) '#')) {
+				continue;
+			}
+
+			for (String link : scanner.getAttributeValue(i).split("\\s+")) {
+
+				int hashPos = link.indexOf('#');
+
+				if (hashPos < 1) {
+					continue;
+				}
+
+				String linkedFile = link.substring(0, hashPos);
+
+				if (linkedFile.toLowerCase().endsWith(CDM_EXTENSION) && !linkedFile.contains(":")) {
+					File target = new File(baseDir, linkedFile);
+					result.addReferencedFile(target.toPath().normalize().toString());
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Indexes a range of files, splitting it up into smaller ranges for other threads
+	 */
+	private static class IndexTask extends RecursiveTask<List<CdmFileIndex>> {
+
+		private static final long serialVersionUID = 1L;
+
+		private List<File> cdmFiles;
+
+		private int from;
+
+		private int to;
+
+
+		public IndexTask(List<File> cdmFiles, int from, int to) {
+			this.cdmFiles = cdmFiles;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected List<CdmFileIndex> compute() {
+
+			if (to - from < 2) {
+				List<CdmFileIndex> result = new ArrayList<>();
+				for (int i = from; i < to; i++) {
+					try {
+						result.add(indexFile(cdmFiles.get(i)));
+					} catch (CdmScanningException e) {
+						throw new IndexingFailure(e);
+					}
+				}
+				return result;
+			}
+
+			int middle = (from + to) / 2;
+
+			IndexTask left = new IndexTask(cdmFiles, from, middle);
+			IndexTask right = new IndexTask(cdmFiles, middle, to);
+
+			left.fork();
+			List<CdmFileIndex> result = right.compute();
+
+			// keep the order of the files, no matter which half was done first
+			List<CdmFileIndex> leftResult = left.join();
+			leftResult.addAll(result);
+			return leftResult;
+		}
+	}
+
+
+	/**
+	 * Carries a scanning problem out of a fork-join task
+	 */
+	private static class IndexingFailure extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+
+		public IndexingFailure(CdmScanningException cause) {
+			super(cause);
+		}
+
+		@Override
+		public CdmScanningException getCause() {
+			return (CdmScanningException) super.getCause();
+		}
+	}
+}
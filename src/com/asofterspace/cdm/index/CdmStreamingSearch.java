@@ -0,0 +1,122 @@
+/**
+ * Unlicensed code created by A Softer Space, 2019
+ * www.asofterspace.com/licenses/unlicense.txt
+ */
+package com.asofterspace.cdm.index;
+
+import com.asofterspace.cdm.exceptions.CdmScanningException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+
+/**
+ * Searches the .cdm files of a CDM for elements by their UUIDs by streaming through them one by one,
+ * without building any index or model - so the memory needed stays the same no matter how large the
+ * CDM is
+ *
+ * The files are memory-mapped (see CdmFileReader) and scanned tag by tag, and as UUIDs are unique,
+ * the search stops as soon as all of them have been found
+ */
+public class CdmStreamingSearch {
+
+	private final static String ATTR_UUID = "xmi:id";
+
+	private List<String> uuids;
+
+
+	public CdmStreamingSearch(List<String> uuids) {
+		this.uuids = uuids;
+	}
+
+	/**
+	 * Get the files (out of the given ones, in the same order) that contain any of the UUIDs
+	 */
+	public List<File> findFiles(List<File> cdmFiles) throws CdmScanningException {
+
+		List<File> result = new ArrayList<>();
+
+		Set<String> uuidsLeft = new HashSet<>(uuids);
+
+		if (uuidsLeft.isEmpty()) {
+			return result;
+		}
+
+		for (File cdmFile : cdmFiles) {
+
+			if (searchFile(cdmFile, uuidsLeft)) {
+				result.add(cdmFile);
+
+				if (uuidsLeft.isEmpty()) {
+					break;
+				}
+			}
+		}
+
+		return result;
+	}
+
+	private boolean searchFile(File cdmFile, Set<String> uuidsLeft) throws CdmScanningException {
+
+		try (RandomAccessFile file = new RandomAccessFile(cdmFile, "r")) {
+
+			CdmXmlScanner scanner = CdmFileReader.forCurrentThread().open(file.getChannel(), false);
+
+			return searchBuffer(scanner, uuidsLeft);
+
+		} catch (IOException e) {
+			throw new CdmScanningException("The file " + cdmFile + " could not be read: " + e.getMessage(), e);
+		} catch (CdmScanningException e) {
+			throw new CdmScanningException("The file " + cdmFile + " could not be scanned: " + e.getMessage(), e);
+		}
+	}
+
+	private boolean searchBuffer(CdmXmlScanner scanner, Set<String> uuidsLeft) throws CdmScanningException {
+
+		boolean found = false;
+
+		while (true) {
+			switch (scanner.next()) {
+
+				case CdmXmlScanner.START_ELEMENT:
+					if (matches(scanner, uuidsLeft)) {
+						// when looking for several UUIDs, keep going to see which other ones are in here as well
+						if (uuidsLeft.isEmpty()) {
+							return true;
+						}
+						found = true;
+					}
+					break;
+
+				case CdmXmlScanner.END_DOCUMENT:
+					return found;
+			}
+		}
+	}
+
+	private boolean matches(CdmXmlScanner scanner, Set<String> uuidsLeft) {
+
+		int uuidIndex = scanner.getAttributeIndex(ATTR_UUID);
+
+		if (uuidIndex < 0) {
+			return false;
+		}
+
+		boolean result = false;
+
+		// compare the raw bytes, as most elements will not match at all
+		for (String uuid : uuids) {
+			if (scanner.attributeValueEquals(uuidIndex, uuid)) {
+				uuidsLeft.remove(uuid);
+				result = true;
+			}
+		}
+
+		return result;
+	}
+}
@@ -0,0 +1,46 @@
+/**
+ * Unlicensed code created by A Softer Space, 2019
+ * www.asofterspace.com/licenses/unlicense.txt
+ */
+package com.asofterspace.cdm.index;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * A shared table of the strings that occur over and over again in a CDM (XML tags and xsi types),
+ * so that each of them is only held once on the heap, no matter how many elements use it and how
+ * many files (or threads) it has been read from
+ *
+ * Only put strings in here of which there are few different ones - element names, UUIDs or file
+ * paths do not belong in here, as the table is never emptied (and so would keep growing with each
+ * CDM that e.g. the cdm server indexes)
+ */
+public class CdmSymbols {
+
+	private final static ConcurrentMap<String, String> SYMBOLS = new ConcurrentHashMap<>();
+
+
+	/**
+	 * Get the one shared instance of the given string (or null, if the string is null)
+	 */
+	public static String get(String str) {
+
+		if (str == null) {
+			return null;
+		}
+
+		String result = SYMBOLS.putIfAbsent(str, str);
+
+		if (result == null) {
+			return str;
+		}
+
+		return result;
+	}
+
+	public static int size() {
+		return SYMBOLS.size();
+	}
+}
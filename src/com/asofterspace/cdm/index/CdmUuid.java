@@ -0,0 +1,134 @@
+/**
+ * Unlicensed code created by A Softer Space, 2019
+ * www.asofterspace.com/licenses/unlicense.txt
+ */
+package com.asofterspace.cdm.index;
+
+import com.asofterspace.toolbox.coders.ConversionException;
+import com.asofterspace.toolbox.coders.UuidEncoderDecoder;
+
+import java.util.UUID;
+
+
+/**
+ * The UUID of an element, held as two longs instead of as the (22 character) Ecore string,
+ * as that takes up less than half the heap
+ *
+ * Ids that are not proper Ecore UUIDs (or that would not come out as exactly the same string
+ * again) are kept as they are
+ */
+public final class CdmUuid {
+
+	private final long high;
+
+	private final long low;
+
+	// the id as it is written in the CDM, if it cannot be packed into the two longs
+	private final String unpacked;
+
+
+	private CdmUuid(long high, long low, String unpacked) {
+		this.high = high;
+		this.low = low;
+		this.unpacked = unpacked;
+	}
+
+	/**
+	 * Get the compact form of the given Ecore UUID, or null if the given id is null
+	 */
+	public static CdmUuid fromEcore(String ecoreUuid) {
+
+		if (ecoreUuid == null) {
+			return null;
+		}
+
+		String javaUuid = UuidEncoderDecoder.convertEcoreUUIDtoJava(ecoreUuid);
+
+		if (javaUuid != null) {
+			try {
+				UUID uuid = UUID.fromString(javaUuid);
+				CdmUuid result = new CdmUuid(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), null);
+
+				// only pack the id if nothing gets lost on the way
+				if (ecoreUuid.equals(result.toString())) {
+					return result;
+				}
+			} catch (IllegalArgumentException e) {
+				// not a UUID after all - keep it as it is
+			}
+		}
+
+		return new CdmUuid(0, 0, ecoreUuid);
+	}
+
+	/**
+	 * Get the compact form of a UUID that was packed earlier, given its two longs
+	 */
+	public static CdmUuid fromBits(long high, long low) {
+		return new CdmUuid(high, low, null);
+	}
+
+	/**
+	 * Get an id that cannot be packed, just as it is
+	 */
+	public static CdmUuid fromUnpacked(String id) {
+		return new CdmUuid(0, 0, id);
+	}
+
+	public boolean isPacked() {
+		return unpacked == null;
+	}
+
+	public long getHigh() {
+		return high;
+	}
+
+	public long getLow() {
+		return low;
+	}
+
+	/**
+	 * The Ecore form of this UUID, just as it is written in the CDM
+	 */
+	@Override
+	public String toString() {
+
+		if (unpacked != null) {
+			return unpacked;
+		}
+
+		try {
+			return UuidEncoderDecoder.ensureUUIDisEcore(new UUID(high, low).toString());
+		} catch (ConversionException e) {
+			// we only pack UUIDs which we checked to come out right again, so this cannot really happen
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public boolean equals(Object other) {
+
+		if (!(other instanceof CdmUuid)) {
+			return false;
+		}
+
+		CdmUuid otherUuid = (CdmUuid) other;
+
+		if (unpacked != null) {
+			return unpacked.equals(otherUuid.unpacked);
+		}
+
+		return (otherUuid.unpacked == null) && (high == otherUuid.high) && (low == otherUuid.low);
+	}
+
+	@Override
+	public int hashCode() {
+
+		if (unpacked != null) {
+			return unpacked.hashCode();
+		}
+
+		long hash = high ^ low;
+		return (int) (hash ^ (hash >>> 32));
+	}
+}
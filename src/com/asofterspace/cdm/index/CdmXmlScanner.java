@@ -0,0 +1,739 @@
+/**
+ * Unlicensed code created by A Softer Space, 2019
+ * www.asofterspace.com/licenses/unlicense.txt
+ */
+package com.asofterspace.cdm.index;
+
+import com.asofterspace.cdm.exceptions.CdmScanningException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * A small pull scanner for the XML inside of CDM files, which only reports start and end tags
+ * together with their attributes and the byte offsets at which they start
+ *
+ * It works directly on the bytes of a file (so that it can also read from memory-mapped buffers),
+ * and only creates strings for the attributes that are actually asked for; text content, comments,
+ * processing instructions and CDATA sections are skipped
+ *
+ * Namespaces are not resolved - attributes and tags are reported with the prefixes used in the
+ * file, which for CDMs are always xmi: and xsi: for the attributes we are interested in
+ *
+ * Large files can also be scanned through a file channel in windows of a bounded size, which are
+ * memory-mapped one after the other - then all offsets are relative to the current window (see
+ * getWindowOffset()), and a window only moves on when next() is called, so everything about the
+ * current tag stays available until then
+ */
+public class CdmXmlScanner {
+
+	public final static int START_ELEMENT = 1;
+	public final static int END_ELEMENT = 2;
+	public final static int END_DOCUMENT = 3;
+
+	// thrown (without a stack trace, as it is thrown often) when the current window ends in the
+	// middle of something, so that the window has to be moved on and the scanning retried
+	private final static EndOfWindowException END_OF_WINDOW = new EndOfWindowException();
+
+	private ByteBuffer buffer;
+
+	private int position;
+
+	private int limit;
+
+	// when scanning a file in windows: the channel, the size of the file, how large a window is,
+	// where in the file the current window starts, and whether it is the last one
+	private FileChannel channel;
+	private long fileSize;
+	private int windowSize;
+	private long windowOffset = 0;
+	private boolean lastWindow = true;
+
+	// where in the file the document starts, and where to continue if the window has to be moved
+	private long documentStart;
+	private int resumePosition;
+
+	private Charset charset = StandardCharsets.UTF_8;
+
+	// the start of the tag that was reported last, and where its name starts and ends
+	private int tagStart;
+	private int nameStart;
+	private int nameEnd;
+
+	// positions of the attributes of the current start tag
+	private int attributeCount = 0;
+	private int[] attributeNameStarts = new int[16];
+	private int[] attributeNameEnds = new int[16];
+	private int[] attributeValueStarts = new int[16];
+	private int[] attributeValueEnds = new int[16];
+
+	// true if the current start tag is self-closing, so that the next event is its end
+	private boolean emptyElement = false;
+	private boolean endOfEmptyElementPending = false;
+
+	private byte[] decodingBuffer = new byte[256];
+
+
+	/**
+	 * Scan the bytes from the current position to the limit of the given buffer
+	 */
+	public CdmXmlScanner(ByteBuffer buffer) {
+		reset(buffer);
+	}
+
+	/**
+	 * Scan the entire file behind the given channel, mapping at most the given amount of bytes
+	 * into memory at once (unless a single tag is larger than that)
+	 */
+	public CdmXmlScanner(FileChannel channel, int windowSize) throws CdmScanningException {
+		reset(channel, windowSize);
+	}
+
+	/**
+	 * Start scanning the given buffer from the beginning, re-using everything else of this
+	 * scanner (so that scanning many files does not need new arrays for each one)
+	 */
+	public void reset(ByteBuffer newBuffer) {
+		buffer = newBuffer;
+		position = newBuffer.position();
+		limit = newBuffer.limit();
+		channel = null;
+		windowOffset = 0;
+		lastWindow = true;
+		documentStart = position;
+		resetState();
+	}
+
+	/**
+	 * Start scanning the file behind the given channel from the beginning, in windows of at most
+	 * the given size
+	 */
+	public void reset(FileChannel newChannel, int newWindowSize) throws CdmScanningException {
+		channel = newChannel;
+		windowSize = Math.max(1024, newWindowSize);
+		documentStart = 0;
+		try {
+			fileSize = newChannel.size();
+		} catch (IOException e) {
+			throw new CdmScanningException("The file could not be read: " + e.getMessage(), e);
+		}
+		mapWindow(0, windowSize);
+		resetState();
+	}
+
+	private void resetState() {
+		charset = StandardCharsets.UTF_8;
+		attributeCount = 0;
+		emptyElement = false;
+		endOfEmptyElementPending = false;
+	}
+
+	private void mapWindow(long offset, long size) throws CdmScanningException {
+
+		size = Math.min(size, fileSize - offset);
+
+		if (size > Integer.MAX_VALUE) {
+			throw new CdmScanningException("The markup at byte " + offset + " is too large to be scanned.");
+		}
+
+		try {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+		} catch (IOException e) {
+			throw new CdmScanningException("The file could not be mapped into memory at byte " + offset + ": " + e.getMessage(), e);
+		}
+
+		windowOffset = offset;
+		position = 0;
+		limit = (int) size;
+		lastWindow = offset + size >= fileSize;
+	}
+
+	/**
+	 * Move the window on such that it starts at the given position (within the current window) -
+	 * if it already starts there, something in it does not fit into one window, so the window
+	 * becomes larger
+	 */
+	private void moveWindow(int newStart) throws CdmScanningException {
+
+		long size = (newStart == 0) ? 2L * limit : windowSize;
+
+		mapWindow(windowOffset + newStart, size);
+	}
+
+	/**
+	 * Advance to the next start tag, end tag or the end of the document and return which one it is
+	 */
+	public int next() throws CdmScanningException {
+
+		if (endOfEmptyElementPending) {
+			endOfEmptyElementPending = false;
+			attributeCount = 0;
+			return END_ELEMENT;
+		}
+
+		while (true) {
+			try {
+				return nextInWindow();
+			} catch (EndOfWindowException e) {
+				moveWindow(resumePosition);
+			}
+		}
+	}
+
+	private int nextInWindow() throws CdmScanningException {
+
+		while (true) {
+
+			resumePosition = position;
+
+			int found = find((byte) '<', position, limit);
+
+			if (found < 0) {
+				position = limit;
+				if (!lastWindow) {
+					// there is only text until the end of the window, which we do not need to see again
+					resumePosition = limit;
+					throw END_OF_WINDOW;
+				}
+				return END_DOCUMENT;
+			}
+
+			position = found;
+
+			tagStart = position;
+
+			byte second = byteAt(position + 1);
+
+			switch (second) {
+
+				case '?':
+					int declarationEnd = indexOf("?>", position);
+					if (windowOffset + tagStart == documentStart) {
+						readEncoding(position, declarationEnd);
+					}
+					position = declarationEnd + 2;
+					break;
+
+				case '!':
+					if (startsWith("<!--", position)) {
+						position = indexOf("-->", position) + 3;
+					} else if (startsWith("<![CDATA[", position)) {
+						position = indexOf("]]>", position) + 3;
+					} else {
+						position = skipDeclaration(position);
+					}
+					break;
+
+				case '/':
+					position += 2;
+					nameStart = position;
+					nameEnd = skipName(position);
+					position = indexOf((byte) '>', nameEnd);
+					if (position < 0) {
+						throw new CdmScanningException("The end tag at byte " + tagStart + " is never closed.");
+					}
+					position++;
+					attributeCount = 0;
+					return END_ELEMENT;
+
+				default:
+					readStartTag();
+					return START_ELEMENT;
+			}
+		}
+	}
+
+	/**
+	 * The buffer that all offsets within the buffer refer to - when scanning a file in windows,
+	 * this is a different one for each window
+	 */
+	public ByteBuffer getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * The byte offset (within the buffer) of the tag that was reported last
+	 */
+	public int getTagOffset() {
+		return tagStart;
+	}
+
+	/**
+	 * The byte offset within the file (or buffer) of the tag that was reported last, even when
+	 * the file is scanned in windows
+	 */
+	public long getTagFileOffset() {
+		return windowOffset + tagStart;
+	}
+
+	/**
+	 * Where in the file the current window starts (so 0, unless the file is scanned in windows)
+	 */
+	public long getWindowOffset() {
+		return windowOffset;
+	}
+
+	/**
+	 * The byte offset (within the buffer) right behind the tag that was reported last
+	 */
+	public int getTagEndOffset() {
+		return position;
+	}
+
+	/**
+	 * The name of the tag that was reported last, including its namespace prefix (if any)
+	 */
+	public String getTagName() {
+		return decode(nameStart, nameEnd);
+	}
+
+	public int getTagNameStart() {
+		return nameStart;
+	}
+
+	public int getTagNameEnd() {
+		return nameEnd;
+	}
+
+	public boolean isTagName(String name) {
+		return bytesEqual(nameStart, nameEnd, name);
+	}
+
+	public boolean isEmptyElement() {
+		return emptyElement;
+	}
+
+	public int getAttributeCount() {
+		return attributeCount;
+	}
+
+	public String getAttributeName(int index) {
+		return decode(attributeNameStarts[index], attributeNameEnds[index]);
+	}
+
+	public String getAttributeValue(int index) {
+		return decode(attributeValueStarts[index], attributeValueEnds[index]);
+	}
+
+	/**
+	 * Get the value of the attribute with the given name (including its prefix) on the current
+	 * start tag, or null if there is no such attribute
+	 */
+	public String getAttributeValue(String name) {
+		int index = getAttributeIndex(name);
+		if (index < 0) {
+			return null;
+		}
+		return getAttributeValue(index);
+	}
+
+	public int getAttributeIndex(String name) {
+		for (int i = 0; i < attributeCount; i++) {
+			if (bytesEqual(attributeNameStarts[i], attributeNameEnds[i], name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Check whether the raw value of the given attribute contains the given (ASCII) byte,
+	 * without decoding it
+	 */
+	public boolean attributeValueContains(int index, byte b) {
+		for (int i = attributeValueStarts[index]; i < attributeValueEnds[index]; i++) {
+			if (buffer.get(i) == b) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Check whether the raw value of the given attribute is exactly the given (ASCII) string,
+	 * without decoding it
+	 */
+	public boolean attributeValueEquals(int index, String value) {
+		return bytesEqual(attributeValueStarts[index], attributeValueEnds[index], value);
+	}
+
+	public int getAttributeNameStart(int index) {
+		return attributeNameStarts[index];
+	}
+
+	public int getAttributeNameEnd(int index) {
+		return attributeNameEnds[index];
+	}
+
+	public int getAttributeValueStart(int index) {
+		return attributeValueStarts[index];
+	}
+
+	public int getAttributeValueEnd(int index) {
+		return attributeValueEnds[index];
+	}
+
+	public Charset getCharset() {
+		return charset;
+	}
+
+	private void readStartTag() throws CdmScanningException {
+
+		position++;
+		nameStart = position;
+		nameEnd = skipName(position);
+		position = nameEnd;
+		attributeCount = 0;
+		emptyElement = false;
+
+		while (true) {
+			position = skipWhitespace(position);
+
+			if (position >= limit) {
+				throw new CdmScanningException("The start tag at byte " + tagStart + " is never closed.");
+			}
+
+			byte b = buffer.get(position);
+
+			if (b == '>') {
+				position++;
+				return;
+			}
+
+			if (b == '/') {
+				position = indexOf((byte) '>', position);
+				if (position < 0) {
+					throw new CdmScanningException("The start tag at byte " + tagStart + " is never closed.");
+				}
+				position++;
+				emptyElement = true;
+				endOfEmptyElementPending = true;
+				return;
+			}
+
+			// read an attribute
+			int attrNameStart = position;
+			int attrNameEnd = skipName(position);
+			position = skipWhitespace(attrNameEnd);
+
+			if ((attrNameEnd == attrNameStart) || (byteAt(position) != '=')) {
+				throw new CdmScanningException("The attribute at byte " + attrNameStart + " has no value.");
+			}
+
+			position = skipWhitespace(position + 1);
+			byte quote = byteAt(position);
+
+			if ((quote != '"') && (quote != '\'')) {
+				throw new CdmScanningException("The value of the attribute at byte " + attrNameStart + " is not quoted.");
+			}
+
+			int valueStart = position + 1;
+			int valueEnd = indexOf(quote, valueStart);
+
+			if (valueEnd < 0) {
+				throw new CdmScanningException("The value of the attribute at byte " + attrNameStart + " is never closed.");
+			}
+
+			addAttribute(attrNameStart, attrNameEnd, valueStart, valueEnd);
+
+			position = valueEnd + 1;
+		}
+	}
+
+	private void addAttribute(int attrNameStart, int attrNameEnd, int valueStart, int valueEnd) {
+
+		if (attributeCount == attributeNameStarts.length) {
+			int newLength = attributeCount * 2;
+			attributeNameStarts = grow(attributeNameStarts, newLength);
+			attributeNameEnds = grow(attributeNameEnds, newLength);
+			attributeValueStarts = grow(attributeValueStarts, newLength);
+			attributeValueEnds = grow(attributeValueEnds, newLength);
+		}
+
+		attributeNameStarts[attributeCount] = attrNameStart;
+		attributeNameEnds[attributeCount] = attrNameEnd;
+		attributeValueStarts[attributeCount] = valueStart;
+		attributeValueEnds[attributeCount] = valueEnd;
+		attributeCount++;
+	}
+
+	private static int[] grow(int[] array, int newLength) {
+		int[] result = new int[newLength];
+		System.arraycopy(array, 0, result, 0, array.length);
+		return result;
+	}
+
+	// read the encoding out of the XML declaration (we only support encodings in which the markup is ASCII)
+	private void readEncoding(int start, int end) throws CdmScanningException {
+
+		String declaration = decodeRaw(start, end, StandardCharsets.US_ASCII);
+		int encodingPos = declaration.indexOf("encoding=");
+
+		if (encodingPos < 0) {
+			return;
+		}
+
+		int valueStart = encodingPos + "encoding=".length() + 1;
+		int valueEnd = declaration.indexOf(declaration.charAt(valueStart - 1), valueStart);
+
+		if (valueEnd < 0) {
+			return;
+		}
+
+		String encoding = declaration.substring(valueStart, valueEnd);
+
+		try {
+			charset = Charset.forName(encoding);
+		} catch (IllegalArgumentException e) {
+			throw new CdmScanningException("The encoding " + encoding + " is not supported.");
+		}
+
+		if (encoding.toUpperCase().startsWith("UTF-16") || encoding.toUpperCase().startsWith("UTF-32")) {
+			throw new CdmScanningException("The encoding " + encoding + " is not supported.");
+		}
+	}
+
+	// skip a <!DOCTYPE ...> or similar declaration, including a possible internal subset
+	private int skipDeclaration(int start) throws CdmScanningException {
+
+		int depth = 0;
+
+		for (int i = start + 2; i < limit; i++) {
+			byte b = buffer.get(i);
+			if (b == '[') {
+				depth++;
+			} else if (b == ']') {
+				depth--;
+			} else if ((b == '>') && (depth <= 0)) {
+				return i + 1;
+			}
+		}
+
+		checkWindow();
+
+		throw new CdmScanningException("The declaration at byte " + start + " is never closed.");
+	}
+
+	private int skipName(int start) {
+		int i = start;
+		while (i < limit) {
+			byte b = buffer.get(i);
+			if ((b == ' ') || (b == '\t') || (b == '\n') || (b == '\r') || (b == '=') || (b == '>') || (b == '/')) {
+				return i;
+			}
+			i++;
+		}
+		checkWindow();
+		return i;
+	}
+
+	private int skipWhitespace(int start) {
+		int i = start;
+		while (i < limit) {
+			byte b = buffer.get(i);
+			if ((b != ' ') && (b != '\t') && (b != '\n') && (b != '\r')) {
+				return i;
+			}
+			i++;
+		}
+		checkWindow();
+		return i;
+	}
+
+	/**
+	 * Called when the end of the window has been reached - which is fine if it is the end of the file,
+	 * but otherwise the window has to be moved on
+	 */
+	private void checkWindow() {
+		if (!lastWindow) {
+			throw END_OF_WINDOW;
+		}
+	}
+
+	private byte byteAt(int index) {
+		if (index >= limit) {
+			checkWindow();
+			return 0;
+		}
+		return buffer.get(index);
+	}
+
+	private int indexOf(byte b, int start) {
+		int result = find(b, start, limit);
+		if (result < 0) {
+			checkWindow();
+		}
+		return result;
+	}
+
+	private int find(byte b, int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (buffer.get(i) == b) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private int indexOf(String str, int start) throws CdmScanningException {
+
+		byte first = (byte) str.charAt(0);
+
+		for (int i = indexOf(first, start); i >= 0; i = indexOf(first, i + 1)) {
+			if (startsWith(str, i)) {
+				return i;
+			}
+		}
+
+		throw new CdmScanningException("The markup starting at byte " + start + " is never closed.");
+	}
+
+	private boolean startsWith(String str, int start) {
+
+		if (start + str.length() > limit) {
+			checkWindow();
+			return false;
+		}
+
+		for (int i = 0; i < str.length(); i++) {
+			if (buffer.get(start + i) != (byte) str.charAt(i)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private boolean bytesEqual(int start, int end, String str) {
+
+		if (end - start != str.length()) {
+			return false;
+		}
+
+		return startsWith(str, start);
+	}
+
+	/**
+	 * Decode the bytes between start and end, resolving entities
+	 */
+	private String decode(int start, int end) {
+
+		boolean simple = true;
+
+		for (int i = start; i < end; i++) {
+			byte b = buffer.get(i);
+			if ((b < 0) || (b == '&')) {
+				simple = false;
+				break;
+			}
+		}
+
+		// the most common case by far - plain ASCII without any entities
+		if (simple) {
+			return decodeRaw(start, end, StandardCharsets.ISO_8859_1);
+		}
+
+		int length = 0;
+
+		for (int i = start; i < end; i++) {
+			byte b = buffer.get(i);
+
+			if (b == '&') {
+				int entityEnd = find((byte) ';', i, end);
+				if ((entityEnd > 0) && (entityEnd < end)) {
+					byte[] replacement = resolveEntity(decodeEntityName(i + 1, entityEnd));
+					if (replacement != null) {
+						for (byte r : replacement) {
+							length = appendDecoded(length, r);
+						}
+						i = entityEnd;
+						continue;
+					}
+				}
+			}
+
+			length = appendDecoded(length, b);
+		}
+
+		return new String(decodingBuffer, 0, length, charset);
+	}
+
+	private int appendDecoded(int length, byte b) {
+		if (length == decodingBuffer.length) {
+			byte[] newBuffer = new byte[length * 2];
+			System.arraycopy(decodingBuffer, 0, newBuffer, 0, length);
+			decodingBuffer = newBuffer;
+		}
+		decodingBuffer[length] = b;
+		return length + 1;
+	}
+
+	// entity names are short and plain ASCII, and must not touch the decoding buffer which is in use
+	private String decodeEntityName(int start, int end) {
+		StringBuilder result = new StringBuilder(end - start);
+		for (int i = start; i < end; i++) {
+			result.append((char) buffer.get(i));
+		}
+		return result.toString();
+	}
+
+	private byte[] resolveEntity(String entity) {
+
+		switch (entity) {
+			case "amp":
+				return new byte[] {'&'};
+			case "lt":
+				return new byte[] {'<'};
+			case "gt":
+				return new byte[] {'>'};
+			case "quot":
+				return new byte[] {'"'};
+			case "apos":
+				return new byte[] {'\''};
+		}
+
+		try {
+			int codePoint;
+			if (entity.startsWith("#x")) {
+				codePoint = Integer.parseInt(entity.substring(2), 16);
+			} else if (entity.startsWith("#")) {
+				codePoint = Integer.parseInt(entity.substring(1));
+			} else {
+				return null;
+			}
+			return new String(Character.toChars(codePoint)).getBytes(charset);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	private String decodeRaw(int start, int end, Charset rawCharset) {
+
+		int length = end - start;
+
+		if (length > decodingBuffer.length) {
+			decodingBuffer = new byte[Math.max(length, decodingBuffer.length * 2)];
+		}
+
+		for (int i = 0; i < length; i++) {
+			decodingBuffer[i] = buffer.get(start + i);
+		}
+
+		return new String(decodingBuffer, 0, length, rawCharset);
+	}
+
+
+	private static class EndOfWindowException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+
+		public EndOfWindowException() {
+			super(null, null, false, false);
+		}
+	}
+}
@@ -0,0 +1,128 @@
+/**
+ * Unlicensed code created by A Softer Space, 2019
+ * www.asofterspace.com/licenses/unlicense.txt
+ */
+package com.asofterspace.cdm.query;
+
+import com.asofterspace.cdm.index.CdmElement;
+import com.asofterspace.cdm.index.CdmIndex;
+import com.asofterspace.toolbox.cdm.CdmNode;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+
+/**
+ * Matches what all of its parts match
+ */
+public class CdmAndQuery extends CdmQuery {
+
+	private List<CdmQuery> parts;
+
+
+	public CdmAndQuery(List<CdmQuery> parts) {
+		this.parts = parts;
+	}
+
+	@Override
+	public boolean isBounded() {
+		for (CdmQuery part : parts) {
+			if (part.isBounded()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public boolean isExact() {
+		for (CdmQuery part : parts) {
+			if (!part.isExact()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public long estimateCost(CdmIndex index) {
+		long result = UNKNOWN_COST;
+		for (CdmQuery part : parts) {
+			if (part.isBounded()) {
+				result = Math.min(result, part.estimateCost(index));
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public Collection<CdmElement> getCandidates(CdmIndex index) {
+
+		CdmQuery cheapest = getCheapest(parts, index);
+
+		if ((cheapest == null) || (cheapest.estimateCost(index) == UNKNOWN_COST)) {
+			return null;
+		}
+
+		// only check the few candidates of the cheapest part against all the other parts
+		List<CdmElement> result = new ArrayList<>();
+		for (CdmElement element : cheapest.getCandidates(index)) {
+			if (mayMatch(element)) {
+				result.add(element);
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public boolean mayMatch(CdmElement element) {
+		for (CdmQuery part : parts) {
+			if (!part.mayMatch(element)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public void evaluate(final CdmModelLookup lookup, final ResultListener listener) {
+
+		final CdmQuery cheapest = getCheapest(parts, lookup.getIndex());
+
+		// only the cheapest part asks the model for its results, the others just check these nodes
+		cheapest.evaluate(lookup, new ResultListener() {
+			public void found(CdmNode node) {
+				if (matchesAllExcept(node, cheapest, lookup)) {
+					listener.found(node);
+				}
+			}
+		});
+	}
+
+	@Override
+	public boolean matches(CdmNode node, CdmModelLookup lookup) {
+		return matchesAllExcept(node, null, lookup);
+	}
+
+	private boolean matchesAllExcept(CdmNode node, CdmQuery except, CdmModelLookup lookup) {
+		for (CdmQuery part : parts) {
+			if ((part != except) && !part.matches(node, lookup)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public void collectCriteria(List<CdmCriterion> result) {
+		for (CdmQuery part : parts) {
+			part.collectCriteria(result);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "and" + parts;
+	}
+}
@@ -0,0 +1,182 @@
+/**
+ * Unlicensed code created by A Softer Space, 2019
+ * www.asofterspace.com/licenses/unlicense.txt
+ */
+package com.asofterspace.cdm.query;
+
+import com.asofterspace.cdm.events.CdmEvents;
+import com.asofterspace.cdm.events.CdmEventType;
+import com.asofterspace.cdm.index.CdmElement;
+import com.asofterspace.cdm.index.CdmIndex;
+import com.asofterspace.cdm.index.CdmUuid;
+import com.asofterspace.toolbox.cdm.CdmNode;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+
+
+/**
+ * A single criterion of a query, e.g. "has the name X"
+ */
+public class CdmCriterion extends CdmQuery {
+
+	public enum Kind {
+
+		// ordered by how few results they typically have, which is used as rough guess
+		// for the cost of a criterion when there is no index to ask
+		UUID, NAME, PATH, TYPE, XML_TAG;
+
+		long getGuessedCost() {
+			return 1L << (4 * ordinal());
+		}
+	}
+
+	private Kind kind;
+
+	private String value;
+
+	// the value as the index compares it
+	private String normalizedValue;
+
+	// for UUID criteria, the UUID in the compact form in which the index holds it
+	private CdmUuid packedValue;
+
+
+	public CdmCriterion(Kind kind, String value) {
+
+		this.kind = kind;
+		this.value = value;
+
+		switch (kind) {
+			case NAME:
+				normalizedValue = CdmIndex.normalize(value);
+				break;
+			case TYPE:
+			case XML_TAG:
+				normalizedValue = CdmIndex.normalizeQualified(value);
+				break;
+			case UUID:
+				normalizedValue = value;
+				packedValue = CdmUuid.fromEcore(value);
+				break;
+			default:
+				normalizedValue = value;
+		}
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	public String getValue() {
+		return value;
+	}
+
+	@Override
+	public boolean isBounded() {
+		return true;
+	}
+
+	@Override
+	public boolean isExact() {
+		// names, types and tags are compared leniently by the index, and paths not at all
+		return kind == Kind.UUID;
+	}
+
+	@Override
+	public long estimateCost(CdmIndex index) {
+
+		if (index == null) {
+			return kind.getGuessedCost();
+		}
+
+		Collection<CdmElement> candidates = getCandidates(index);
+
+		if (candidates == null) {
+			return UNKNOWN_COST;
+		}
+
+		return candidates.size();
+	}
+
+	@Override
+	public Collection<CdmElement> getCandidates(CdmIndex index) {
+
+		CdmEventType.Event event = CdmEvents.QUERY.begin();
+		String method;
+		Collection<CdmElement> result;
+
+		switch (kind) {
+			case UUID:
+				method = "findByUuid";
+				result = index.findByUuid(value);
+				break;
+			case NAME:
+				method = "findByName";
+				result = index.findByName(value);
+				break;
+			case TYPE:
+				method = "findByType";
+				result = index.findByType(value);
+				break;
+			case XML_TAG:
+				method = "findByXmlTag";
+				result = index.findByXmlTag(value);
+				break;
+			default:
+				// paths are made up of several elements, so they are not indexed
+				return null;
+		}
+
+		if (event != null) {
+			event.commit(method, value, result.size(), "index");
+		}
+
+		return result;
+	}
+
+	@Override
+	public boolean mayMatch(CdmElement element) {
+
+		switch (kind) {
+			case UUID:
+				return packedValue.equals(element.getPackedUuid());
+			case NAME:
+				return Objects.equals(normalizedValue, CdmIndex.normalize(element.getName()));
+			case TYPE:
+				return Objects.equals(normalizedValue, CdmIndex.normalizeQualified(element.getType()));
+			case XML_TAG:
+				return Objects.equals(normalizedValue, CdmIndex.normalizeQualified(element.getXmlTag()));
+			default:
+				return true;
+		}
+	}
+
+	@Override
+	public void evaluate(CdmModelLookup lookup, ResultListener listener) {
+		for (CdmNode node : lookup.find(this)) {
+			listener.found(node);
+		}
+	}
+
+	@Override
+	public boolean matches(CdmNode node, CdmModelLookup lookup) {
+
+		// the model decides what matches (e.g. ignoring case and namespace prefixes), so we ask it
+		// rather than comparing values ourselves - this way, a node matches this criterion no matter
+		// whether it was found through this criterion or through another one; the model is asked
+		// at most once per criterion, as the lookup keeps its answers
+		return lookup.find(this).contains(node);
+	}
+
+	@Override
+	public void collectCriteria(List<CdmCriterion> result) {
+		result.add(this);
+	}
+
+	@Override
+	public String toString() {
+		return kind + "=" + value;
+	}
+}
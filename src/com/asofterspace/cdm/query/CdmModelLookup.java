@@ -0,0 +1,81 @@
+/**
+ * Unlicensed code created by A Softer Space, 2019
+ * www.asofterspace.com/licenses/unlicense.txt
+ */
+package com.asofterspace.cdm.query;
+
+import com.asofterspace.cdm.events.CdmEvents;
+import com.asofterspace.cdm.events.CdmEventType;
+import com.asofterspace.cdm.index.CdmIndex;
+import com.asofterspace.toolbox.cdm.CdmCtrl;
+import com.asofterspace.toolbox.cdm.CdmNode;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * Answers the criteria of a query on a loaded CDM model, asking the model for each criterion
+ * at most once, and only once that criterion is actually needed
+ */
+public class CdmModelLookup {
+
+	private CdmCtrl cdmCtrl;
+
+	private CdmIndex index;
+
+	private Map<CdmCriterion, Set<CdmNode>> results = new HashMap<>();
+
+
+	/**
+	 * Look up criteria in the given loaded CDM, using the given index (which may be null)
+	 * to decide which criteria are the cheapest
+	 */
+	public CdmModelLookup(CdmCtrl cdmCtrl, CdmIndex index) {
+		this.cdmCtrl = cdmCtrl;
+		this.index = index;
+	}
+
+	public CdmIndex getIndex() {
+		return index;
+	}
+
+	public Set<CdmNode> find(CdmCriterion criterion) {
+
+		Set<CdmNode> result = results.get(criterion);
+
+		if (result == null) {
+			CdmEventType.Event event = CdmEvents.QUERY.begin();
+			String method;
+			switch (criterion.getKind()) {
+				case UUID:
+					method = "findByUuid";
+					result = new HashSet<CdmNode>(cdmCtrl.findByUuid(criterion.getValue()));
+					break;
+				case NAME:
+					method = "findByName";
+					result = new HashSet<CdmNode>(cdmCtrl.findByName(criterion.getValue()));
+					break;
+				case PATH:
+					method = "findByPath";
+					result = new HashSet<CdmNode>(cdmCtrl.findByPath(criterion.getValue()));
+					break;
+				case TYPE:
+					method = "findByType";
+					result = new HashSet<CdmNode>(cdmCtrl.findByType(criterion.getValue()));
+					break;
+				default:
+					method = "findByXmlTag";
+					result = new HashSet<CdmNode>(cdmCtrl.findByXmlTag(criterion.getValue()));
+			}
+			if (event != null) {
+				event.commit(method, criterion.getValue(), result.size(), "model");
+			}
+			results.put(criterion, result);
+		}
+
+		return result;
+	}
+}
@@ -0,0 +1,80 @@
+/**
+ * Unlicensed code created by A Softer Space, 2019
+ * www.asofterspace.com/licenses/unlicense.txt
+ */
+package com.asofterspace.cdm.query;
+
+import com.asofterspace.cdm.index.CdmElement;
+import com.asofterspace.cdm.index.CdmIndex;
+import com.asofterspace.toolbox.cdm.CdmNode;
+
+import java.util.Collection;
+import java.util.List;
+
+
+/**
+ * Matches what its part does not match - which only makes sense together with other criteria,
+ * e.g. "has type X and not name Y", as everything else would mean going through all elements
+ */
+public class CdmNotQuery extends CdmQuery {
+
+	private CdmQuery part;
+
+
+	public CdmNotQuery(CdmQuery part) {
+		this.part = part;
+	}
+
+	@Override
+	public boolean isBounded() {
+		return false;
+	}
+
+	@Override
+	public boolean isExact() {
+		return part.isExact();
+	}
+
+	@Override
+	public long estimateCost(CdmIndex index) {
+		return UNKNOWN_COST;
+	}
+
+	@Override
+	public Collection<CdmElement> getCandidates(CdmIndex index) {
+		return null;
+	}
+
+	@Override
+	public boolean mayMatch(CdmElement element) {
+
+		// if the index only narrows the part down, an element that the index thinks matches the
+		// part might actually not match it - and therefore match this NOT
+		if (!part.isExact()) {
+			return true;
+		}
+
+		return !part.mayMatch(element);
+	}
+
+	@Override
+	public void evaluate(CdmModelLookup lookup, ResultListener listener) {
+		// never happens: the parser only accepts bounded queries, and an AND starts from a bounded part
+		throw new IllegalStateException("A NOT on its own cannot be evaluated.");
+	}
+
+	@Override
+	public boolean matches(CdmNode node, CdmModelLookup lookup) {
+		return !part.matches(node, lookup);
+	}
+
+	@Override
+	public void collectCriteria(List<CdmCriterion> result) {
+		part.collectCriteria(result);
+	}
+
+	@Override
+	public String toString() {
+		return "not[" + part + "]";
+	}
+}
@@ -0,0 +1,131 @@
+/**
+ * Unlicensed code created by A Softer Space, 2019
+ * www.asofterspace.com/licenses/unlicense.txt
+ */
+package com.asofterspace.cdm.query;
+
+import com.asofterspace.cdm.index.CdmElement;
+import com.asofterspace.cdm.index.CdmIndex;
+import com.asofterspace.toolbox.cdm.CdmNode;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+
+/**
+ * Matches what any of its parts matches
+ */
+public class CdmOrQuery extends CdmQuery {
+
+	private List<CdmQuery> parts;
+
+
+	public CdmOrQuery(List<CdmQuery> parts) {
+		this.parts = parts;
+	}
+
+	@Override
+	public boolean isBounded() {
+		for (CdmQuery part : parts) {
+			if (!part.isBounded()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public boolean isExact() {
+		for (CdmQuery part : parts) {
+			if (!part.isExact()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public long estimateCost(CdmIndex index) {
+		long result = 0;
+		for (CdmQuery part : parts) {
+			long cost = part.estimateCost(index);
+			if (cost == UNKNOWN_COST) {
+				return UNKNOWN_COST;
+			}
+			result += cost;
+		}
+		return result;
+	}
+
+	@Override
+	public Collection<CdmElement> getCandidates(CdmIndex index) {
+
+		// elements are only ever created once, so we can simply collect them by identity
+		Set<CdmElement> result = new LinkedHashSet<>();
+
+		for (CdmQuery part : parts) {
+			Collection<CdmElement> partCandidates = part.getCandidates(index);
+			if (partCandidates == null) {
+				return null;
+			}
+			result.addAll(partCandidates);
+		}
+
+		return result;
+	}
+
+	@Override
+	public boolean mayMatch(CdmElement element) {
+		for (CdmQuery part : parts) {
+			if (part.mayMatch(element)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public void evaluate(final CdmModelLookup lookup, final ResultListener listener) {
+
+		for (int i = 0; i < parts.size(); i++) {
+
+			final int partIndex = i;
+
+			// nodes that an earlier part matches have already been reported by that part
+			parts.get(i).evaluate(lookup, new ResultListener() {
+				public void found(CdmNode node) {
+					for (int p = 0; p < partIndex; p++) {
+						if (parts.get(p).matches(node, lookup)) {
+							return;
+						}
+					}
+					listener.found(node);
+				}
+			});
+		}
+	}
+
+	@Override
+	public boolean matches(CdmNode node, CdmModelLookup lookup) {
+		for (CdmQuery part : parts) {
+			if (part.matches(node, lookup)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public void collectCriteria(List<CdmCriterion> result) {
+		for (CdmQuery part : parts) {
+			part.collectCriteria(result);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "or" + parts;
+	}
+}
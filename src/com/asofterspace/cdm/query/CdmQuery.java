@@ -0,0 +1,130 @@
+/**
+ * Unlicensed code created by A Softer Space, 2019
+ * www.asofterspace.com/licenses/unlicense.txt
+ */
+package com.asofterspace.cdm.query;
+
+import com.asofterspace.cdm.index.CdmElement;
+import com.asofterspace.cdm.index.CdmIndex;
+import com.asofterspace.toolbox.cdm.CdmNode;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+
+/**
+ * A query for CDM elements, built out of criteria (by UUID, name, path, type or XML tag) which
+ * are combined with AND, OR and NOT
+ *
+ * A query is answered in two steps: first, the index is asked for candidate elements, which tells
+ * us which files have to be loaded at all; then, the query is evaluated exactly on the loaded model
+ *
+ * In both steps, an AND starts out with its cheapest part (e.g. the one UUID match rather than the
+ * thousands of elements of some type) and only checks the remaining parts for these few elements,
+ * instead of working out the full results of all its parts and intersecting them
+ */
+public abstract class CdmQuery {
+
+	/**
+	 * The cost of a query whose amount of results cannot be estimated (or which cannot be
+	 * answered without looking at all elements)
+	 */
+	public final static long UNKNOWN_COST = Long.MAX_VALUE;
+
+
+	/**
+	 * Whether this query can be answered without going through every single element - which is
+	 * not the case e.g. for a NOT on its own
+	 */
+	public abstract boolean isBounded();
+
+	/**
+	 * Whether the index answers this query exactly (rather than just narrowing down the candidates)
+	 */
+	public abstract boolean isExact();
+
+	/**
+	 * Estimate the amount of results, based on the given index (or on rough guesses if the index
+	 * is null), returning UNKNOWN_COST if that is not possible
+	 */
+	public abstract long estimateCost(CdmIndex index);
+
+	/**
+	 * Get the elements of the index which may match this query (at least all that actually do),
+	 * or null if the index cannot narrow them down
+	 */
+	public abstract Collection<CdmElement> getCandidates(CdmIndex index);
+
+	/**
+	 * Check whether the given element of the index may match - false only if it certainly does not
+	 */
+	public abstract boolean mayMatch(CdmElement element);
+
+	/**
+	 * Tell the given listener about each node of the loaded model that matches this query, as soon
+	 * as it has been found, and about each one just once (the query must be bounded, which the
+	 * parser ensures for all queries that it returns)
+	 */
+	public abstract void evaluate(CdmModelLookup lookup, ResultListener listener);
+
+	/**
+	 * Get all nodes of the loaded model that match this query, in the order in which they are found
+	 */
+	public Set<CdmNode> evaluate(CdmModelLookup lookup) {
+
+		final Set<CdmNode> result = new LinkedHashSet<>();
+
+		evaluate(lookup, new ResultListener() {
+			public void found(CdmNode node) {
+				result.add(node);
+			}
+		});
+
+		return result;
+	}
+
+	/**
+	 * Check whether the given node of the loaded model matches this query, judging by exactly
+	 * what the model itself finds for each criterion (so that a node matches the same way no
+	 * matter which criterion it was found through)
+	 */
+	public abstract boolean matches(CdmNode node, CdmModelLookup lookup);
+
+	/**
+	 * Add all the criteria that this query consists of to the given list
+	 */
+	public abstract void collectCriteria(List<CdmCriterion> result);
+
+	/**
+	 * Of the given queries, get the bounded one with the lowest estimated cost
+	 */
+	static CdmQuery getCheapest(List<CdmQuery> queries, CdmIndex index) {
+
+		CdmQuery result = null;
+		long resultCost = UNKNOWN_COST;
+
+		for (CdmQuery query : queries) {
+			if (!query.isBounded()) {
+				continue;
+			}
+			long cost = query.estimateCost(index);
+			if ((result == null) || (cost < resultCost)) {
+				result = query;
+				resultCost = cost;
+			}
+		}
+
+		return result;
+	}
+
+
+	/**
+	 * Gets told about the nodes that match a query while it is being evaluated
+	 */
+	public interface ResultListener {
+
+		void found(CdmNode node);
+	}
+}
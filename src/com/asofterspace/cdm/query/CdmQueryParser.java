@@ -0,0 +1,175 @@
+/**
+ * Unlicensed code created by A Softer Space, 2019
+ * www.asofterspace.com/licenses/unlicense.txt
+ */
+package com.asofterspace.cdm.query;
+
+import com.asofterspace.cdm.exceptions.CdmQueryException;
+import com.asofterspace.toolbox.coders.ConversionException;
+import com.asofterspace.toolbox.coders.UuidEncoderDecoder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Parses the criteria given to  cdm find  into a query, e.g.
+ *   -t Type -and ( -n Name -or -n OtherName ) -and -not -x xmltag
+ *
+ * -not binds strongest, then -and, then -or; criteria that follow each other without an operator
+ * in between are combined with -or (which is how  cdm find  has always combined its criteria)
+ *
+ * Queries that cannot be answered without going through all elements (a -not on its own, or as
+ * part of an -or) are rejected, so every query that is returned can be evaluated
+ */
+public class CdmQueryParser {
+
+	public final static String AND = "-and";
+	public final static String OR = "-or";
+	public final static String NOT = "-not";
+	public final static String OPEN = "(";
+	public final static String CLOSE = ")";
+
+	private List<String> tokens;
+
+	private int position = 0;
+
+
+	private CdmQueryParser(List<String> tokens) {
+		this.tokens = tokens;
+	}
+
+	/**
+	 * Parse the given arguments into a query, returning null if there are no criteria at all
+	 */
+	public static CdmQuery parse(List<String> tokens) throws CdmQueryException, ConversionException {
+
+		if (tokens.size() == 0) {
+			return null;
+		}
+
+		CdmQueryParser parser = new CdmQueryParser(tokens);
+
+		CdmQuery result = parser.parseOr();
+
+		if (parser.position < tokens.size()) {
+			throw new CdmQueryException("There is a '" + CLOSE + "' without a matching '" + OPEN + "'.");
+		}
+
+		// a NOT that is not combined with other criteria would mean going through all elements - so a
+		// query is only ever evaluated if it has a bounded part to start from
+		if (!result.isBounded()) {
+			throw new CdmQueryException("A -not cannot be used on its own, as it would find nearly everything - please " +
+				"combine it with another criterion, e.g.  -t type -and -not -n name .");
+		}
+
+		return result;
+	}
+
+	private CdmQuery parseOr() throws CdmQueryException, ConversionException {
+
+		List<CdmQuery> parts = new ArrayList<>();
+		parts.add(parseAnd());
+
+		while ((position < tokens.size()) && !CLOSE.equals(peek())) {
+			if (OR.equals(peek())) {
+				position++;
+			}
+			parts.add(parseAnd());
+		}
+
+		if (parts.size() == 1) {
+			return parts.get(0);
+		}
+		return new CdmOrQuery(parts);
+	}
+
+	private CdmQuery parseAnd() throws CdmQueryException, ConversionException {
+
+		List<CdmQuery> parts = new ArrayList<>();
+		parts.add(parseUnary());
+
+		while (AND.equals(peek())) {
+			position++;
+			parts.add(parseUnary());
+		}
+
+		if (parts.size() == 1) {
+			return parts.get(0);
+		}
+		return new CdmAndQuery(parts);
+	}
+
+	private CdmQuery parseUnary() throws CdmQueryException, ConversionException {
+
+		String token = next();
+
+		if (NOT.equalsIgnoreCase(token)) {
+			return new CdmNotQuery(parseUnary());
+		}
+
+		if (OPEN.equals(token)) {
+			CdmQuery result = parseOr();
+			if (!CLOSE.equals(peek())) {
+				throw new CdmQueryException("There is a '" + OPEN + "' without a matching '" + CLOSE + "'.");
+			}
+			position++;
+			return result;
+		}
+
+		CdmCriterion.Kind kind = getKind(token);
+
+		if (kind == null) {
+			throw new CdmQueryException("The argument '" + token + "' was not understood.");
+		}
+
+		if (position >= tokens.size()) {
+			throw new CdmQueryException("The argument '" + token + "' needs a value.");
+		}
+
+		String value = next();
+
+		if (kind == CdmCriterion.Kind.UUID) {
+			value = UuidEncoderDecoder.ensureUUIDisEcore(value);
+		}
+
+		return new CdmCriterion(kind, value);
+	}
+
+	private static CdmCriterion.Kind getKind(String token) {
+
+		switch (token.toLowerCase()) {
+			case "-u":
+			case "-uuid":
+				return CdmCriterion.Kind.UUID;
+			case "-n":
+			case "-name":
+				return CdmCriterion.Kind.NAME;
+			case "-p":
+			case "-path":
+				return CdmCriterion.Kind.PATH;
+			case "-t":
+			case "-type":
+				return CdmCriterion.Kind.TYPE;
+			case "-x":
+			case "-xml":
+				return CdmCriterion.Kind.XML_TAG;
+		}
+
+		return null;
+	}
+
+	private String peek() {
+		if (position < tokens.size()) {
+			return tokens.get(position).toLowerCase();
+		}
+		return null;
+	}
+
+	private String next() throws CdmQueryException {
+		if (position < tokens.size()) {
+			return tokens.get(position++);
+		}
+		throw new CdmQueryException("The criteria end unexpectedly.");
+	}
+}
@@ -0,0 +1,153 @@
+/**
+ * Unlicensed code created by A Softer Space, 2019
+ * www.asofterspace.com/licenses/unlicense.txt
+ */
+package com.asofterspace.cdm.query;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * Writes the results of  cdm find  in a machine-readable format, one result at a time, through
+ * one large buffer (so that even hundreds of thousands of results are written quickly)
+ */
+public class CdmResultWriter {
+
+	public final static String FORMAT_TEXT = "text";
+	public final static String FORMAT_JSONL = "jsonl";
+	public final static String FORMAT_CSV = "csv";
+
+	private final static String[] FIELDS = {"uuid", "name", "path", "type", "xmlTag", "file"};
+
+	private final static int BUFFER_SIZE = 256 * 1024;
+
+	private String format;
+
+	private Writer out;
+
+
+	/**
+	 * Write results in the given format (jsonl or csv) to the given stream
+	 */
+	public CdmResultWriter(String format, OutputStream stream) throws IOException {
+
+		this.format = format;
+		this.out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), BUFFER_SIZE);
+
+		if (FORMAT_CSV.equals(format)) {
+			writeCsvLine(FIELDS);
+		}
+	}
+
+	public static boolean isKnownFormat(String format) {
+		return FORMAT_TEXT.equals(format) || FORMAT_JSONL.equals(format) || FORMAT_CSV.equals(format);
+	}
+
+	/**
+	 * Write one result - any of the values may be null if they are not known
+	 */
+	public void write(String uuid, String name, String path, String type, String xmlTag, String file) throws IOException {
+
+		String[] values = {uuid, name, path, type, xmlTag, file};
+
+		if (FORMAT_CSV.equals(format)) {
+			writeCsvLine(values);
+		} else {
+			writeJsonLine(values);
+		}
+	}
+
+	/**
+	 * Write out everything that is still buffered (the underlying stream is not closed)
+	 */
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	private void writeJsonLine(String[] values) throws IOException {
+
+		out.write('{');
+
+		for (int i = 0; i < FIELDS.length; i++) {
+			if (i > 0) {
+				out.write(',');
+			}
+			out.write('"');
+			out.write(FIELDS[i]);
+			out.write("\":");
+
+			if (values[i] == null) {
+				out.write("null");
+				continue;
+			}
+
+			out.write('"');
+			writeJsonEscaped(values[i]);
+			out.write('"');
+		}
+
+		out.write("}\n");
+	}
+
+	private void writeJsonEscaped(String value) throws IOException {
+
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+				case '"':
+					out.write("\\\"");
+					break;
+				case '\\':
+					out.write("\\\\");
+					break;
+				case '\n':
+					out.write("\\n");
+					break;
+				case '\r':
+					out.write("\\r");
+					break;
+				case '\t':
+					out.write("\\t");
+					break;
+				default:
+					if (c < 0x20) {
+						out.write(String.format("\\u%04x", (int) c));
+					} else {
+						out.write(c);
+					}
+			}
+		}
+	}
+
+	// as in RFC 4180: values containing separators, quotes or line breaks are quoted
+	private void writeCsvLine(String[] values) throws IOException {
+
+		for (int i = 0; i < values.length; i++) {
+			if (i > 0) {
+				out.write(',');
+			}
+
+			String value = values[i];
+
+			if (value == null) {
+				continue;
+			}
+
+			if ((value.indexOf(',') < 0) && (value.indexOf('"') < 0) && (value.indexOf('\n') < 0) && (value.indexOf('\r') < 0)) {
+				out.write(value);
+				continue;
+			}
+
+			out.write('"');
+			out.write(value.replace("\"", "\"\""));
+			out.write('"');
+		}
+
+		out.write("\r\n");
+	}
+}
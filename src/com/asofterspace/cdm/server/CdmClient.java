@@ -0,0 +1,193 @@
+/**
+ * Unlicensed code created by A Softer Space, 2019
+ * www.asofterspace.com/licenses/unlicense.txt
+ */
+package com.asofterspace.cdm.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * The thin client which hands commands over to a running cdm server (if there is one),
+ * and prints out whatever the server answers
+ */
+public class CdmClient {
+
+	// commands that are always executed locally, as there is nothing to be gained by asking the server
+	// (and the server might even be running an older version of the cdm commandline tool), as well as
+	// commands which read from the standard input, which is not handed over to the server
+	private final static List<String> LOCAL_COMMANDS = Arrays.asList("batch", "help", "interactive", "version", "version_for_zip");
+
+	private final static int CONNECT_TIMEOUT = 1000;
+
+	// exit code for when the server disappeared while executing our command
+	private final static int EXIT_CODE_CONNECTION_LOST = 21;
+
+
+	/**
+	 * Let the cdm server execute the command given by these arguments - returns the exit
+	 * code of the command, or null if there is no server (so we have to do all the work ourselves)
+	 */
+	public static Integer forward(String[] args) {
+
+		if (System.getenv("CDM_NO_SERVER") != null) {
+			return null;
+		}
+
+		if ((args.length < 1) || isLocalCommand(args[0])) {
+			return null;
+		}
+
+		// watching keeps running until it is stopped, and the changes happen here, not at the server
+		if (Arrays.asList(args).contains("--watch")) {
+			return null;
+		}
+
+		// a bare - means that something is read from the standard input (e.g. in  cdm uuid -k ecore - ),
+		// which the server cannot see
+		if (Arrays.asList(args).contains("-")) {
+			return null;
+		}
+
+		// starting a new server is only done locally, but all other serve commands go to the running one
+		if (CdmServer.isServeCommand(args) && !CdmServer.isStopCommand(args)) {
+			return null;
+		}
+
+		List<String> info = readInfoFile();
+
+		if (info == null) {
+			return null;
+		}
+
+		String token = info.get(1).trim();
+
+		Socket socket = connect(info);
+
+		if (socket == null) {
+			return null;
+		}
+
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+			out.writeUTF(token);
+			out.writeUTF(new File("").getAbsolutePath());
+			out.writeInt(args.length);
+			for (String arg : args) {
+				out.writeUTF(arg);
+			}
+			out.flush();
+
+			while (true) {
+				byte channel = in.readByte();
+
+				if (channel == CdmServer.CHANNEL_EXIT) {
+					return in.readInt();
+				}
+
+				byte[] buffer = new byte[in.readInt()];
+				in.readFully(buffer);
+
+				PrintStream target = (channel == CdmServer.CHANNEL_ERR) ? System.err : System.out;
+				target.write(buffer, 0, buffer.length);
+				target.flush();
+			}
+
+		} catch (IOException e) {
+			System.err.println("The connection to the cdm server was lost: " + e.getMessage());
+			return EXIT_CODE_CONNECTION_LOST;
+
+		} finally {
+			closeQuietly(socket);
+		}
+	}
+
+	/**
+	 * Check whether a cdm server is currently running and accepting connections
+	 */
+	public static boolean isServerRunning() {
+
+		List<String> info = readInfoFile();
+
+		if (info == null) {
+			return false;
+		}
+
+		Socket socket = connect(info);
+
+		if (socket == null) {
+			return false;
+		}
+
+		closeQuietly(socket);
+
+		return true;
+	}
+
+	private static List<String> readInfoFile() {
+
+		File infoFile = CdmServer.getInfoFile();
+
+		if (!infoFile.exists()) {
+			return null;
+		}
+
+		try {
+			List<String> info = Files.readAllLines(infoFile.toPath(), StandardCharsets.UTF_8);
+			if (info.size() < 2) {
+				return null;
+			}
+			return info;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	private static Socket connect(List<String> info) {
+
+		Socket socket = new Socket();
+
+		try {
+			int port = Integer.parseInt(info.get(0).trim());
+			socket.connect(new InetSocketAddress(InetAddress.getByName(null), port), CONNECT_TIMEOUT);
+			return socket;
+		} catch (IOException | NumberFormatException e) {
+			// the info file is left over from a server that is no longer running
+			closeQuietly(socket);
+			return null;
+		}
+	}
+
+	private static boolean isLocalCommand(String command) {
+
+		command = command.trim().toLowerCase();
+		while (command.startsWith("-")) {
+			command = command.substring(1);
+		}
+
+		return LOCAL_COMMANDS.contains(command);
+	}
+
+	private static void closeQuietly(Socket socket) {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// we are done with it anyway
+		}
+	}
+}
@@ -0,0 +1,224 @@
+/**
+ * Unlicensed code created by A Softer Space, 2019
+ * www.asofterspace.com/licenses/unlicense.txt
+ */
+package com.asofterspace.cdm.server;
+
+import com.asofterspace.cdm.CdmCache;
+import com.asofterspace.cdm.CommandCtrl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.SecureRandom;
+
+
+/**
+ * The cdm server keeps loaded CDMs around in a cache and executes the commands that cdm clients
+ * send to it - so that not every single call of the cdm commandline tool has to start up a new
+ * JVM and parse the entire CDM again
+ *
+ * The server only listens on the loopback interface, and clients have to present a secret token
+ * which is stored in the server info file in the home directory of the user who started the server
+ */
+public class CdmServer {
+
+	// what the server sends to the client
+	final static byte CHANNEL_EXIT = 0;
+	final static byte CHANNEL_OUT = 1;
+	final static byte CHANNEL_ERR = 2;
+
+	private final static String INFO_FILE_NAME = ".cdm_server";
+
+	private int port;
+
+	private CdmCache cdmCache;
+
+	private String token;
+
+	private boolean running;
+
+
+	/**
+	 * Create a server that listens on the given port (or on any free port if 0 is given)
+	 */
+	public CdmServer(int port, CdmCache cdmCache) {
+		this.port = port;
+		this.cdmCache = cdmCache;
+	}
+
+	/**
+	 * Serve clients until a client asks us to stop
+	 */
+	public void run() throws IOException {
+
+		token = generateToken();
+
+		try (ServerSocket serverSocket = new ServerSocket(port, 50, InetAddress.getByName(null))) {
+
+			final File infoFile = getInfoFile();
+
+			writeInfoFile(infoFile, serverSocket.getLocalPort(), token);
+
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				public void run() {
+					infoFile.delete();
+				}
+			});
+
+			System.out.println("The cdm server is listening on port " + serverSocket.getLocalPort() + " - stop it with  cdm serve stop");
+
+			CommandCtrl.setCdmCache(cdmCache);
+
+			running = true;
+
+			while (running) {
+				try (Socket socket = serverSocket.accept()) {
+					handle(socket);
+				} catch (EOFException e) {
+					// a client just checked whether we are running, without sending a command
+				} catch (IOException e) {
+					// a client went away while we were talking to it - that is its problem, not ours
+					System.err.println("Lost the connection to a client: " + e.getMessage());
+				}
+			}
+
+			CommandCtrl.setCdmCache(null);
+
+			infoFile.delete();
+		}
+	}
+
+	private void handle(Socket socket) throws IOException {
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+		if (!token.equals(in.readUTF())) {
+			System.err.println("A client tried to connect with the wrong token and has been ignored.");
+			return;
+		}
+
+		String workingDirectory = in.readUTF();
+		String[] args = new String[in.readInt()];
+		for (int i = 0; i < args.length; i++) {
+			args[i] = in.readUTF();
+		}
+
+		PrintStream commandOut = new PrintStream(new BufferedOutputStream(new ChannelOutputStream(out, CHANNEL_OUT), 64 * 1024), false, "UTF-8");
+		PrintStream commandErr = new PrintStream(new BufferedOutputStream(new ChannelOutputStream(out, CHANNEL_ERR), 64 * 1024), false, "UTF-8");
+
+		int exitCode;
+
+		if (isServeCommand(args)) {
+			exitCode = handleServeCommand(args, commandOut, commandErr);
+		} else {
+			exitCode = execute(args, workingDirectory, commandOut, commandErr);
+		}
+
+		commandOut.flush();
+		commandErr.flush();
+
+		out.writeByte(CHANNEL_EXIT);
+		out.writeInt(exitCode);
+		out.flush();
+	}
+
+	private int execute(String[] args, String workingDirectory, PrintStream commandOut, PrintStream commandErr) {
+
+		PrintStream originalOut = System.out;
+		PrintStream originalErr = System.err;
+
+		System.setOut(commandOut);
+		System.setErr(commandErr);
+		CommandCtrl.setWorkingDirectory(workingDirectory);
+
+		try {
+			return CommandCtrl.executeCommandInSession(args);
+
+		} catch (OutOfMemoryError e) {
+			// make room for the next client, as we clearly ran out of room for this one
+			cdmCache.clear();
+			commandErr.println("The cdm server ran out of memory - its cache has been cleared, please try again.");
+			return 1;
+
+		} catch (RuntimeException e) {
+			e.printStackTrace(commandErr);
+			return 1;
+
+		} finally {
+			CommandCtrl.setWorkingDirectory(null);
+			System.setOut(originalOut);
+			System.setErr(originalErr);
+		}
+	}
+
+	private int handleServeCommand(String[] args, PrintStream commandOut, PrintStream commandErr) {
+
+		if (isStopCommand(args)) {
+			running = false;
+			commandOut.println("The cdm server has been stopped.");
+			return 0;
+		}
+
+		commandErr.println("The cdm server is already running - stop it first with  cdm serve stop");
+		return 1;
+	}
+
+	static boolean isServeCommand(String[] args) {
+
+		if (args.length < 1) {
+			return false;
+		}
+
+		String command = args[0].trim().toLowerCase();
+		while (command.startsWith("-")) {
+			command = command.substring(1);
+		}
+
+		return "serve".equals(command);
+	}
+
+	static boolean isStopCommand(String[] args) {
+		return isServeCommand(args) && (args.length > 1) && "stop".equals(args[args.length - 1].toLowerCase());
+	}
+
+	static File getInfoFile() {
+		return new File(System.getProperty("user.home"), INFO_FILE_NAME);
+	}
+
+	private static void writeInfoFile(File infoFile, int port, String token) throws IOException {
+
+		// create the file empty first, so that nobody else can read the token in between
+		infoFile.delete();
+		infoFile.createNewFile();
+		infoFile.setReadable(false, false);
+		infoFile.setReadable(true, true);
+		infoFile.setWritable(false, false);
+		infoFile.setWritable(true, true);
+
+		Files.write(infoFile.toPath(), (port + "\n" + token + "\n").getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String generateToken() {
+
+		byte[] tokenBytes = new byte[32];
+		new SecureRandom().nextBytes(tokenBytes);
+
+		StringBuilder result = new StringBuilder();
+		for (byte tokenByte : tokenBytes) {
+			result.append(String.format("%02x", tokenByte & 0xFF));
+		}
+		return result.toString();
+	}
+}
@@ -0,0 +1,54 @@
+/**
+ * Unlicensed code created by A Softer Space, 2019
+ * www.asofterspace.com/licenses/unlicense.txt
+ */
+package com.asofterspace.cdm.server;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+
+/**
+ * An output stream that sends everything written to it as frames of one particular channel
+ * (e.g. stdout or stderr) over the connection between the cdm server and a cdm client
+ */
+class ChannelOutputStream extends OutputStream {
+
+	private DataOutputStream connection;
+
+	private byte channel;
+
+
+	public ChannelOutputStream(DataOutputStream connection, byte channel) {
+		this.connection = connection;
+		this.channel = channel;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] {(byte) b}, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] buffer, int offset, int length) throws IOException {
+
+		if (length < 1) {
+			return;
+		}
+
+		// stdout and stderr share one connection, so frames must never be interleaved
+		synchronized (connection) {
+			connection.writeByte(channel);
+			connection.writeInt(length);
+			connection.write(buffer, offset, length);
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		synchronized (connection) {
+			connection.flush();
+		}
+	}
+}
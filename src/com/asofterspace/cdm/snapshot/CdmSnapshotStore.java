@@ -0,0 +1,563 @@
+/**
+ * Unlicensed code created by A Softer Space, 2019
+ * www.asofterspace.com/licenses/unlicense.txt
+ */
+package com.asofterspace.cdm.snapshot;
+
+import com.asofterspace.cdm.index.CdmIndexer;
+import com.asofterspace.toolbox.cdm.CdmCtrl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+
+/**
+ * Keeps binary snapshots of loaded CDMs, so that a CDM whose files did not change since it was last
+ * loaded can be restored from its snapshot instead of having its XML parsed and linked once more
+ *
+ * Each snapshot starts with a manifest of the paths, sizes, modification times and hashes of the
+ * files it was loaded from, followed by the serialized model - it is only used if the manifest still
+ * matches the files on disk, and if it was taken by the same version of this program and toolbox
+ *
+ * The snapshots are kept in a directory of the user (not within the CDM directories, as restoring
+ * one runs Java deserialization, which should only ever be done on files we wrote ourselves); if
+ * they take up too much space, the ones used least recently are thrown out first
+ */
+public class CdmSnapshotStore {
+
+	public final static String SNAPSHOT_EXTENSION = ".cdmsnapshot";
+
+	private final static String MAGIC = "CDMSNAPSHOT";
+
+	private final static int FORMAT_VERSION = 1;
+
+	public final static long DEFAULT_MAX_TOTAL_SIZE = 2L * 1024 * 1024 * 1024;
+
+	private File snapshotDir;
+
+	private String programVersion;
+
+	private long maxTotalSize;
+
+
+	/**
+	 * Open the snapshots in the given directory, for models loaded by the given version of
+	 * the program, keeping at most maxTotalSize bytes of snapshots around
+	 */
+	public CdmSnapshotStore(File snapshotDir, String programVersion, long maxTotalSize) {
+		this.snapshotDir = snapshotDir.getAbsoluteFile();
+		this.programVersion = programVersion;
+		this.maxTotalSize = maxTotalSize;
+	}
+
+	/**
+	 * The directory in which snapshots are kept by default, which is .cdm/snapshots within the
+	 * home directory of the user (or the one given in the environment variable CDM_SNAPSHOT_DIR)
+	 */
+	public static File getDefaultDirectory() {
+
+		String configured = System.getenv("CDM_SNAPSHOT_DIR");
+
+		if ((configured != null) && !"".equals(configured)) {
+			return new File(configured);
+		}
+
+		return new File(new File(System.getProperty("user.home"), ".cdm"), "snapshots");
+	}
+
+	/**
+	 * Whether the CDM model of the toolbox that we run with can be snapshotted at all - if it
+	 * cannot be serialized, CDMs simply always have to be parsed
+	 */
+	public static boolean isSupported() {
+		return Serializable.class.isAssignableFrom(CdmCtrl.class);
+	}
+
+	public File getDirectory() {
+		return snapshotDir;
+	}
+
+	/**
+	 * Note down the files of the CDM in the given directory right before it is loaded, such that
+	 * the loaded model can be stored afterwards (unless the files changed in the meantime)
+	 */
+	public Manifest createManifest(File cdmDir) {
+		String key = getKey(cdmDir);
+		return new Manifest(key, CdmIndexer.getCdmFiles(new File(key)));
+	}
+
+	/**
+	 * Restore the CDM in the given directory from its snapshot, returning null if there is no
+	 * snapshot or if it does not fit the files on disk (or is not detailed enough) any longer
+	 */
+	public CdmCtrl restore(File cdmDir, boolean loadFullModel) {
+
+		String key = getKey(cdmDir);
+		File snapshotFile = getSnapshotFile(key);
+
+		if (!snapshotFile.isFile()) {
+			return null;
+		}
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile), 64 * 1024))) {
+
+			Header header = readHeader(in);
+
+			if ((header == null) || !key.equals(header.cdmDir) || (loadFullModel && !header.fullModel) ||
+				!header.manifest.matches(CdmIndexer.getCdmFiles(new File(key)))) {
+				return null;
+			}
+
+			Object model = new ObjectInputStream(in).readObject();
+
+			if (!(model instanceof CdmCtrl)) {
+				return null;
+			}
+
+			// remember when the snapshot was used last, so that it is not thrown out too soon
+			snapshotFile.setLastModified(System.currentTimeMillis());
+
+			return (CdmCtrl) model;
+
+		} catch (IOException | ClassNotFoundException | RuntimeException e) {
+			// the snapshot is broken or does not fit the classes we have - we will just parse the CDM
+			snapshotFile.delete();
+			return null;
+		}
+	}
+
+	/**
+	 * Store a snapshot of the given model, which has been loaded from the files noted down in the
+	 * given manifest, returning true if that worked (or false, e.g. if it cannot be serialized)
+	 */
+	public boolean store(Manifest manifest, boolean fullModel, CdmCtrl cdmCtrl) {
+
+		if (!isSupported() || !manifest.isUnchangedSinceCreated()) {
+			return false;
+		}
+
+		File snapshotFile = getSnapshotFile(manifest.cdmDir);
+
+		if (!snapshotDir.isDirectory() && !snapshotDir.mkdirs()) {
+			return false;
+		}
+
+		// write to a temporary file first, so that nobody ever sees a half-written snapshot
+		File tempFile = new File(snapshotDir, snapshotFile.getName() + ".tmp");
+
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 64 * 1024))) {
+
+				out.writeUTF(MAGIC);
+				out.writeInt(FORMAT_VERSION);
+				out.writeUTF(programVersion);
+				out.writeLong(getModelClassVersion());
+				out.writeUTF(manifest.cdmDir);
+				out.writeBoolean(fullModel);
+				out.writeLong(System.currentTimeMillis());
+				manifest.write(out);
+
+				ObjectOutputStream objectOut = new ObjectOutputStream(out);
+				objectOut.writeObject(cdmCtrl);
+				objectOut.flush();
+			}
+
+			try {
+				Files.move(tempFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tempFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+
+		} catch (IOException | RuntimeException e) {
+			// e.g. some part of the model cannot be serialized - then there just is no snapshot
+			tempFile.delete();
+			return false;
+		}
+
+		makeRoom(snapshotFile);
+
+		return true;
+	}
+
+	/**
+	 * Get information about the snapshot of the CDM in the given directory, or about all
+	 * snapshots if no directory is given
+	 */
+	public List<Status> getStatus(File cdmDir) {
+
+		List<Status> result = new ArrayList<>();
+
+		for (File snapshotFile : getSnapshotFiles(cdmDir)) {
+
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile), 64 * 1024))) {
+
+				Header header = readHeader(in);
+
+				if (header == null) {
+					result.add(new Status(snapshotFile, null, false, 0, 0, false));
+					continue;
+				}
+
+				boolean upToDate = header.manifest.matches(CdmIndexer.getCdmFiles(new File(header.cdmDir)));
+
+				result.add(new Status(snapshotFile, header.cdmDir, header.fullModel, header.manifest.files.size(),
+					header.createdAt, upToDate));
+
+			} catch (IOException | RuntimeException e) {
+				result.add(new Status(snapshotFile, null, false, 0, 0, false));
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Delete the snapshot of the CDM in the given directory, or all snapshots if no directory
+	 * is given, returning how many snapshots were deleted
+	 */
+	public int clear(File cdmDir) {
+
+		int result = 0;
+
+		for (File snapshotFile : getSnapshotFiles(cdmDir)) {
+			if (snapshotFile.delete()) {
+				result++;
+			}
+		}
+
+		return result;
+	}
+
+	private List<File> getSnapshotFiles(File cdmDir) {
+
+		if (cdmDir != null) {
+			File snapshotFile = getSnapshotFile(getKey(cdmDir));
+			if (snapshotFile.isFile()) {
+				return Collections.singletonList(snapshotFile);
+			}
+			return new ArrayList<>();
+		}
+
+		File[] files = snapshotDir.listFiles();
+
+		if (files == null) {
+			return new ArrayList<>();
+		}
+
+		List<File> result = new ArrayList<>();
+
+		for (File file : files) {
+			if (file.isFile() && file.getName().endsWith(SNAPSHOT_EXTENSION)) {
+				result.add(file);
+			}
+		}
+
+		Collections.sort(result);
+
+		return result;
+	}
+
+	/**
+	 * Throw out the snapshots used least recently until all of them fit into the maximum total
+	 * size again - except for the given one, which has just been stored
+	 */
+	private void makeRoom(File keep) {
+
+		List<File> snapshotFiles = getSnapshotFiles(null);
+
+		// the ones used most recently first
+		Collections.sort(snapshotFiles, new Comparator<File>() {
+			public int compare(File a, File b) {
+				return Long.compare(b.lastModified(), a.lastModified());
+			}
+		});
+
+		long totalSize = keep.length();
+
+		for (File snapshotFile : snapshotFiles) {
+			if (snapshotFile.equals(keep)) {
+				continue;
+			}
+			totalSize += snapshotFile.length();
+			if (totalSize > maxTotalSize) {
+				snapshotFile.delete();
+			}
+		}
+	}
+
+	private Header readHeader(DataInputStream in) throws IOException {
+
+		if (!MAGIC.equals(in.readUTF()) || (in.readInt() != FORMAT_VERSION) ||
+			!programVersion.equals(in.readUTF()) || (in.readLong() != getModelClassVersion())) {
+			return null;
+		}
+
+		Header result = new Header();
+		result.cdmDir = in.readUTF();
+		result.fullModel = in.readBoolean();
+		result.createdAt = in.readLong();
+		result.manifest = Manifest.read(in, result.cdmDir);
+
+		return result;
+	}
+
+	/**
+	 * A snapshot only fits the toolbox that wrote it, so we note down the version of its model class
+	 */
+	private static long getModelClassVersion() {
+
+		ObjectStreamClass modelClass = ObjectStreamClass.lookup(CdmCtrl.class);
+
+		if (modelClass == null) {
+			return 0;
+		}
+
+		return modelClass.getSerialVersionUID();
+	}
+
+	private File getSnapshotFile(String key) {
+
+		try {
+			byte[] hash = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+
+			StringBuilder name = new StringBuilder();
+			for (byte b : hash) {
+				name.append(String.format("%02x", b & 0xFF));
+			}
+			name.append(SNAPSHOT_EXTENSION);
+
+			return new File(snapshotDir, name.toString());
+
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform is required to support SHA-1, so this cannot really happen
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String getKey(File cdmDir) {
+		try {
+			return cdmDir.getCanonicalPath();
+		} catch (IOException e) {
+			return cdmDir.getAbsolutePath();
+		}
+	}
+
+
+	private static class Header {
+
+		private String cdmDir;
+
+		private boolean fullModel;
+
+		private long createdAt;
+
+		private Manifest manifest;
+	}
+
+
+	/**
+	 * The files of a CDM as they were when it was loaded - the hashes are only computed when the
+	 * manifest is stored, as then the model has actually been loaded successfully
+	 */
+	public static class Manifest {
+
+		private String cdmDir;
+
+		private List<File> files;
+
+		private long[] sizes;
+
+		private long[] modifiedTimes;
+
+		private byte[][] hashes;
+
+
+		private Manifest(String cdmDir, List<File> files) {
+
+			this.cdmDir = cdmDir;
+			this.files = files;
+			this.sizes = new long[files.size()];
+			this.modifiedTimes = new long[files.size()];
+
+			for (int i = 0; i < files.size(); i++) {
+				sizes[i] = files.get(i).length();
+				modifiedTimes[i] = files.get(i).lastModified();
+			}
+		}
+
+		private Manifest(String cdmDir, List<File> files, long[] sizes, long[] modifiedTimes) {
+			this.cdmDir = cdmDir;
+			this.files = files;
+			this.sizes = sizes;
+			this.modifiedTimes = modifiedTimes;
+		}
+
+		private boolean isUnchangedSinceCreated() {
+
+			List<File> currentFiles = CdmIndexer.getCdmFiles(new File(cdmDir));
+
+			if (!currentFiles.equals(files)) {
+				return false;
+			}
+
+			for (int i = 0; i < files.size(); i++) {
+				if ((files.get(i).length() != sizes[i]) || (files.get(i).lastModified() != modifiedTimes[i])) {
+					return false;
+				}
+			}
+
+			return true;
+		}
+
+		/**
+		 * Check whether the given files are exactly the ones noted down here - files whose
+		 * modification time changed are compared by their contents (e.g. after a checkout)
+		 */
+		private boolean matches(List<File> currentFiles) {
+
+			if (!currentFiles.equals(files)) {
+				return false;
+			}
+
+			for (int i = 0; i < files.size(); i++) {
+
+				File file = files.get(i);
+
+				if (file.length() != sizes[i]) {
+					return false;
+				}
+
+				if (file.lastModified() != modifiedTimes[i]) {
+					try {
+						if (!Arrays.equals(CdmIndexer.hash(file), hashes[i])) {
+							return false;
+						}
+					} catch (IOException e) {
+						return false;
+					}
+				}
+			}
+
+			return true;
+		}
+
+		private void write(DataOutputStream out) throws IOException {
+
+			out.writeInt(files.size());
+
+			for (int i = 0; i < files.size(); i++) {
+				byte[] hash = CdmIndexer.hash(files.get(i));
+				out.writeUTF(new File(cdmDir).toPath().relativize(files.get(i).toPath()).toString());
+				out.writeLong(sizes[i]);
+				out.writeLong(modifiedTimes[i]);
+				out.writeShort(hash.length);
+				out.write(hash);
+			}
+		}
+
+		private static Manifest read(DataInputStream in, String cdmDir) throws IOException {
+
+			int fileAmount = in.readInt();
+
+			List<File> files = new ArrayList<>();
+			long[] sizes = new long[fileAmount];
+			long[] modifiedTimes = new long[fileAmount];
+			byte[][] hashes = new byte[fileAmount][];
+
+			for (int i = 0; i < fileAmount; i++) {
+				files.add(new File(cdmDir, in.readUTF()));
+				sizes[i] = in.readLong();
+				modifiedTimes[i] = in.readLong();
+				hashes[i] = new byte[in.readShort()];
+				in.readFully(hashes[i]);
+			}
+
+			Manifest result = new Manifest(cdmDir, files, sizes, modifiedTimes);
+			result.hashes = hashes;
+
+			return result;
+		}
+	}
+
+
+	/**
+	 * What is known about one stored snapshot
+	 */
+	public static class Status {
+
+		private File snapshotFile;
+
+		private String cdmDir;
+
+		private boolean fullModel;
+
+		private int fileAmount;
+
+		private long createdAt;
+
+		private boolean upToDate;
+
+
+		private Status(File snapshotFile, String cdmDir, boolean fullModel, int fileAmount, long createdAt, boolean upToDate) {
+			this.snapshotFile = snapshotFile;
+			this.cdmDir = cdmDir;
+			this.fullModel = fullModel;
+			this.fileAmount = fileAmount;
+			this.createdAt = createdAt;
+			this.upToDate = upToDate;
+		}
+
+		public File getSnapshotFile() {
+			return snapshotFile;
+		}
+
+		/**
+		 * The CDM directory of the snapshot, or null if the snapshot was taken by another version
+		 * of this program (or is broken), so that it will not be used
+		 */
+		public String getCdmDir() {
+			return cdmDir;
+		}
+
+		public boolean isFullModel() {
+			return fullModel;
+		}
+
+		public int getFileAmount() {
+			return fileAmount;
+		}
+
+		public long getCreatedAt() {
+			return createdAt;
+		}
+
+		public boolean isUpToDate() {
+			return upToDate;
+		}
+
+		public long getSize() {
+			return snapshotFile.length();
+		}
+	}
+}
@@ -0,0 +1,238 @@
+/**
+ * Unlicensed code created by A Softer Space, 2019
+ * www.asofterspace.com/licenses/unlicense.txt
+ */
+package com.asofterspace.cdm.validation;
+
+import com.asofterspace.cdm.index.CdmFileIndex;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Remembers the results of validating (parts of) a CDM, keyed by the contents of the validated
+ * files, so that files which did not change since the last validation do not have to be loaded
+ * and checked again
+ *
+ * The results are kept in a cache file within the CDM directory; they are only used if they were
+ * found by the same version of this program, as other versions might check different things
+ */
+public class CdmValidationCache {
+
+	public final static String CACHE_FILE_NAME = ".cdmvalidation";
+
+	private final static String MAGIC = "CDMVALIDATION";
+
+	private final static int FORMAT_VERSION = 1;
+
+	// how many results to keep around, e.g. for switching back and forth between branches
+	private final static int MAX_ENTRIES = 4096;
+
+	private File cdmDir;
+
+	private File cacheFile;
+
+	private String programVersion;
+
+	// the results by key, the ones used most recently last
+	private Map<String, Result> results = new LinkedHashMap<>();
+
+	private boolean changed = false;
+
+
+	/**
+	 * Open the validation cache of the given CDM directory, for results found by the given
+	 * version of the program
+	 */
+	public CdmValidationCache(File cdmDir, String programVersion) {
+
+		this.cdmDir = cdmDir.getAbsoluteFile();
+		this.cacheFile = new File(this.cdmDir, CACHE_FILE_NAME);
+		this.programVersion = programVersion;
+
+		read();
+	}
+
+	/**
+	 * Get the key under which the result of validating exactly the given files is stored
+	 */
+	public String getKey(List<CdmFileIndex> files) {
+
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+
+			for (CdmFileIndex file : files) {
+				String relativePath = cdmDir.toPath().relativize(new File(file.getPath()).toPath()).toString();
+				digest.update(relativePath.getBytes(StandardCharsets.UTF_8));
+				digest.update((byte) 0);
+				digest.update(file.getContentHash());
+			}
+
+			StringBuilder result = new StringBuilder();
+			for (byte b : digest.digest()) {
+				result.append(String.format("%02x", b));
+			}
+			return result.toString();
+
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform is required to support SHA-1, so this cannot really happen
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Get the stored result for the given key, or null if there is none
+	 */
+	public Result get(String key) {
+
+		Result result = results.remove(key);
+
+		if (result != null) {
+			results.put(key, result);
+		}
+
+		return result;
+	}
+
+	public void put(String key, int problemAmount, List<String> problems) {
+
+		results.remove(key);
+		results.put(key, new Result(problemAmount, problems));
+		changed = true;
+	}
+
+	/**
+	 * Write the cache file, if anything changed - if that does not work, the results
+	 * are just not remembered
+	 */
+	public void save() {
+
+		if (!changed) {
+			return;
+		}
+
+		File tempFile = new File(cdmDir, CACHE_FILE_NAME + ".tmp");
+
+		try {
+			List<Map.Entry<String, Result>> entries = new ArrayList<>(results.entrySet());
+			entries = entries.subList(Math.max(0, entries.size() - MAX_ENTRIES), entries.size());
+
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 64 * 1024))) {
+
+				out.writeUTF(MAGIC);
+				out.writeInt(FORMAT_VERSION);
+				out.writeUTF(programVersion);
+
+				out.writeInt(entries.size());
+
+				for (Map.Entry<String, Result> entry : entries) {
+					out.writeUTF(entry.getKey());
+					out.writeInt(entry.getValue().getProblemAmount());
+					out.writeInt(entry.getValue().getProblems().size());
+					for (String problem : entry.getValue().getProblems()) {
+						writeLongString(out, problem);
+					}
+				}
+			}
+
+			try {
+				Files.move(tempFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tempFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+
+			changed = false;
+
+		} catch (IOException e) {
+			tempFile.delete();
+		}
+	}
+
+	private void read() {
+
+		if (!cacheFile.isFile()) {
+			return;
+		}
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile), 64 * 1024))) {
+
+			if (!MAGIC.equals(in.readUTF()) || (in.readInt() != FORMAT_VERSION) || !programVersion.equals(in.readUTF())) {
+				return;
+			}
+
+			int entryAmount = in.readInt();
+
+			for (int e = 0; e < entryAmount; e++) {
+				String key = in.readUTF();
+				int problemAmount = in.readInt();
+				List<String> problems = new ArrayList<>();
+				int problemLines = in.readInt();
+				for (int p = 0; p < problemLines; p++) {
+					problems.add(readLongString(in));
+				}
+				results.put(key, new Result(problemAmount, problems));
+			}
+
+		} catch (IOException | RuntimeException e) {
+			// the cache file is broken - so we just validate everything again
+			results.clear();
+		}
+	}
+
+	// problem descriptions might be longer than the 64 KB that writeUTF can handle
+	private static void writeLongString(DataOutputStream out, String str) throws IOException {
+		byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readLongString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+
+	/**
+	 * The outcome of validating some files: the amount of problems as reported by the validation,
+	 * and the problem descriptions
+	 */
+	public static class Result {
+
+		private int problemAmount;
+
+		private List<String> problems;
+
+
+		public Result(int problemAmount, List<String> problems) {
+			this.problemAmount = problemAmount;
+			this.problems = Collections.unmodifiableList(new ArrayList<>(problems));
+		}
+
+		public int getProblemAmount() {
+			return problemAmount;
+		}
+
+		public List<String> getProblems() {
+			return problems;
+		}
+	}
+}